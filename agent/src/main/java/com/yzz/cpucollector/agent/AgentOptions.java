@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 命令行参数
+ */
+class AgentOptions {
+    static final String USAGE = "usage: cpu-agent [-p pid[,pid...]] [-n regex]... [-i intervalMicros] [-d seconds]\n"
+            + "                 [-o trace-file] [-r reportSeconds] [--rescan millis] [--raw]\n"
+            + "  -p        sample the given pids\n"
+            + "  -n        sample processes whose name (first cmdline segment, or comm) matches regex\n"
+            + "  -i        sampling interval in microseconds, default 1000 (1 kHz)\n"
+            + "  -d        stop after the given seconds, default 0 (until interrupted)\n"
+            + "  -o        write every sample to a trace file (convert with TraceEventExporter)\n"
+            + "  -r        print per-process summary and overhead every N seconds, default 1\n"
+            + "  --rescan  how often to rescan /proc for targets and target threads, in millis, default 1000\n"
+            + "  --raw     also print every sample to stdout as: timestampNanos pid cpuPercent";
+
+    final List<Integer> pids = new ArrayList<>();
+    final List<Pattern> namePatterns = new ArrayList<>();
+    long intervalNanos = 1000000;
+    long durationNanos;
+    String traceFile;
+    long reportNanos = 1000000000L;
+    long rescanNanos = 1000000000L;
+    boolean raw;
+
+    /**
+     * @throws IllegalArgumentException 参数有误，message为原因
+     */
+    static AgentOptions parse(String[] args) {
+        AgentOptions options = new AgentOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--raw".equals(arg)) {
+                options.raw = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            if ("-p".equals(arg)) {
+                for (String pid : value.split(",")) {
+                    options.pids.add(parsePositive(arg, pid));
+                }
+            } else if ("-n".equals(arg)) {
+                try {
+                    options.namePatterns.add(Pattern.compile(value));
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("bad pattern for -n: " + e.getDescription());
+                }
+            } else if ("-i".equals(arg)) {
+                options.intervalNanos = parsePositive(arg, value) * 1000L;
+            } else if ("-d".equals(arg)) {
+                options.durationNanos = (long) (parseDouble(arg, value) * 1e9);
+            } else if ("-o".equals(arg)) {
+                options.traceFile = value;
+            } else if ("-r".equals(arg)) {
+                options.reportNanos = Math.max(1, (long) (parseDouble(arg, value) * 1e9));
+            } else if ("--rescan".equals(arg)) {
+                options.rescanNanos = parsePositive(arg, value) * 1000000L;
+            } else {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (options.pids.isEmpty() && options.namePatterns.isEmpty()) {
+            throw new IllegalArgumentException("no target: give -p or -n");
+        }
+        return options;
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // 下面统一报错
+        }
+        throw new IllegalArgumentException("bad value for " + option + ": " + value);
+    }
+
+    private static double parseDouble(String option, String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // 下面统一报错
+        }
+        throw new IllegalArgumentException("bad value for " + option + ": " + value);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.agent;
+
+import com.yzz.cpucollector.sampler.LogLinearHistogram;
+import com.yzz.cpucollector.sampler.ProcUtil;
+import com.yzz.cpucollector.sampler.SchedCpuSampler;
+import com.yzz.cpucollector.sampler.TraceRecorder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 命令行采集agent：在普通Linux JVM上按固定频率采样一组进程的CPU占用
+ *
+ * 线程划分：
+ * 采样线程按 起始时间 + k × 周期 的节拍用 parkNanos 等待，每个节拍读一遍所有目标的 /proc/[pid]/schedstat，
+ * 稳定状态下不分配内存；错过的节拍直接跳过并计数，不补采。报告也在采样线程中输出，不需要在线程间共享窗口统计。
+ * 扫描线程按 --rescan 周期遍历 /proc 更新目标集合（见 TargetScanner），采样线程只比较数组引用。
+ *
+ * 开销报告包括：实际采样频率、错过的节拍、每个节拍的耗时与唤醒延迟分布、采样线程CPU、整个进程的CPU
+ */
+public class CpuAgent {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int RAW_LINE_CAPACITY = 64;
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private final AgentOptions mOptions;
+    private final TargetScanner mScanner;
+    private final TraceRecorder mRecorder;
+    private final Writer mOut;
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private final SchedCpuSampler mSelfSampler;
+    private final int mCpuCount = ProcUtil.cpuCount();
+
+    // 单位纳秒，最大10秒
+    private final LogLinearHistogram mTickCost = new LogLinearHistogram(10 * NANOS_PER_SECOND, 4);
+    private final LogLinearHistogram mWakeupLatency = new LogLinearHistogram(10 * NANOS_PER_SECOND, 4);
+
+    private volatile boolean mRunning = true;
+    private volatile Thread mSamplerThread;
+    private Thread mScannerThread;
+
+    // 以下字段只在采样线程中使用
+    private Target[] mTargets = new Target[0];
+    private long mTicks;
+    private long mMissedTicks;
+    private long mSamples;
+    private long mStartNanos;
+    private long mStartThreadCpu;
+    private long mStartSelfRuntime;
+    private long mReportStartNanos;
+    private long mReportStartTicks;
+    private long mReportStartThreadCpu;
+    private long mReportStartSelfRuntime;
+    private final StringBuilder mLine = new StringBuilder(RAW_LINE_CAPACITY);
+    private char[] mLineChars = new char[RAW_LINE_CAPACITY];
+
+    CpuAgent(AgentOptions options) throws IOException {
+        mOptions = options;
+        mScanner = new TargetScanner(options.pids, options.namePatterns, options.rescanNanos);
+        mRecorder = options.traceFile != null ? new TraceRecorder(new File(options.traceFile), 0) : null;
+        mOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), "UTF-8"), 64 * 1024);
+        int selfPid = ProcUtil.selfPid();
+        mSelfSampler = selfPid > 0 ? new SchedCpuSampler(selfPid) : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        AgentOptions options;
+        try {
+            options = AgentOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(AgentOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        final CpuAgent agent = new CpuAgent(options);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                agent.stop();
+            }
+        }, "CpuAgentShutdown"));
+        agent.start();
+        agent.awaitTermination();
+    }
+
+    void start() {
+        mScanner.scan();
+        mScannerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scanLoop();
+            }
+        }, "CpuAgentScanner");
+        mScannerThread.setDaemon(true);
+        mScannerThread.start();
+
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampleLoop();
+            }
+        }, "CpuAgentSampler");
+        mSamplerThread = sampler;
+        sampler.start();
+    }
+
+    void awaitTermination() throws InterruptedException {
+        mSamplerThread.join();
+    }
+
+    /**
+     * 结束采样，等待采样线程输出最终报告并关闭trace文件
+     */
+    void stop() {
+        mRunning = false;
+        Thread sampler = mSamplerThread;
+        if (sampler != null) {
+            LockSupport.unpark(sampler);
+            try {
+                sampler.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void scanLoop() {
+        while (mRunning) {
+            LockSupport.parkNanos(mOptions.rescanNanos);
+            mScanner.scan();
+        }
+    }
+
+    private void sampleLoop() {
+        long interval = mOptions.intervalNanos;
+        mStartNanos = System.nanoTime();
+        long endNanos = mOptions.durationNanos > 0 ? mStartNanos + mOptions.durationNanos : Long.MAX_VALUE;
+        long nextTick = mStartNanos;
+        long nextReport = mStartNanos + mOptions.reportNanos;
+        beginReportWindow(mStartNanos);
+        mStartThreadCpu = mReportStartThreadCpu;
+        mStartSelfRuntime = mReportStartSelfRuntime;
+        try {
+            while (mRunning) {
+                long now = System.nanoTime();
+                if (now < nextTick) {
+                    LockSupport.parkNanos(this, nextTick - now);
+                    continue;
+                }
+                long late = now - nextTick;
+                mWakeupLatency.record(late);
+                if (late >= interval) {
+                    // 超过一个周期没有执行，跳过错过的节拍
+                    long missed = late / interval;
+                    mMissedTicks += missed;
+                    nextTick += missed * interval;
+                }
+                sampleTargets(now);
+                mTicks++;
+                mTickCost.record(System.nanoTime() - now);
+                nextTick += interval;
+
+                if (now >= nextReport) {
+                    report(now);
+                    nextReport += mOptions.reportNanos;
+                    if (nextReport <= now) {
+                        nextReport = now + mOptions.reportNanos;
+                    }
+                }
+                if (now >= endNanos) {
+                    break;
+                }
+            }
+            finish();
+        } catch (IOException e) {
+            System.err.println("cpu-agent: " + e);
+        }
+    }
+
+    private void sampleTargets(long now) throws IOException {
+        Target[] published = mScanner.getTargets();
+        if (published != mTargets) {
+            adopt(published);
+        }
+        Target[] targets = mTargets;
+        for (Target target : targets) {
+            if (!target.sampler.sample(now)) {
+                target.mAlive = false;
+                continue;
+            }
+            target.mAlive = true;
+            double percent = target.sampler.getCpuPercent();
+            if (percent == SchedCpuSampler.UNAVAILABLE) {
+                continue;
+            }
+            mSamples++;
+            target.mWindowSum += percent;
+            target.mWindowCount++;
+            if (percent > target.mWindowMax) {
+                target.mWindowMax = percent;
+            }
+            if (mRecorder != null) {
+                mRecorder.appendProcessSample(now, target.pid, percent);
+            }
+            if (mOptions.raw) {
+                writeRaw(now, target.pid, percent);
+            }
+        }
+    }
+
+    /**
+     * 切换到扫描线程新发布的目标，关闭已移除目标的文件句柄
+     */
+    private void adopt(Target[] published) {
+        for (Target target : mTargets) {
+            if (target.mRemoved) {
+                target.sampler.close();
+            }
+        }
+        mTargets = published;
+    }
+
+    /**
+     * 输出一行原始采样，复用StringBuilder和字符数组，不创建String
+     */
+    private void writeRaw(long now, int pid, double percent) throws IOException {
+        StringBuilder line = mLine;
+        line.setLength(0);
+        line.append(now).append(' ').append(pid).append(' ');
+        appendFixed(line, percent, 3);
+        line.append('\n');
+        int length = line.length();
+        if (length > mLineChars.length) {
+            mLineChars = new char[length];
+        }
+        line.getChars(0, length, mLineChars, 0);
+        mOut.write(mLineChars, 0, length);
+    }
+
+    /**
+     * 按固定小数位追加非负数，避免 String.format 与 Double.toString 的分配
+     */
+    private static void appendFixed(StringBuilder builder, double value, int digits) {
+        long scale = 1;
+        for (int i = 0; i < digits; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(value * scale);
+        builder.append(scaled / scale).append('.');
+        long fraction = scaled % scale;
+        for (long s = scale / 10; s > fraction && s > 1; s /= 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+
+    private void beginReportWindow(long now) {
+        mReportStartNanos = now;
+        mReportStartTicks = mTicks;
+        mReportStartThreadCpu = mThreadBean.getCurrentThreadCpuTime();
+        if (mSelfSampler != null && mSelfSampler.sample(now)) {
+            mReportStartSelfRuntime = mSelfSampler.getRuntimeNanos();
+        }
+        for (Target target : mTargets) {
+            target.resetWindow();
+        }
+    }
+
+    /**
+     * 输出一个报告窗口内每个目标的平均、最大占用，以及这段时间的采样开销
+     */
+    private void report(long now) throws IOException {
+        double seconds = (now - mReportStartNanos) / 1e9;
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "# %.3fs targets=%d%n", (now - mStartNanos) / 1e9, mTargets.length));
+        for (Target target : mTargets) {
+            if (!target.mAlive) {
+                text.append(String.format(Locale.US, "%8d %-24s exited%n", target.pid, shorten(target.name)));
+            } else if (target.mWindowCount > 0) {
+                text.append(String.format(Locale.US, "%8d %-24s mean=%6.2f%% max=%6.2f%%%s%n", target.pid,
+                        shorten(target.name), target.mWindowSum / target.mWindowCount, target.mWindowMax,
+                        target.sampler.isUsingSchedStat() ? "" : " (jiffies)"));
+            }
+        }
+        text.append(overhead(now, seconds, mTicks - mReportStartTicks)).append('\n');
+        mOut.write(text.toString());
+        mOut.flush();
+        beginReportWindow(now);
+    }
+
+    /**
+     * 开销一行：频率、采样线程与整个进程的CPU（以单核为100%）、节拍耗时分位
+     */
+    private String overhead(long now, double seconds, long ticks) {
+        double threadCore = Double.NaN;
+        long threadCpu = mThreadBean.getCurrentThreadCpuTime();
+        if (threadCpu >= 0 && mReportStartThreadCpu >= 0 && seconds > 0) {
+            threadCore = (threadCpu - mReportStartThreadCpu) / 1e9 / seconds * 100;
+        }
+        double processCore = Double.NaN;
+        if (mSelfSampler != null && mSelfSampler.sample(now) && seconds > 0) {
+            processCore = (mSelfSampler.getRuntimeNanos() - mReportStartSelfRuntime) / 1e9 / seconds * 100;
+        }
+        return String.format(Locale.US, "# overhead rate=%.1fHz missed=%d samples=%d sampler-thread=%.2f%%core"
+                        + " process=%.2f%%core (of %d) tick(us) p50=%.1f p99=%.1f max=%.1f"
+                        + " wakeup-late(us) p50=%.1f p99=%.1f max=%.1f",
+                seconds > 0 ? ticks / seconds : 0, mMissedTicks, mSamples, threadCore, processCore, mCpuCount,
+                mTickCost.valueAtPercentile(50) / 1e3, mTickCost.valueAtPercentile(99) / 1e3,
+                mTickCost.getMax() / 1e3, mWakeupLatency.valueAtPercentile(50) / 1e3,
+                mWakeupLatency.valueAtPercentile(99) / 1e3, mWakeupLatency.getMax() / 1e3);
+    }
+
+    private static String shorten(String name) {
+        return name.length() <= 24 ? name : "..." + name.substring(name.length() - 21);
+    }
+
+    /**
+     * 输出整个运行期间的汇总，关闭trace文件和所有目标
+     */
+    private void finish() throws IOException {
+        long now = System.nanoTime();
+        double seconds = (now - mStartNanos) / 1e9;
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "# total %.3fs ticks=%d (%.1fHz target %.1fHz) missed=%d samples=%d%n",
+                seconds, mTicks, seconds > 0 ? mTicks / seconds : 0,
+                (double) NANOS_PER_SECOND / mOptions.intervalNanos, mMissedTicks, mSamples));
+        text.append(String.format(Locale.US, "# tick cost(us) mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                mTickCost.getMean() / 1e3, mTickCost.valueAtPercentile(50) / 1e3,
+                mTickCost.valueAtPercentile(99) / 1e3, mTickCost.valueAtPercentile(99.9) / 1e3,
+                mTickCost.getMax() / 1e3));
+        long threadCpu = mThreadBean.getCurrentThreadCpuTime();
+        double processCore = Double.NaN;
+        if (mSelfSampler != null && mSelfSampler.sample(now) && seconds > 0) {
+            processCore = (mSelfSampler.getRuntimeNanos() - mStartSelfRuntime) / 1e9 / seconds * 100;
+        }
+        text.append(String.format(Locale.US, "# sampler-thread=%.2f%%core process=%.2f%%core (of %d cores)%n",
+                threadCpu >= 0 && seconds > 0 ? (threadCpu - mStartThreadCpu) / 1e9 / seconds * 100 : Double.NaN,
+                processCore, mCpuCount));
+        if (mRecorder != null) {
+            mRecorder.close();
+            text.append(String.format(Locale.US, "# trace %s records=%d%n", mOptions.traceFile,
+                    mRecorder.getRecordCount()));
+        }
+        mOut.write(text.toString());
+        mOut.flush();
+        for (Target target : mTargets) {
+            target.sampler.close();
+        }
+        if (mSelfSampler != null) {
+            mSelfSampler.close();
+        }
+    }
+}
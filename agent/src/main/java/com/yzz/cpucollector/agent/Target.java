@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.agent;
+
+import com.yzz.cpucollector.sampler.SchedCpuSampler;
+
+/**
+ * 一个采样目标
+ * 由扫描线程创建并发布，之后除 mRemoved 外只在采样线程中读写
+ */
+class Target {
+    final int pid;
+    final String name;
+    final SchedCpuSampler sampler;
+
+    // 扫描线程发现进程退出或pid被复用时置true，随下一次发布对采样线程可见，由采样线程关闭sampler
+    boolean mRemoved;
+
+    // 当前报告窗口内的统计，只在采样线程中读写
+    double mWindowSum;
+    double mWindowMax;
+    int mWindowCount;
+    boolean mAlive = true;
+
+    Target(int pid, String name, long threadRefreshNanos) {
+        this.pid = pid;
+        this.name = name;
+        sampler = new SchedCpuSampler(pid, threadRefreshNanos);
+    }
+
+    void resetWindow() {
+        mWindowSum = 0;
+        mWindowMax = 0;
+        mWindowCount = 0;
+    }
+}
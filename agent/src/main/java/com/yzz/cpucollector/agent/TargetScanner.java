@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.agent;
+
+import com.yzz.cpucollector.sampler.ProcUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 采样目标扫描
+ * 遍历 /proc 找出指定pid和名字匹配的进程，目标集合变化时发布新的 Target 数组。
+ * 遍历和字符串匹配的开销都在扫描线程中，采样线程只在数组引用变化时切换，平时不做任何查找。
+ * 同一个pid、同一个进程名的目标沿用原来的 Target 对象，统计不中断；进程名变化视为pid被复用，换成新的目标。
+ * 只能在一个线程中调用 scan()
+ */
+class TargetScanner {
+    private static final Target[] EMPTY = new Target[0];
+
+    private final List<Integer> mPids;
+    private final List<Pattern> mPatterns;
+    private final int mSelfPid;
+    private final long mThreadRefreshNanos;
+    private final Map<Integer, Target> mCurrent = new HashMap<>();
+
+    private volatile Target[] mTargets = EMPTY;
+
+    /**
+     * @param threadRefreshNanos 目标进程线程列表的刷新周期，见 SchedCpuSampler
+     */
+    TargetScanner(List<Integer> pids, List<Pattern> patterns, long threadRefreshNanos) {
+        mPids = pids;
+        mPatterns = patterns;
+        mThreadRefreshNanos = threadRefreshNanos;
+        mSelfPid = ProcUtil.selfPid();
+    }
+
+    /**
+     * 当前发布的目标，采样线程比较引用判断是否变化
+     */
+    Target[] getTargets() {
+        return mTargets;
+    }
+
+    /**
+     * 扫描一次，目标集合有变化时发布
+     *
+     * @return 是否发布了新的目标数组
+     */
+    boolean scan() {
+        Map<Integer, String> found = new HashMap<>();
+        for (int pid : mPids) {
+            String name = ProcUtil.processName(pid);
+            if (name != null) {
+                found.put(pid, name);
+            }
+        }
+        if (!mPatterns.isEmpty()) {
+            String[] names = new File("/proc").list();
+            if (names != null) {
+                for (String entry : names) {
+                    if (!ProcUtil.isNumeric(entry)) {
+                        continue;
+                    }
+                    int pid = Integer.parseInt(entry);
+                    if (pid == mSelfPid || found.containsKey(pid)) {
+                        continue;
+                    }
+                    String name = ProcUtil.processName(pid);
+                    if (name != null && matches(name)) {
+                        found.put(pid, name);
+                    }
+                }
+            }
+        }
+
+        boolean changed = false;
+        List<Target> next = new ArrayList<>(found.size());
+        for (Map.Entry<Integer, String> entry : found.entrySet()) {
+            Target target = mCurrent.get(entry.getKey());
+            if (target != null && !target.name.equals(entry.getValue())) {
+                target.mRemoved = true;
+                target = null;
+            }
+            if (target == null) {
+                target = new Target(entry.getKey(), entry.getValue(), mThreadRefreshNanos);
+                changed = true;
+            }
+            next.add(target);
+        }
+        for (Target target : mCurrent.values()) {
+            if (!found.containsKey(target.pid)) {
+                target.mRemoved = true;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return false;
+        }
+        mCurrent.clear();
+        for (Target target : next) {
+            mCurrent.put(target.pid, target);
+        }
+        mTargets = next.toArray(new Target[next.size()]);
+        return true;
+    }
+
+    private boolean matches(String name) {
+        for (Pattern pattern : mPatterns) {
+            if (pattern.matcher(name).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -5,13 +5,34 @@ package com.yzz.cpucollector;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import com.yzz.cpucollector.sampler.AdaptiveSampleRate;
+import com.yzz.cpucollector.sampler.CoreCpuSampler;
+import com.yzz.cpucollector.sampler.CpuSample;
+import com.yzz.cpucollector.sampler.LogLinearHistogram;
+import com.yzz.cpucollector.sampler.MetricsServer;
+import com.yzz.cpucollector.sampler.MetricsWriter;
+import com.yzz.cpucollector.sampler.ProcCpuSampler;
+import com.yzz.cpucollector.sampler.ProcMemorySampler;
+import com.yzz.cpucollector.sampler.ProcUtil;
+import com.yzz.cpucollector.sampler.SamplePipeline;
+import com.yzz.cpucollector.sampler.SampleRingBuffer;
+import com.yzz.cpucollector.sampler.SamplingScheduler;
+import com.yzz.cpucollector.sampler.ShellProcess;
+import com.yzz.cpucollector.sampler.ShellSession;
+import com.yzz.cpucollector.sampler.SystemCpuClock;
+import com.yzz.cpucollector.sampler.SystemTopSampler;
+import com.yzz.cpucollector.sampler.ThreadCpuSampler;
+import com.yzz.cpucollector.sampler.TraceRecorder;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CPU占用统计类
@@ -21,47 +42,146 @@ import java.util.Locale;
  */
 public class CPUCollector {
     public static final String TAG = CPUCollector.class.getSimpleName();
-    private String mPkgName = null;
-    private String mLastCPU = "";
-    private Thread mCpuThread;
-    private boolean enableCPU = true;
-    private boolean isRunning = false;
-    private boolean doCollect = false;
-    private static final String COMMAND_SH = "sh";
-    private static final String COMMAND_LINE_END = "\n";
-    private static final String COMMAND_EXIT = "exit\n";
-
-    private int maxFrameCount = 5; // 统计的总次数，可修改
-    private int resultFrameTimes = 0; // 统计次数
-    private double resultAVGValue;
-    private String mAvgCPUValue;
+    private static final long SHELL_TIMEOUT_MS = 5000; // 常驻shell中单条命令的超时
+    private static final long PID_LOOKUP_RETRY_NANOS = TimeUnit.SECONDS.toNanos(5); // 找不到pid时重新查找的间隔
+
+    private final SamplingScheduler mScheduler; // 采集线程调度，空闲时不唤醒
+    // 以下字段在调用线程与采集线程之间共享，需volatile保证可见性
+    private volatile String mPkgName = null;
+    private volatile int mPkgGeneration; // 包名每变化一次加一，采集线程据此关闭旧pid的采样器
+    private volatile CpuSample mLatestSample; // 最近一次采样结果
+    private final CopyOnWriteArrayList<ListenerRecord> mListeners = new CopyOnWriteArrayList<>();
+    private volatile TraceRecorder mTraceRecorder; // 二进制trace记录器，开启记录时非空
+    private volatile boolean mLogEnabled = false; // 是否由日志阶段输出采样结果
+    private volatile AdaptiveSampleRate mAdaptiveRate; // 自适应采样，开启时非空，状态只在采集线程中更新
+
+    private SystemCpuClock mCpuClock; // 以下采样器仅在采集线程中访问
+    private ProcCpuSampler mProcSampler; // 直接读取/proc的采样器
+    private ThreadCpuSampler mThreadSampler; // 线程级采样器，开启线程模式时使用
+    private ProcMemorySampler mMemorySampler; // 内存采样器，与CPU在同一轮读取
+    private boolean mMemoryValid; // 本轮内存数据是否有效
+    private int mSamplerGeneration; // 当前采样器对应的包名代数，仅在采集线程中访问
+    private long mNextPidLookupNanos; // 找不到pid时，在此之前回退到top命令，不再重复查找
+    private volatile boolean mUsePersistentShell = true; // 回退到shell命令时是否复用常驻sh进程
+    private ShellSession mShellSession; // 常驻shell会话，仅在采集线程中访问
+
+    // 线程、核心、全系统模式的结果在采集线程中只复制为基本类型，由getter在调用线程中格式化
+    private volatile boolean mThreadMode = false;
+    private volatile ThreadCpuSampler.ThreadCpu[] mTopThreads;
+    private final TopList mLastTopThreads = new TopList();
+
+    private volatile boolean mCoreMode = false;
+    private CoreCpuSampler mCoreSampler; // 核心采样器，开启核心模式时使用
+    private final CoreCpuSampler.Snapshot mCoreSnapshot = new CoreCpuSampler.Snapshot();
+    private final CoreCpuSampler.Snapshot mLastCores = new CoreCpuSampler.Snapshot(); // 受自身保护
+
+    private volatile int mSystemTopN = 0; // 大于0时开启全系统模式
+    private SystemTopSampler mSystemTopSampler; // 全系统进程采样器，开启全系统模式时使用
+    private final TopList mLastSystemTop = new TopList();
+
+    private int maxFrameCount = 5; // 计算平均值的样本数，可修改
+    private static final int HISTORY_CAPACITY = 1024; // 保留的历史样本数
+    private static final double HISTORY_EWMA_ALPHA = 0.3;
+    private final SampleRingBuffer mHistory = new SampleRingBuffer(HISTORY_CAPACITY, HISTORY_EWMA_ALPHA);
+    private final SampleRingBuffer.Window mAvgWindow = mHistory.addSampleWindow(maxFrameCount);
+    private final SampleRingBuffer.Stats mAvgStats = new SampleRingBuffer.Stats(); // 仅在采集线程中使用
+    public static final int CPU_HISTOGRAM_SCALE = 100; // 直方图中CPU占用的单位为0.01%
+    private final LogLinearHistogram mCpuHistogram = new LogLinearHistogram(100 * CPU_HISTOGRAM_SCALE, 7);
+
+    // 采集线程只把样本写入管线，监听回调、trace写入、直方图统计、日志输出由各阶段在自己的线程中批量处理
+    private static final int PIPELINE_CAPACITY = 256;
+    private final SamplePipeline mPipeline = new SamplePipeline(PIPELINE_CAPACITY, "CpuCollectorPipeline");
+
+    // 本地Prometheus抓取端点，指标阶段把最新样本复制到mMetricsEntry，抓取时在服务线程中加锁读取
+    private final MetricsServer mMetricsServer = new MetricsServer();
+    private final SamplePipeline.Entry mMetricsEntry = new SamplePipeline.Entry();
+    private boolean mMetricsValid; // 受mMetricsEntry保护
 
     private static CPUCollector mInstance = null;
 
     private CPUCollector() {
-        if (mCpuThread == null) {
-            mCpuThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    while (enableCPU) {
-                        if (doCollect && !isRunning) {
-                            doCollect = false;
-                            isRunning = true;
-                            mLastCPU = getCPUFromTopCMD();
-                            isRunning = false;
-                        } else {
-                            try {
-                                Thread.sleep(10);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
+        mScheduler = new SamplingScheduler("CpuCollectorThread", new SamplingScheduler.Task() {
+            @Override
+            public void onSample() {
+                if (mPkgName != null) {
+                    long start = System.nanoTime();
+                    double cpu = collectCPU();
+                    if (cpu >= 0) {
+                        publishSample(cpu);
+                        AdaptiveSampleRate adaptive = mAdaptiveRate;
+                        if (adaptive != null) {
+                            long period = adaptive.onSample(cpu, System.nanoTime() - start);
+                            if (mAdaptiveRate == adaptive) {
+                                mScheduler.setPeriod(period, TimeUnit.NANOSECONDS);
                             }
                         }
                     }
                 }
-            });
-            mCpuThread.setName("CpuCollectorThread");
-            mCpuThread.start();
-        }
+            }
+
+            @Override
+            public void onStop() {
+                closeProcSamplers();
+                if (mShellSession != null) {
+                    mShellSession.close();
+                    mShellSession = null;
+                }
+                if (mCoreSampler != null) {
+                    mCoreSampler.close();
+                    mCoreSampler = null;
+                }
+                if (mSystemTopSampler != null) {
+                    mSystemTopSampler.close();
+                    mSystemTopSampler = null;
+                }
+            }
+        });
+        mPipeline.addStage("listener", new SamplePipeline.Handler() {
+            @Override
+            public void onSample(SamplePipeline.Entry entry, boolean endOfBatch) {
+                dispatchSample(entry.toCpuSample());
+            }
+        }, SamplePipeline.POLICY_DROP_OLDEST, 1, 1, TimeUnit.SECONDS);
+        mPipeline.addStage("trace", new SamplePipeline.Handler() {
+            @Override
+            public void onSample(SamplePipeline.Entry entry, boolean endOfBatch) {
+                TraceRecorder recorder = mTraceRecorder;
+                if (recorder != null) {
+                    recorder.appendCpuSample(entry.timestampNanos, entry.cpuPercent,
+                            entry.coresValid ? entry.cores : null);
+                }
+            }
+        }, SamplePipeline.POLICY_DROP_OLDEST, 32, 1, TimeUnit.SECONDS);
+        mPipeline.addStage("histogram", new SamplePipeline.Handler() {
+            @Override
+            public void onSample(SamplePipeline.Entry entry, boolean endOfBatch) {
+                mCpuHistogram.record(Math.round(entry.cpuPercent * CPU_HISTOGRAM_SCALE));
+            }
+        }, SamplePipeline.POLICY_DROP_OLDEST, 32, 1, TimeUnit.SECONDS);
+        // 日志只需要最新的结果，最多每秒输出一次
+        mPipeline.addStage("log", new SamplePipeline.Handler() {
+            @Override
+            public void onSample(SamplePipeline.Entry entry, boolean endOfBatch) {
+                if (mLogEnabled) {
+                    logSample(entry);
+                }
+            }
+        }, SamplePipeline.POLICY_LATEST_ONLY, Integer.MAX_VALUE, 1, TimeUnit.SECONDS);
+        mPipeline.addStage("metrics", new SamplePipeline.Handler() {
+            @Override
+            public void onSample(SamplePipeline.Entry entry, boolean endOfBatch) {
+                synchronized (mMetricsEntry) {
+                    mMetricsEntry.copyFrom(entry);
+                    mMetricsValid = true;
+                }
+            }
+        }, SamplePipeline.POLICY_LATEST_ONLY, 1, 1, TimeUnit.SECONDS);
+        mMetricsServer.addSource(new MetricsServer.Source() {
+            @Override
+            public void writeMetrics(MetricsWriter writer) {
+                writeCollectorMetrics(writer);
+            }
+        });
     }
 
     public static synchronized CPUCollector getInstance() {
@@ -72,143 +192,704 @@ public class CPUCollector {
     }
 
     public void setPkgName(String pkgName) {
+        if (pkgName == null ? mPkgName != null : !pkgName.equals(mPkgName)) {
+            // 采样器只在采集线程中访问，由下一次采集关闭
+            mPkgGeneration++;
+        }
         mPkgName = pkgName;
+        mPipeline.start();
+        mScheduler.start();
+    }
+
+    /**
+     * 设置固定采样周期；不设置时只在调用getCPURate()时触发采集。会关闭自适应采样
+     *
+     * @param periodMs 采样周期（毫秒），<=0 表示关闭定时采集
+     */
+    public void setSamplePeriod(long periodMs) {
+        mAdaptiveRate = null;
+        mScheduler.setPeriod(periodMs, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * 开启自适应采样：CPU占用波动时按最短周期采样，平稳时周期指数退避到最长周期，详见 AdaptiveSampleRate
+     *
+     * @param minPeriodMs    最短周期（毫秒）
+     * @param maxPeriodMs    最长周期（毫秒）
+     * @param overheadBudget 采集耗时占周期的最大比例，如0.02表示2%
+     */
+    public void setAdaptiveSampling(long minPeriodMs, long maxPeriodMs, double overheadBudget) {
+        AdaptiveSampleRate adaptive = new AdaptiveSampleRate(minPeriodMs, maxPeriodMs, TimeUnit.MILLISECONDS,
+                overheadBudget);
+        mAdaptiveRate = adaptive;
+        mScheduler.setPeriod(adaptive.getPeriodNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 当前的定时采样周期（毫秒），自适应采样时随波动变化；0表示只按需采集
+     */
+    public long getSamplePeriodMs() {
+        return TimeUnit.NANOSECONDS.toMillis(mScheduler.getPeriodNanos());
+    }
+
+    /**
+     * 开启/关闭采样结果的日志输出（CPU占用、平均值及内存），由日志阶段最多每秒输出一次最新的结果
+     */
+    public void setLogEnabled(boolean enable) {
+        mLogEnabled = enable;
+    }
+
+    /**
+     * 采样发布管线，可用于查看各阶段的积压、丢弃与延迟
+     */
+    public SamplePipeline getPipeline() {
+        return mPipeline;
+    }
+
+    /**
+     * 在回环地址上启动Prometheus抓取端点（GET /metrics），输出CPU占用、平均值、内存及各核心数据。
+     * 电脑上执行 adb forward tcp:port tcp:port 后即可抓取；应用需声明INTERNET权限
+     *
+     * @param port 端口，如 MetricsServer.DEFAULT_PORT
+     * @return 端口被占用等原因无法监听时返回false
+     */
+    public boolean startMetricsServer(int port) {
+        try {
+            mMetricsServer.start(port);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "start metrics server failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 停止抓取端点并关闭所有连接
+     */
+    public void stopMetricsServer() {
+        mMetricsServer.stop();
+    }
+
+    /**
+     * 抓取端点，可通过addSource()追加其他指标（如帧率）
+     */
+    public MetricsServer getMetricsServer() {
+        return mMetricsServer;
+    }
+
+    /**
+     * 采样监听
+     */
+    public interface OnSampleListener {
+        /**
+         * 每次得到新的采样结果时回调，在注册时指定的Executor上执行
+         */
+        void onSample(CpuSample sample);
+    }
+
+    /**
+     * 占用最高的线程或进程列表，采集线程在加锁后填写（名字是已有的String，不分配内存），
+     * 调用getter时才格式化
+     */
+    private static class TopList {
+        private String[] mNames = new String[0];
+        private int[] mIds = new int[0];
+        private double[] mPercents = new double[0];
+        private int mCount;
+
+        void clear() {
+            mCount = 0;
+        }
+
+        void add(String name, int id, double percent) {
+            if (mCount == mIds.length) {
+                int capacity = Math.max(4, mCount * 2);
+                mNames = Arrays.copyOf(mNames, capacity);
+                mIds = Arrays.copyOf(mIds, capacity);
+                mPercents = Arrays.copyOf(mPercents, capacity);
+            }
+            mNames[mCount] = name;
+            mIds[mCount] = id;
+            mPercents[mCount] = percent;
+            mCount++;
+        }
+
+        /**
+         * 格式为 "名字(id):占用%"，以逗号分隔
+         */
+        synchronized String format() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < mCount; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(mNames[i]).append('(').append(mIds[i]).append("):")
+                        .append(String.format(Locale.CHINA, "%.2f", mPercents[i])).append('%');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class ListenerRecord {
+        final OnSampleListener listener;
+        final Executor executor;
+
+        ListenerRecord(OnSampleListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * 注册采样监听
+     *
+     * @param listener 监听
+     * @param executor 回调执行的线程，为null时直接在管线的监听阶段线程中回调（此时回调中不应做耗时操作，否则监听阶段会落后丢样本）
+     */
+    public void addOnSampleListener(OnSampleListener listener, Executor executor) {
+        mListeners.add(new ListenerRecord(listener, executor));
+    }
+
+    public void removeOnSampleListener(OnSampleListener listener) {
+        for (ListenerRecord record : mListeners) {
+            if (record.listener == listener) {
+                mListeners.remove(record);
+            }
+        }
+    }
+
+    /**
+     * 触发一次采集（空闲时采集线程不会被唤醒），结果通过getLatestSample()或监听获取
+     */
+    public void requestSample() {
+        if (mPkgName != null) {
+            mScheduler.requestSample();
+        }
+    }
+
+    /**
+     * 最近一次采样结果，由管线的监听阶段更新（比采集略晚），尚未采到时返回null
+     */
+    public CpuSample getLatestSample() {
+        return mLatestSample;
+    }
+
+    /**
+     * 返回最近一次的CPU占用（已格式化，用于日志输出），同时触发一次新的采集
+     */
     public String getCPURate() {
-        if (!isRunning && mPkgName != null) {
-            doCollect = true;
+        requestSample();
+        CpuSample sample = mLatestSample;
+        return sample == null ? "" : String.format(Locale.CHINA, "%.2f", sample.getCpuPercent());
+    }
+
+    /**
+     * 设置回退到shell命令时是否复用常驻的sh进程，默认开启；关闭时每次执行命令都启动新的sh进程
+     */
+    public void setUsePersistentShell(boolean enable) {
+        mUsePersistentShell = enable;
+    }
+
+    /**
+     * 开启/关闭线程模式，开启后每次采集同时统计各线程的CPU占用
+     *
+     * @param enable 是否开启
+     * @param topN   输出占用最高的线程数
+     */
+    public void setThreadMode(boolean enable, int topN) {
+        mTopThreads = new ThreadCpuSampler.ThreadCpu[Math.max(1, topN)];
+        mThreadMode = enable;
+    }
+
+    /**
+     * 线程模式下最近一次统计的占用最高的线程，格式为 "线程名(tid):占用%"，以逗号分隔
+     */
+    public String getThreadCPU() {
+        return mLastTopThreads.format();
+    }
+
+    /**
+     * 开启/关闭核心模式，开启后每次采集同时统计各核心占用率与当前频率
+     */
+    public void setCoreMode(boolean enable) {
+        mCoreMode = enable;
+    }
+
+    /**
+     * 核心模式下最近一次统计的各核心数据，格式为 "cpuN:占用%@频率MHz"，离线核心为 "cpuN:off"
+     */
+    public String getCoreCPU() {
+        CoreCpuSampler.Snapshot cores = new CoreCpuSampler.Snapshot();
+        synchronized (mLastCores) {
+            cores.copyFrom(mLastCores);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cores.coreCount; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("cpu").append(i).append(':');
+            if (!cores.online[i]) {
+                sb.append("off");
+                continue;
+            }
+            if (cores.busyPercent[i] != CoreCpuSampler.UNAVAILABLE) {
+                sb.append(String.format(Locale.CHINA, "%.1f", cores.busyPercent[i])).append('%');
+            }
+            if (cores.freqKHz[i] > 0) {
+                sb.append('@').append(cores.freqKHz[i] / 1000).append("MHz");
+            }
         }
-        return mLastCPU;
+        return sb.toString();
+    }
+
+    /**
+     * 开启/关闭全系统模式，开启后每次采集同时统计整个系统中CPU占用最高的进程，用于查看哪些进程在争抢CPU。
+     * 只能看到有权限读取的进程，Android 7.0起普通应用只能看到自己的进程
+     *
+     * @param enable 是否开启
+     * @param topN   输出占用最高的进程数
+     */
+    public void setSystemTopMode(boolean enable, int topN) {
+        mSystemTopN = enable ? Math.max(1, topN) : 0;
     }
 
+    /**
+     * 全系统模式下最近一次统计的占用最高的进程，格式为 "进程名(pid):占用%"，以逗号分隔
+     */
+    public String getSystemTopCPU() {
+        return mLastSystemTop.format();
+    }
+
+    /**
+     * 最近maxFrameCount次采样的平均CPU占用（已格式化，用于日志输出）
+     */
     public String getAvgCPU() {
-        return mAvgCPUValue;
+        CpuSample sample = mLatestSample;
+        return sample == null ? null : String.format(Locale.CHINA, "%.2f", sample.getAvgCpuPercent());
     }
 
+    /**
+     * 开始把每次采样记录到二进制trace文件（见 TraceRecorder），已在记录时先结束之前的文件
+     *
+     * @param file trace文件
+     * @return 文件无法创建时返回false
+     */
+    public boolean startTrace(File file) {
+        stopTrace();
+        try {
+            mTraceRecorder = new TraceRecorder(file, CoreCpuSampler.possibleCoreCount());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "start trace failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 结束trace记录并关闭文件
+     */
+    public void stopTrace() {
+        TraceRecorder recorder = mTraceRecorder;
+        mTraceRecorder = null;
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "stop trace failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 当前的trace记录器，未开启记录时返回null；可用于追加帧间隔等其他记录
+     */
+    public TraceRecorder getTraceRecorder() {
+        return mTraceRecorder;
+    }
+
+    /**
+     * CPU占用分布直方图，单位为 1 / CPU_HISTOGRAM_SCALE 个百分点，可在任意线程读取；
+     * 按时间段统计时用 copyIntoAndReset() 取出上一段的数据
+     */
+    public LogLinearHistogram getCpuHistogram() {
+        return mCpuHistogram;
+    }
+
+    /**
+     * CPU占用历史（单位%），可在任意线程无锁读取；需要其他窗口统计时应在采集开始前声明
+     */
+    public SampleRingBuffer getHistory() {
+        return mHistory;
+    }
+
+    /**
+     * 停止采集线程并等待其退出，之后再次调用setPkgName()可重新开始
+     */
     public void release() {
         mPkgName = null;
-        mAvgCPUValue = null;
-        enableCPU = false;
-        mCpuThread = null;
-    }
-
-    private String getCPUFromTopCMD() {
-        String cpu = "";
-        List<String> result = execute("top -n 1 -s cpu | grep " + mPkgName);
-        if (result != null && result.size() > 0) {
-            String r = result.get(0);
-            if (r != null && r.contains("%")) {
-                int end = r.indexOf("%");
-                int start = -1;
-                for (int i = end; i >= 0; i--) {
-                    if (Character.isWhitespace(r.charAt(i))) {
-                        start = i;
-                        break;
-                    }
-                }
-                if (start >= 0) {
-                    cpu = r.substring(start, end);
-                    calculateAVGValue(Double.parseDouble(cpu));
-                }
+        mScheduler.stop();
+        mPipeline.stop();
+        mLatestSample = null;
+    }
+
+    /**
+     * 采集一次CPU占用，优先直接读取/proc，不可用时回退到top命令
+     *
+     * @return CPU占用百分比，本次没有得到结果时返回 -1
+     */
+    private double collectCPU() {
+        mMemoryValid = false;
+        int generation = mPkgGeneration;
+        if (generation != mSamplerGeneration) {
+            // 包名已变化，旧pid的采样器与线程列表作废，立即查找新的pid
+            mSamplerGeneration = generation;
+            closeProcSamplers();
+            mNextPidLookupNanos = System.nanoTime();
+            synchronized (mLastTopThreads) {
+                mLastTopThreads.clear();
+            }
+        }
+        collectCoreCPU();
+        collectSystemTopCPU();
+        double cpu = getCPUFromProc();
+        if (!Double.isNaN(cpu)) {
+            return cpu;
+        }
+        return getCPUFromTopCMD();
+    }
+
+    /**
+     * 通过 /proc/[pid]/stat 与 /proc/stat 的jiffies增量计算CPU占用
+     *
+     * 找不到pid（进程未启动，或系统不允许查看其他进程）时每隔 PID_LOOKUP_RETRY_NANOS 重新查找一次，其间返回NaN
+     *
+     * @return /proc 不可用时返回NaN，第一次采样（只记录基准值）返回 -1
+     */
+    private double getCPUFromProc() {
+        String pkgName = mPkgName;
+        if (mProcSampler == null) {
+            long now = System.nanoTime();
+            if (now - mNextPidLookupNanos < 0) {
+                return Double.NaN;
+            }
+            int pid = ProcUtil.findPidByName(pkgName);
+            if (pid < 0) {
+                mNextPidLookupNanos = now + PID_LOOKUP_RETRY_NANOS;
+                return Double.NaN;
+            }
+            mCpuClock = new SystemCpuClock();
+            mProcSampler = new ProcCpuSampler(pid, mCpuClock);
+            mMemorySampler = new ProcMemorySampler(pid);
+        }
+        mCpuClock.update();
+        if (!mProcSampler.sample()) {
+            // 进程已退出或无权限，下次重新查找pid
+            closeProcSamplers();
+            return Double.NaN;
+        }
+        collectThreadCPU();
+        mMemoryValid = mMemorySampler.sample(mProcSampler.getPidStat());
+        return mProcSampler.getCpuPercent();
+    }
+
+    private void collectThreadCPU() {
+        ThreadCpuSampler.ThreadCpu[] topThreads = mTopThreads;
+        if (!mThreadMode || topThreads == null) {
+            if (mThreadSampler != null) {
+                mThreadSampler.close();
+                mThreadSampler = null;
+            }
+            return;
+        }
+        if (mThreadSampler == null) {
+            mThreadSampler = new ThreadCpuSampler(mProcSampler.getPid(), mCpuClock);
+        }
+        if (!mThreadSampler.sample()) {
+            return;
+        }
+        // 第一次采样或两次采样落在同一个jiffy内时没有线程有占用率，列表为空，不显示0.00%
+        int count = mThreadSampler.getTopThreads(topThreads);
+        synchronized (mLastTopThreads) {
+            mLastTopThreads.clear();
+            for (int i = 0; i < count; i++) {
+                mLastTopThreads.add(topThreads[i].getName(), topThreads[i].getTid(), topThreads[i].getCpuPercent());
+            }
+        }
+    }
+
+    private void collectCoreCPU() {
+        if (!mCoreMode) {
+            if (mCoreSampler != null) {
+                mCoreSampler.close();
+                mCoreSampler = null;
+            }
+            return;
+        }
+        if (mCoreSampler == null) {
+            mCoreSampler = new CoreCpuSampler();
+        }
+        mCoreSampler.sample();
+        mCoreSampler.snapshot(mCoreSnapshot);
+        synchronized (mLastCores) {
+            mLastCores.copyFrom(mCoreSnapshot);
+        }
+    }
+
+    private void collectSystemTopCPU() {
+        int topN = mSystemTopN;
+        if (mSystemTopSampler != null && topN != mSystemTopSampler.getTopN()) {
+            mSystemTopSampler.close();
+            mSystemTopSampler = null;
+        }
+        if (topN <= 0) {
+            return;
+        }
+        if (mSystemTopSampler == null) {
+            mSystemTopSampler = new SystemTopSampler(topN);
+        }
+        if (!mSystemTopSampler.sample()) {
+            return;
+        }
+        synchronized (mLastSystemTop) {
+            mLastSystemTop.clear();
+            for (int i = 0; i < mSystemTopSampler.getTopCount(); i++) {
+                mLastSystemTop.add(mSystemTopSampler.getTopName(i), mSystemTopSampler.getTopPid(i),
+                        mSystemTopSampler.getTopCpuPercent(i));
             }
         }
+    }
+
+    private void closeProcSamplers() {
+        if (mThreadSampler != null) {
+            mThreadSampler.close();
+            mThreadSampler = null;
+        }
+        if (mProcSampler != null) {
+            mProcSampler.close();
+            mProcSampler = null;
+        }
+        if (mMemorySampler != null) {
+            mMemorySampler.close();
+            mMemorySampler = null;
+        }
+        if (mCpuClock != null) {
+            mCpuClock.close();
+            mCpuClock = null;
+        }
+    }
+
+    private double getCPUFromTopCMD() {
+        double cpu = -1;
+        // 边读边匹配包名所在行，不再额外启动grep进程
+        String r = executeFirstMatch("top -n 1 -s cpu", ShellSession.contains(mPkgName));
+        if (r != null) {
+            cpu = ProcUtil.parseTopCpuPercent(r);
+        }
         return cpu;
     }
 
     /**
-     * 执行单条命令
+     * 执行单条命令，边读输出边匹配，返回第一条匹配的行，匹配后不再缓存其余输出
      *
      * @param command
-     * @return
+     * @param matcher 行匹配器
+     * @return 没有匹配的行时返回null
      */
-    private List<String> execute(String command) {
-        return execute(new String[]{command});
+    private String executeFirstMatch(String command, ShellSession.LineMatcher matcher) {
+        List<String> result = execute(new String[]{command}, matcher);
+        if (result == null || result.isEmpty()) {
+            return null;
+        }
+        return result.get(0);
     }
 
     /**
      * 可执行多行命令（bat）
      *
      * @param commands
+     * @param matcher  为null时返回全部输出，否则只返回第一条匹配的行
      * @return
      */
-    private List<String> execute(String[] commands) {
-        List<String> results = new ArrayList<String>();
-        int status = -1;
+    private List<String> execute(String[] commands, ShellSession.LineMatcher matcher) {
         if (commands == null || commands.length == 0) {
             return null;
         }
-        Process process = null;
-        BufferedReader successReader = null;
-        BufferedReader errorReader = null;
-        StringBuilder errorMsg = null;
-        DataOutputStream dos = null;
-        try {
-            process = Runtime.getRuntime().exec(COMMAND_SH);
-            dos = new DataOutputStream(process.getOutputStream());
-            for (String command : commands) {
-                if (command == null) {
-                    continue;
-                }
-                dos.write(command.getBytes());
-                dos.writeBytes(COMMAND_LINE_END);
-                dos.flush();
+        if (mUsePersistentShell) {
+            return executeInSession(commands, matcher);
+        }
+        return executeInNewProcess(commands, matcher);
+    }
+
+    /**
+     * 在常驻shell会话中执行，多行命令依次提交后统一等待。
+     * 会话中的输出必须读到哨兵为止，无法提前结束，但不匹配的行会被直接丢弃
+     */
+    private List<String> executeInSession(String[] commands, ShellSession.LineMatcher matcher) {
+        if (mShellSession == null) {
+            mShellSession = new ShellSession();
+        }
+        List<ShellSession.Command> submitted = new ArrayList<ShellSession.Command>();
+        for (String command : commands) {
+            if (command == null) {
+                continue;
+            }
+            ShellSession.Command cmd = mShellSession.submit(command, matcher);
+            if (cmd == null) {
+                Log.d(TAG, "shell session unavailable, fallback to new process");
+                return executeInNewProcess(commands, matcher);
+            }
+            submitted.add(cmd);
+        }
+        List<String> results = new ArrayList<String>();
+        for (ShellSession.Command cmd : submitted) {
+            List<String> lines = cmd.await(SHELL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (lines == null) {
+                Log.d(TAG, "execute command in session failed or timed out");
+                // 会话可能卡住（例如命令读取了stdin），关闭后下次重建
+                mShellSession.close();
+                mShellSession = null;
+                break;
+            }
+            results.addAll(lines);
+            if (matcher != null && !results.isEmpty()) {
+                break;
             }
-            dos.writeBytes(COMMAND_EXIT);
-            dos.flush();
+        }
+        return results;
+    }
+
+    /**
+     * 启动新的sh进程执行，见 ShellProcess.execute()
+     */
+    private List<String> executeInNewProcess(String[] commands, ShellSession.LineMatcher matcher) {
+        ShellProcess.Result result = ShellProcess.execute(commands, matcher, SHELL_TIMEOUT_MS);
+        Log.d(TAG, (String.format(Locale.CHINA, "execute command end, errorMsg:%s, and status %d: ",
+                result.error, result.status)));
+        return result.lines;
+    }
+
+    /**
+     * 记录一次CPU占用到历史序列，并写入发布管线，在采集线程中执行，不分配内存
+     */
+    private void publishSample(double cpu) {
+        long now = System.nanoTime();
+        mHistory.add(now, cpu);
+        SamplePipeline.Entry entry = mPipeline.claim();
+        entry.timestampNanos = now;
+        entry.cpuPercent = cpu;
+        entry.avgCpuPercent = mAvgWindow.read(mAvgStats) ? mAvgStats.mean : cpu;
+        if (mMemoryValid) {
+            entry.memoryValid = true;
+            entry.rssKb = mMemorySampler.getRssKb();
+            entry.pssKb = mMemorySampler.getPssKb();
+            entry.minorFaultsDelta = mMemorySampler.getMinorFaultsDelta();
+            entry.majorFaultsDelta = mMemorySampler.getMajorFaultsDelta();
+        }
+        if (mCoreSampler != null) {
+            entry.setCores(mCoreSnapshot);
+        }
+        mPipeline.publish();
+    }
 
-            status = process.waitFor();
+    /**
+     * 更新最近一次采样结果并通知监听，在管线的监听阶段线程中执行
+     */
+    private void dispatchSample(final CpuSample sample) {
+        mLatestSample = sample;
+        for (final ListenerRecord record : mListeners) {
+            if (record.executor == null) {
+                record.listener.onSample(sample);
+            } else {
+                record.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        record.listener.onSample(sample);
+                    }
+                });
+            }
+        }
+    }
 
-            errorMsg = new StringBuilder();
-            successReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            String lineStr;
-            while ((lineStr = successReader.readLine()) != null) {
-                results.add(lineStr);
+    /**
+     * 输出采集相关的指标，在抓取端点的服务线程中执行，不分配内存
+     */
+    private void writeCollectorMetrics(MetricsWriter writer) {
+        writer.header("cpucollector_samples_total", MetricsWriter.TYPE_COUNTER, "Samples published by the collector.");
+        writer.value("cpucollector_samples_total", mPipeline.getPublishedCount());
+        writer.header("cpucollector_pipeline_dropped_total", MetricsWriter.TYPE_COUNTER,
+                "Samples dropped by a lagging pipeline stage.");
+        SamplePipeline.Stage[] stages = mPipeline.getStages();
+        for (SamplePipeline.Stage stage : stages) {
+            writer.value("cpucollector_pipeline_dropped_total", "stage", stage.getName(), stage.getDroppedCount());
+        }
+        writer.header("cpucollector_metrics_render_seconds", MetricsWriter.TYPE_GAUGE,
+                "Time spent rendering the previous scrape.");
+        writer.value("cpucollector_metrics_render_seconds", mMetricsServer.getLastRenderNanos() / 1e9);
+        synchronized (mMetricsEntry) {
+            if (!mMetricsValid) {
+                return;
             }
-            while ((lineStr = errorReader.readLine()) != null) {
-                errorMsg.append(lineStr);
+            SamplePipeline.Entry entry = mMetricsEntry;
+            writer.header("cpucollector_cpu_percent", MetricsWriter.TYPE_GAUGE,
+                    "Process CPU usage of the latest sample, 0-100 across all cores.");
+            writer.value("cpucollector_cpu_percent", entry.cpuPercent);
+            writer.header("cpucollector_cpu_avg_percent", MetricsWriter.TYPE_GAUGE,
+                    "Process CPU usage averaged over the recent samples.");
+            writer.value("cpucollector_cpu_avg_percent", entry.avgCpuPercent);
+            writer.header("cpucollector_sample_age_seconds", MetricsWriter.TYPE_GAUGE,
+                    "Time since the latest sample was taken.");
+            writer.value("cpucollector_sample_age_seconds", (System.nanoTime() - entry.timestampNanos) / 1e9);
+            // 单项内存数据不可用（如读不到smaps_rollup时的PSS）时不输出该项
+            if (entry.memoryValid && entry.rssKb >= 0) {
+                writer.header("cpucollector_memory_rss_bytes", MetricsWriter.TYPE_GAUGE, "Resident set size.");
+                writer.value("cpucollector_memory_rss_bytes", entry.rssKb * 1024);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (dos != null) {
-                    dos.close();
-                }
-                if (successReader != null) {
-                    successReader.close();
-                }
-                if (errorReader != null) {
-                    errorReader.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (entry.memoryValid && entry.pssKb >= 0) {
+                writer.header("cpucollector_memory_pss_bytes", MetricsWriter.TYPE_GAUGE, "Proportional set size.");
+                writer.value("cpucollector_memory_pss_bytes", entry.pssKb * 1024);
             }
-
-            if (process != null) {
-                process.destroy();
+            if (entry.coresValid) {
+                writeCoreMetrics(writer, entry.cores);
             }
         }
-        Log.d(TAG, (String.format(Locale.CHINA, "execute command end, errorMsg:%s, and status %d: ",
-                errorMsg, status)));
-        return results;
     }
 
-    private void calculateAVGValue(double resultTime) {
-        if (resultFrameTimes >= maxFrameCount) {
-            if (resultFrameTimes == maxFrameCount) {
-                resultFrameTimes++;
+    private static void writeCoreMetrics(MetricsWriter writer, CoreCpuSampler.Snapshot cores) {
+        writer.header("cpucollector_core_online", MetricsWriter.TYPE_GAUGE, "1 if the core is online.");
+        for (int i = 0; i < cores.coreCount; i++) {
+            writer.value("cpucollector_core_online", "core", i, cores.online[i] ? 1 : 0);
+        }
+        writer.header("cpucollector_core_busy_percent", MetricsWriter.TYPE_GAUGE, "Busy time of each online core.");
+        for (int i = 0; i < cores.coreCount; i++) {
+            if (cores.online[i] && cores.busyPercent[i] != CoreCpuSampler.UNAVAILABLE) {
+                writer.value("cpucollector_core_busy_percent", "core", i, cores.busyPercent[i]);
+            }
+        }
+        writer.header("cpucollector_core_frequency_hertz", MetricsWriter.TYPE_GAUGE, "Current core frequency.");
+        for (int i = 0; i < cores.coreCount; i++) {
+            if (cores.online[i] && cores.freqKHz[i] > 0) {
+                writer.value("cpucollector_core_frequency_hertz", "core", i, cores.freqKHz[i] * 1000.0);
             }
-            mAvgCPUValue = String.format("%.2f", resultAVGValue);
-            resultFrameTimes = 0;
-            resultAVGValue = 0;
-            return;
         }
-        resultFrameTimes++;
-        double allResultTime = (resultFrameTimes - 1) * resultAVGValue;
-        resultAVGValue = (allResultTime + resultTime) / resultFrameTimes;
+    }
+
+    /**
+     * 输出一条采样日志，在管线的日志阶段线程中执行
+     */
+    private void logSample(SamplePipeline.Entry entry) {
+        Log.i(TAG, String.format(Locale.CHINA, "当前CPU占用:%.2f%%  平均:%.2f%%", entry.cpuPercent,
+                entry.avgCpuPercent));
+        if (entry.memoryValid) {
+            Log.i(TAG, String.format(Locale.CHINA, "RSS:%s  PSS:%s  缺页:%d/%d", formatKb(entry.rssKb),
+                    formatKb(entry.pssKb), entry.minorFaultsDelta, entry.majorFaultsDelta));
+        }
+    }
+
+    /**
+     * 内存数值的日志格式，不可用时输出 N/A
+     */
+    private static String formatKb(long kb) {
+        return kb < 0 ? "N/A" : kb + "KB";
     }
 }
@@ -6,6 +6,7 @@ package com.yzz.cpucollector;
 import android.Manifest;
 import android.app.Activity;
 import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.opengl.GLES20;
@@ -18,11 +19,23 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.yzz.cpucollector.sampler.FrameTimingRecorder;
+import com.yzz.cpucollector.sampler.LogLinearHistogram;
+import com.yzz.cpucollector.sampler.MetricsServer;
+import com.yzz.cpucollector.sampler.MetricsWriter;
+import com.yzz.cpucollector.sampler.TraceEventExporter;
+import com.yzz.cpucollector.sampler.TraceRecorder;
 import com.yzz.cpucollector.util.BDCameraSyncRenderer;
+import com.yzz.cpucollector.util.GLTracer;
+import com.yzz.cpucollector.util.PreviewBufferPool;
+import com.yzz.cpucollector.util.TripleBuffer;
 import com.yzz.cpucollector.util.ShaderUtil;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -35,7 +48,21 @@ public class CameraActivity extends Activity {
     private SurfaceTexture mSurfaceTexture;
     private int mTextureId;
     private BDCameraSyncRenderer mBDCameraSyncRenderer; // 相机渲染器
-    private byte[] mCameraData;
+
+    // 预览帧缓冲：相机线程通过三缓冲发布最新帧，渲染线程取走并在绘制后归还缓冲池
+    private static final int CAMERA_QUEUE_DEPTH = 3; // 交给相机的缓冲区数
+    private volatile PreviewBufferPool mPreviewBuffers;
+    private final TripleBuffer<PreviewFrame> mFrameExchange =
+            new TripleBuffer<>(new PreviewFrame(), new PreviewFrame(), new PreviewFrame());
+    private boolean mHasDrawnFrame;  // 仅在渲染线程中访问
+
+    /**
+     * 三缓冲中的一个槽位
+     */
+    private static class PreviewFrame {
+        byte[] data;   // 预览缓冲，渲染后归还缓冲池并置空
+        long frameId;  // FrameTimingRecorder中的帧号
+    }
 
     private Camera mCamera;              // 相机
     private boolean isCameraFront = false;
@@ -77,6 +104,16 @@ public class CameraActivity extends Activity {
         initRender();
 
         CPUCollector.getInstance().setPkgName(this.getPackageName());
+        CPUCollector.getInstance().setThreadMode(true, 3);
+        CPUCollector.getInstance().setCoreMode(true);
+        CPUCollector.getInstance().setSystemTopMode(true, 5);
+        CPUCollector.getInstance().setLogEnabled(true);
+        // 波动时100ms采样一次，平稳时逐步放宽到2s，采集耗时不超过2%
+        CPUCollector.getInstance().setAdaptiveSampling(100, 2000, 0.02);
+        startCpuTrace();
+        // adb forward tcp:9100 tcp:9100 后在电脑上抓取 http://localhost:9100/metrics
+        CPUCollector.getInstance().getMetricsServer().addSource(mFrameMetrics);
+        CPUCollector.getInstance().startMetricsServer(MetricsServer.DEFAULT_PORT);
     }
 
     private void initRender() {
@@ -112,8 +149,17 @@ public class CameraActivity extends Activity {
                 mSurfaceTexture.updateTexImage();
 
                 // 相机帧数据渲染
-                if (mCameraData != null) {
-                    mBDCameraSyncRenderer.draw(mCameraMVPMatrix, mCameraData);
+                PreviewFrame frame = mFrameExchange.consume();
+                if (frame != null && frame.data != null) {
+                    // draw()已把数据拷贝到纹理上传缓冲，绘制后即可归还
+                    mBDCameraSyncRenderer.draw(mCameraMVPMatrix, frame.data);
+                    mFrameTiming.onFrameRendered(frame.frameId, System.nanoTime());
+                    releasePreviewBuffer(frame.data);
+                    frame.data = null;
+                    mHasDrawnFrame = true;
+                } else if (mHasDrawnFrame) {
+                    // 没有新帧时的重绘（如视图尺寸变化），使用上一帧已上传的数据
+                    mBDCameraSyncRenderer.draw(mCameraMVPMatrix, null);
                 }
             }
         });
@@ -123,38 +169,155 @@ public class CameraActivity extends Activity {
     private Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            if (cameraTimeStamp > 0) {
-                calculateCameraTime((System.currentTimeMillis() - cameraTimeStamp));
+            long now = System.nanoTime();
+            recordFrameTrace(now);
+            PreviewFrame frame = mFrameExchange.getWriteSlot();
+            frame.data = data;
+            frame.frameId = mFrameTiming.onCameraFrame(now);
+            boolean skipped = mFrameExchange.publish();
+            // 换回的槽位中如果还有数据，说明那一帧没被渲染就被取代了，直接归还
+            PreviewFrame recycled = mFrameExchange.getWriteSlot();
+            if (recycled.data != null) {
+                releasePreviewBuffer(recycled.data);
+                recycled.data = null;
+            }
+            // 补充一个缓冲区给相机，保持队列深度
+            PreviewBufferPool pool = mPreviewBuffers;
+            byte[] next = pool != null ? pool.acquire() : null;
+            if (next != null) {
+                camera.addCallbackBuffer(next);
             }
-            cameraTimeStamp = System.currentTimeMillis();
-            mCameraData = data;
-            if (mSurfaceView != null) {
+            // 被覆盖的帧已经请求过渲染，渲染线程会直接取到最新帧，不必重复请求
+            if (!skipped && mSurfaceView != null) {
                 mSurfaceView.requestRender();
             }
+            if (++mStatFrameCount >= maxFrameCount) {
+                mStatFrameCount = 0;
+                logFrameStats();
+            }
         }
     };
 
     // 统计帧率相关变量及方法
-    private int cameraFrameTimes = 0;
-    private int maxFrameCount = 30; // 统计的帧数
-    private double cameraFrameAVGTime;
-    private long cameraTimeStamp;
-
-    private void calculateCameraTime(double detectTime) {
-        if (cameraFrameTimes >= maxFrameCount) {
-            if (cameraFrameTimes == maxFrameCount) {
-                Log.e("duguju", "相机输入帧率:" + (1000.0f / cameraFrameAVGTime));
-                Log.e("duguju-cpu", "当前CPU占用:" + CPUCollector.getInstance().getCPURate() + "%"
-                        + "  平均:" + CPUCollector.getInstance().getAvgCPU() + "%");
-                cameraFrameTimes++;
-            }
-            cameraFrameTimes = 0;
-            cameraFrameAVGTime = 0;
+    private static final double TARGET_FPS = 30; // 判定卡顿和丢帧的目标帧率
+    private int maxFrameCount = 30; // 每隔多少帧输出一次统计
+    private int mStatFrameCount;
+    private long mLastFrameNanos;
+    private final FrameTimingRecorder mFrameTiming = new FrameTimingRecorder(TARGET_FPS);
+    // 以下为输出统计时使用的快照，每次输出后清空对应的直方图
+    private final LogLinearHistogram mIntervalSnapshot = mFrameTiming.getRenderIntervals().newEmpty();
+    private final LogLinearHistogram mLatencySnapshot = mFrameTiming.getLatency().newEmpty();
+    private final LogLinearHistogram mCpuSnapshot = CPUCollector.getInstance().getCpuHistogram().newEmpty();
+    private File mTraceFile;
+
+    /**
+     * 帧率指标，在抓取端点的服务线程中执行，FrameTimingRecorder的统计方法可在任意线程调用
+     */
+    private final MetricsServer.Source mFrameMetrics = new MetricsServer.Source() {
+        @Override
+        public void writeMetrics(MetricsWriter writer) {
+            mFrameTiming.update();
+            writer.header("camera_input_fps", MetricsWriter.TYPE_GAUGE, "Camera preview frames per second.");
+            writer.value("camera_input_fps", mFrameTiming.getCameraFps());
+            writer.header("camera_render_fps", MetricsWriter.TYPE_GAUGE, "Rendered frames per second.");
+            writer.value("camera_render_fps", mFrameTiming.getRenderFps());
+            writer.header("camera_jank_frames_total", MetricsWriter.TYPE_COUNTER,
+                    "Render intervals longer than the jank threshold.");
+            writer.value("camera_jank_frames_total", mFrameTiming.getJankFrameCount());
+            writer.header("camera_dropped_frames_total", MetricsWriter.TYPE_COUNTER,
+                    "Frames missing at the target rate plus frames never rendered.");
+            writer.value("camera_dropped_frames_total", mFrameTiming.getDroppedFrameCount());
+        }
+    };
+
+    /**
+     * 开启CPU采样的二进制trace记录，文件保存在应用外部存储的files目录，可通过adb pull导出
+     */
+    private void startCpuTrace() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
             return;
         }
-        cameraFrameTimes++;
-        double allTime = (cameraFrameTimes - 1) * cameraFrameAVGTime;
-        cameraFrameAVGTime = (allTime + detectTime) / cameraFrameTimes;
+        File file = new File(dir, "cpu_trace_" + System.currentTimeMillis() + ".bin");
+        if (CPUCollector.getInstance().startTrace(file)) {
+            mTraceFile = file;
+        }
+    }
+
+    /**
+     * 结束trace记录，并在后台线程把trace转换为同名的.json，可直接用Perfetto或chrome://tracing打开
+     */
+    private void stopCpuTrace() {
+        CPUCollector.getInstance().stopTrace();
+        final File traceFile = mTraceFile;
+        mTraceFile = null;
+        if (traceFile == null) {
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String name = traceFile.getName().replace(".bin", ".json");
+                File jsonFile = new File(traceFile.getParentFile(), name);
+                try {
+                    long count = TraceEventExporter.export(traceFile, jsonFile);
+                    Log.i("duguju-cpu", "trace导出完成: " + jsonFile + " 事件数:" + count);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "TraceExport").start();
+    }
+
+    private void releasePreviewBuffer(byte[] buffer) {
+        PreviewBufferPool pool = mPreviewBuffers;
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+
+    private void recordFrameTrace(long now) {
+        TraceRecorder recorder = CPUCollector.getInstance().getTraceRecorder();
+        if (recorder != null && mLastFrameNanos > 0) {
+            recorder.appendFrame(now, now - mLastFrameNanos);
+        }
+        mLastFrameNanos = now;
+    }
+
+    /**
+     * 输出帧率、卡顿、延迟以及CPU、内存统计，在相机回调线程中每maxFrameCount帧调用一次
+     */
+    private void logFrameStats() {
+        mFrameTiming.update();
+        Log.e("duguju", String.format(Locale.CHINA, "相机输入帧率:%.1f  渲染帧率:%.1f  卡顿:%d  丢帧:%d",
+                mFrameTiming.getCameraFps(), mFrameTiming.getRenderFps(), mFrameTiming.getJankFrameCount(),
+                mFrameTiming.getDroppedFrameCount()));
+        mFrameTiming.getRenderIntervals().copyIntoAndReset(mIntervalSnapshot);
+        Log.e("duguju", "渲染帧间隔(ms): " + mIntervalSnapshot.toString(1e6));
+        mFrameTiming.getLatency().copyIntoAndReset(mLatencySnapshot);
+        Log.e("duguju", "相机到渲染延迟(ms): " + mLatencySnapshot.toString(1e6));
+        Log.e("duguju", "预览缓冲池: " + mPreviewBuffers);
+        Log.e("duguju", "帧交换: " + mFrameExchange);
+        BDCameraSyncRenderer renderer = mBDCameraSyncRenderer;
+        if (renderer != null) {
+            Log.e("duguju", "纹理上传(平均每帧): " + renderer.getUploadStats());
+            GLTracer gl = renderer.getGL();
+            Log.e("duguju", "GL错误: " + gl.getErrorCount());
+            Log.e("duguju", "GL状态缓存: " + renderer.getGLState());
+            if (gl.getLevel() == GLTracer.LEVEL_FULL) {
+                Log.e("duguju", "GL调用: " + gl.report());
+            }
+        }
+
+        // CPU占用与内存由CPUCollector的日志阶段输出，这里只触发采集
+        CPUCollector collector = CPUCollector.getInstance();
+        collector.requestSample();
+        Log.e("duguju-cpu", "线程占用:" + collector.getThreadCPU());
+        Log.e("duguju-cpu", "核心占用:" + collector.getCoreCPU());
+        Log.e("duguju-cpu", "系统占用最高:" + collector.getSystemTopCPU());
+        collector.getCpuHistogram().copyIntoAndReset(mCpuSnapshot);
+        Log.e("duguju-cpu", "CPU占用分布(%): " + mCpuSnapshot.toString(CPUCollector.CPU_HISTOGRAM_SCALE));
+        Log.e("duguju-cpu", "采样管线: " + collector.getPipeline());
     }
 
     /**
@@ -188,7 +351,7 @@ public class CameraActivity extends Activity {
                 Matrix.rotateM(mCameraMVPMatrix, 0, 180f, 0f, 1f, 0f);
                 Matrix.rotateM(mCameraMVPMatrix, 0, -90, 0, 0, 1);
             }
-            mCamera.setPreviewCallback(mPreviewCallback);
+            setupPreviewBuffers(mCamera);
             mCamera.startPreview();
             mCamera.cancelAutoFocus();
         } catch (Exception e) {
@@ -196,6 +359,23 @@ public class CameraActivity extends Activity {
         }
     }
 
+    /**
+     * 按预览格式创建缓冲池并预先交给相机CAMERA_QUEUE_DEPTH个缓冲区；
+     * 池上限多出的2个分别给待渲染帧和正在渲染的帧，保证相机队列不会被取空
+     */
+    private void setupPreviewBuffers(Camera camera) {
+        Camera.Parameters params = camera.getParameters();
+        Camera.Size size = params.getPreviewSize();
+        int bufferSize = PreviewBufferPool.bufferSize(size.width, size.height,
+                ImageFormat.getBitsPerPixel(params.getPreviewFormat()));
+        PreviewBufferPool pool = new PreviewBufferPool(bufferSize, CAMERA_QUEUE_DEPTH + 2);
+        mPreviewBuffers = pool;
+        for (int i = 0; i < CAMERA_QUEUE_DEPTH; i++) {
+            camera.addCallbackBuffer(pool.acquire());
+        }
+        camera.setPreviewCallbackWithBuffer(mPreviewCallback);
+    }
+
     public static Camera getCameraInstance(boolean isFront) {
         Camera c = null;
         try {
@@ -244,12 +424,15 @@ public class CameraActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         releaseCamera();
+        stopCpuTrace();
+        CPUCollector.getInstance().stopMetricsServer();
+        CPUCollector.getInstance().getMetricsServer().removeSource(mFrameMetrics);
         CPUCollector.getInstance().release();
     }
 
     public void releaseCamera() {
         if (null != mCamera) {
-            mCamera.setPreviewCallback(null);
+            mCamera.setPreviewCallbackWithBuffer(null);
             mCamera.stopPreview();
             mCamera.release();
             mCamera = null;
@@ -56,20 +56,42 @@ public class BDCameraSyncRenderer {
                     + "    textureCoordinate = (uTexMatrix * inputTextureCoordinate).xy;"
                     + "}";
 
+    private static final int GL_CHECK_INTERVAL = 60; // 默认每60帧检查一次GL错误
+
+    private final GLTracer mGL;   // 所有GL调用都经过它，按级别检查错误、统计调用
+    private final GLStateCache mState; // 绑定、uniform等状态的缓存，值不变时省去调用
     private int mProgramHandle; // 程序句柄
 
     private int mUniformInputYTexture;          // y通道纹理句柄
     private int mUniformInputUVTexture;         // uv通道纹理句柄
     private int[] mYUVTextureIds = {-1, -1};    // yuv纹理id
-    private ByteBuffer[] mYUVPlanes = null;     // yuv数据buffer
+    private ByteBuffer[] mYUVPlanes = new ByteBuffer[2]; // 本帧待上传的y、vu平面，指向预览帧数组本身，上传后置空
+    private boolean mPlanesDirty;               // 是否有新帧待上传
+
+    // 预览帧数组到平面视图的缓存：预览缓冲在缓冲池中循环使用，每个数组只在第一次出现时创建一次视图
+    private static final int PLANE_CACHE_SIZE = 8;
+    private final Nv21PlaneCache mPlaneCache = new Nv21PlaneCache(PLANE_CACHE_SIZE);
+
+    // 纹理上传统计，只在GL线程中更新，可在其他线程读取用于日志
+    private volatile long mLastUploadBytes;
+    private volatile long mLastUploadNanos;
+    private volatile long mTotalUploadBytes;
+    private volatile long mTotalUploadNanos;
+    private volatile long mUploadCount;
 
     private int mInputWidth;    // 输入宽（即相机预览宽）
     private int mInputHeight;   // 输入高
     private int mOutputWidth;   // 输出宽（即绘制宽）
     private int mOutputHeight;  // 输出高
 
+    // 顶点数据放在一个VBO中：前8个float为位置，后8个为纹理坐标；纹理坐标随裁剪参数变化，变化后在绘制前重新上传
+    private static final int QUAD_POSITION_OFFSET = 0;
+    private static final int QUAD_TEX_COORD_OFFSET = 8 * 4;
+    private int mQuadBuffer;         // VBO id
+    private FloatBuffer mQuadData;   // VBO内容的副本
+    private boolean mTexCoordsDirty;
+
     private int mAttribPosition;     // 位置矩阵句柄
-    private FloatBuffer mPositionArray;
     private static final float[] FULL_RECTANGLE_COORDS = {
             -1.0f, -1.0f,
             1.0f, -1.0f,
@@ -77,7 +99,6 @@ public class BDCameraSyncRenderer {
             1.0f, 1.0f,
     };
     private int mAttribTextureCoord; // 纹理矩阵句柄
-    private FloatBuffer mTexCoordArray;
     private static final float[] FULL_RECTANGLE_TEX_COORDS = {
             0.0f, 0.0f,
             1.0f, 0.0f,
@@ -98,18 +119,33 @@ public class BDCameraSyncRenderer {
             0.0f, 0.0f, 0.0f, 1.0f};
 
     public BDCameraSyncRenderer() {
+        this(new GLTracer(AndroidGL.INSTANCE, GLTracer.LEVEL_SAMPLED, GL_CHECK_INTERVAL));
+    }
+
+    /**
+     * @param gl GL调用入口，可用 LEVEL_FULL 调试，或包装 RecordingGL 在JVM上验证调用序列
+     */
+    public BDCameraSyncRenderer(GLTracer gl) {
+        mGL = gl;
+        mState = new GLStateCache(gl);
         mProgramHandle = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_NV212BGR);
         if (mProgramHandle == 0) {
             return;
         }
-        mAttribPosition = GLES20.glGetAttribLocation(mProgramHandle, "position");
-        mAttribTextureCoord = GLES20.glGetAttribLocation(mProgramHandle, "inputTextureCoordinate");
-        mUniformMVPMatrix = GLES20.glGetUniformLocation(mProgramHandle, "uMVPMatrix");
-        mUniformTexMatrix = GLES20.glGetUniformLocation(mProgramHandle, "uTexMatrix");
-        mUniformInputYTexture = GLES20.glGetUniformLocation(mProgramHandle, "luminanceTexture");
-        mUniformInputUVTexture = GLES20.glGetUniformLocation(mProgramHandle, "chrominanceTexture");
-        mTexCoordArray = createFloatBuffer(FULL_RECTANGLE_TEX_COORDS);
-        mPositionArray = createFloatBuffer(FULL_RECTANGLE_COORDS);
+        mAttribPosition = mGL.glGetAttribLocation(mProgramHandle, "position");
+        mAttribTextureCoord = mGL.glGetAttribLocation(mProgramHandle, "inputTextureCoordinate");
+        mUniformMVPMatrix = mGL.glGetUniformLocation(mProgramHandle, "uMVPMatrix");
+        mUniformTexMatrix = mGL.glGetUniformLocation(mProgramHandle, "uTexMatrix");
+        mUniformInputYTexture = mGL.glGetUniformLocation(mProgramHandle, "luminanceTexture");
+        mUniformInputUVTexture = mGL.glGetUniformLocation(mProgramHandle, "chrominanceTexture");
+        mQuadData = createFloatBuffer(FULL_RECTANGLE_COORDS.length + FULL_RECTANGLE_TEX_COORDS.length);
+        mQuadData.put(FULL_RECTANGLE_COORDS).put(FULL_RECTANGLE_TEX_COORDS).position(0);
+        int[] buffers = new int[1];
+        mGL.glGenBuffers(1, buffers, 0);
+        mQuadBuffer = buffers[0];
+        mState.bindArrayBuffer(mQuadBuffer);
+        mGL.glBufferData(GLES20.GL_ARRAY_BUFFER, mQuadData.capacity() * 4, mQuadData, GLES20.GL_STATIC_DRAW);
+        mGL.checkError(TAG, "glBufferData");
     }
 
     /**
@@ -125,6 +161,8 @@ public class BDCameraSyncRenderer {
         mInputHeight = inputHeight;
         mOutputWidth = outputWidth;
         mOutputHeight = outputHeight;
+        // 调用方（onSurfaceChanged）会直接设置视口，缓存的状态不再可信
+        mState.invalidate();
 
         int sW = mInputWidth > mInputHeight ? mInputHeight : mInputWidth;
         int sH = mInputWidth > mInputHeight ? mInputWidth : mInputHeight;
@@ -163,18 +201,16 @@ public class BDCameraSyncRenderer {
             textureCoord[2] = 1 - clipRatio;
             textureCoord[4] = clipRatio;
             textureCoord[6] = 1 - clipRatio;
-            mTexCoordArray.position(0);
-            mTexCoordArray.put(textureCoord, 0, textureCoord.length);
-            mTexCoordArray.position(0);
         } else {
             textureCoord[1] = clipRatio;
             textureCoord[3] = clipRatio;
             textureCoord[5] = 1 - clipRatio;
             textureCoord[7] = 1 - clipRatio;
-            mTexCoordArray.position(0);
-            mTexCoordArray.put(textureCoord, 0, textureCoord.length);
-            mTexCoordArray.position(0);
         }
+        mQuadData.position(QUAD_TEX_COORD_OFFSET / 4);
+        mQuadData.put(textureCoord, 0, textureCoord.length);
+        mQuadData.position(0);
+        mTexCoordsDirty = true;
     }
 
     /**
@@ -184,8 +220,8 @@ public class BDCameraSyncRenderer {
      * @param data   相机帧数据
      */
     public void draw(float[] matrix, byte[] data) {
-        GLES20.glClearColor(0, 0, 0, 0);
-        GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        mGL.beginFrame();
+        mState.viewport(0, 0, mOutputWidth, mOutputHeight);
         mMvpMatrix = matrix;
         update(data);
         buildTextures();
@@ -194,30 +230,58 @@ public class BDCameraSyncRenderer {
 
     /**
      * 拆分camera输出的默认NV21格式的preview数据
+     * 不拷贝数据：y、vu平面是预览帧数组上的两个视图，glTexSubImage2D直接从数组读取（GLES的JNI层对非direct的buffer
+     * 直接取数组地址，预览帧数组较大，ART中分配在不移动的大对象区，不会产生拷贝）。
+     * glTexSubImage2D返回前已读完数据，因此draw()返回后数组即可交还相机；data为null时不上传，沿用纹理中的上一帧
      *
      * @param data
      */
     private void update(byte[] data) {
-        if (data == null) {
+        if (!mPlaneCache.split(data, mInputWidth, mInputHeight)) {
             return;
         }
-        int ySize = mInputWidth * mInputHeight;
-        if (mYUVPlanes == null) {
-            mYUVPlanes = new ByteBuffer[2];
-        }
+        mYUVPlanes[0] = mPlaneCache.getYPlane();
+        mYUVPlanes[1] = mPlaneCache.getVUPlane();
+        mPlanesDirty = true;
+    }
 
-        if (mYUVPlanes[0] == null || mYUVPlanes[0].capacity() != ySize) {
-            mYUVPlanes[0] = ByteBuffer.allocateDirect(ySize);
-        }
-        if (mYUVPlanes[1] == null || mYUVPlanes[1].capacity() != ySize / 2) {
-            mYUVPlanes[1] = ByteBuffer.allocateDirect(ySize / 2);
-        }
+    /**
+     * 最近一帧上传到纹理的字节数
+     */
+    public long getLastUploadBytes() {
+        return mLastUploadBytes;
+    }
+
+    /**
+     * 最近一帧上传纹理的耗时（纳秒，glTexSubImage2D的调用时间）
+     */
+    public long getLastUploadNanos() {
+        return mLastUploadNanos;
+    }
+
+    /**
+     * GL状态缓存，同一上下文中的其他代码修改了绑定、视口等状态后需调用其 invalidate()
+     */
+    public GLStateCache getGLState() {
+        return mState;
+    }
 
-        mYUVPlanes[0].put(data, 0, ySize);
-        mYUVPlanes[1].put(data, ySize, ySize / 2);
+    /**
+     * GL调用入口，可调整检查级别或读取调用统计
+     */
+    public GLTracer getGL() {
+        return mGL;
+    }
 
-        mYUVPlanes[0].position(0);
-        mYUVPlanes[1].position(0);
+    /**
+     * 平均每帧上传的字节数与耗时，格式为 "字节数B 耗时us"，用于日志
+     */
+    public String getUploadStats() {
+        long count = mUploadCount;
+        if (count == 0) {
+            return "";
+        }
+        return (mTotalUploadBytes / count) + "B " + (mTotalUploadNanos / count / 1000) + "us";
     }
 
     /**
@@ -230,56 +294,79 @@ public class BDCameraSyncRenderer {
                 int w = (i == 0) ? mInputWidth : mInputWidth / 2;
                 int h = (i == 0) ? mInputHeight : mInputHeight / 2;
                 int[] textures = new int[1];
-                GLES20.glGenTextures(1, textures, 0);
-                ShaderUtil.checkGLError(TAG, "glGenTextures");
+                mGL.glGenTextures(1, textures, 0);
+                mGL.checkError(TAG, "glGenTextures");
                 mYUVTextureIds[i] = textures[0];
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mYUVTextureIds[i]);
+                mState.bindTexture2D(mYUVTextureIds[i]);
                 if (i == 0) {
-                    GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, w, h, 0,
+                    mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, w, h, 0,
                             GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
                 } else {
-                    GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA, w, h, 0,
+                    mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA, w, h, 0,
                             GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, null);
                 }
-                GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-                GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+                mGL.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+                mGL.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+                mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+                mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
             }
         }
     }
 
     /**
      * 渲染帧
+     * 状态都经过 mState 设置，绘制后不解绑：上下文中只有本渲染器在绘制，下一帧状态不变时这些调用都会省去
      */
     private void drawFrame() {
-        GLES20.glDisable(GLES20.GL_CULL_FACE);
-
-        GLES20.glUseProgram(mProgramHandle);
-        ShaderUtil.checkGLError(TAG, "glUseProgram");
+        mState.setCapability(GLES20.GL_CULL_FACE, false);
 
-        GLES20.glUniformMatrix4fv(mUniformMVPMatrix, 1, false, mMvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(mUniformTexMatrix, 1, false, mTexMatrix, 0);
+        mState.useProgram(mProgramHandle);
+        mGL.checkError(TAG, "glUseProgram");
 
-        GLES20.glEnableVertexAttribArray(mAttribPosition);
-        GLES20.glVertexAttribPointer(mAttribPosition, 2, GLES20.GL_FLOAT, false, 8, mPositionArray);
-
-        GLES20.glEnableVertexAttribArray(mAttribTextureCoord);
-        GLES20.glVertexAttribPointer(mAttribTextureCoord, 2, GLES20.GL_FLOAT, false, 8, mTexCoordArray);
+        mState.uniformMatrix4fv(mUniformMVPMatrix, mMvpMatrix);
+        mState.uniformMatrix4fv(mUniformTexMatrix, mTexMatrix);
 
+        mState.bindArrayBuffer(mQuadBuffer);
+        if (mTexCoordsDirty) {
+            mQuadData.position(QUAD_TEX_COORD_OFFSET / 4);
+            mGL.glBufferSubData(GLES20.GL_ARRAY_BUFFER, QUAD_TEX_COORD_OFFSET, mQuadData.remaining() * 4, mQuadData);
+            mQuadData.position(0);
+            mTexCoordsDirty = false;
+        }
+        mState.enableVertexAttribArray(mAttribPosition);
+        mState.vertexAttribPointer(mAttribPosition, 2, GLES20.GL_FLOAT, false, 8, QUAD_POSITION_OFFSET);
+        mState.enableVertexAttribArray(mAttribTextureCoord);
+        mState.vertexAttribPointer(mAttribTextureCoord, 2, GLES20.GL_FLOAT, false, 8, QUAD_TEX_COORD_OFFSET);
+
+        boolean upload = mPlanesDirty;
+        long uploadBytes = 0;
+        long uploadNanos = 0;
         int size = mYUVTextureIds.length;
-        for (int i = 0; i < size; i++) {
+        // 从当前激活的纹理单元开始，上传时每帧只需切换一次纹理单元
+        int first = mState.getActiveTexture() - GLES20.GL_TEXTURE0;
+        if (first < 0 || first >= size) {
+            first = 0;
+        }
+        for (int n = 0; n < size; n++) {
+            int i = (first + n) % size;
             int w = (i == 0) ? mInputWidth : mInputWidth / 2;
             int h = (i == 0) ? mInputHeight : mInputHeight / 2;
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mYUVTextureIds[i]);
-            if (i == 0) {
-                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, w, h, GLES20.GL_LUMINANCE,
-                        GLES20.GL_UNSIGNED_BYTE, mYUVPlanes[i]);
-            } else {
-                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, w, h, GLES20.GL_LUMINANCE_ALPHA,
-                        GLES20.GL_UNSIGNED_BYTE, mYUVPlanes[i]);
+            mState.bindTexture2D(i, mYUVTextureIds[i]);
+            if (upload) {
+                // glTexSubImage2D作用于当前纹理单元上绑定的纹理
+                mState.activeTexture(GLES20.GL_TEXTURE0 + i);
+                long start = System.nanoTime();
+                if (i == 0) {
+                    mGL.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, w, h, GLES20.GL_LUMINANCE,
+                            GLES20.GL_UNSIGNED_BYTE, mYUVPlanes[i]);
+                } else {
+                    mGL.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, w, h, GLES20.GL_LUMINANCE_ALPHA,
+                            GLES20.GL_UNSIGNED_BYTE, mYUVPlanes[i]);
+                }
+                uploadNanos += System.nanoTime() - start;
+                uploadBytes += mYUVPlanes[i].remaining();
+                // 数组即将交还相机，不再持有
+                mYUVPlanes[i] = null;
             }
             int handle = -1;
             switch (i) {
@@ -293,22 +380,21 @@ public class BDCameraSyncRenderer {
                     break;
             }
             if (checkLocation(handle)) {
-                GLES20.glUniform1i(handle, i);
+                mState.uniform1i(handle, i);
             }
         }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLES20.glDisableVertexAttribArray(mAttribPosition);
-        GLES20.glDisableVertexAttribArray(mAttribTextureCoord);
-        GLES20.glUseProgram(0);
-        unbindTextures();
-    }
-
-    private void unbindTextures() {
-        int num = mYUVTextureIds.length;
-        for (int i = 0; i < num; i++) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        if (upload) {
+            mPlanesDirty = false;
+            mLastUploadBytes = uploadBytes;
+            mLastUploadNanos = uploadNanos;
+            mTotalUploadBytes += uploadBytes;
+            mTotalUploadNanos += uploadNanos;
+            mUploadCount++;
         }
+
+        mGL.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mGL.checkError(TAG, "glDrawArrays");
     }
 
     private boolean checkLocation(int handle) {
@@ -328,36 +414,33 @@ public class BDCameraSyncRenderer {
             return 0;
         }
 
-        int program = GLES20.glCreateProgram();
+        int program = mGL.glCreateProgram();
         if (program == 0) {
             Log.e(TAG, "Could not create program");
         }
-        GLES20.glAttachShader(program, vertexShader);
-        GLES20.glAttachShader(program, pixelShader);
-        GLES20.glLinkProgram(program);
+        mGL.glAttachShader(program, vertexShader);
+        mGL.glAttachShader(program, pixelShader);
+        mGL.glLinkProgram(program);
         int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        mGL.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
         if (linkStatus[0] != GLES20.GL_TRUE) {
-            Log.e(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
+            Log.e(TAG, "Could not link program: " + mGL.glGetProgramInfoLog(program));
+            mGL.glDeleteProgram(program);
             program = 0;
         }
         return program;
     }
 
     private int loadShader(int type, String shaderCode) {
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
+        int shader = mGL.glCreateShader(type);
+        mGL.glShaderSource(shader, shaderCode);
+        mGL.glCompileShader(shader);
         return shader;
     }
 
-    private FloatBuffer createFloatBuffer(float[] coords) {
-        ByteBuffer bb = ByteBuffer.allocateDirect(coords.length * 4);
+    private FloatBuffer createFloatBuffer(int length) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(length * 4);
         bb.order(ByteOrder.nativeOrder());
-        FloatBuffer fb = bb.asFloatBuffer();
-        fb.put(coords);
-        fb.position(0);
-        return fb;
+        return bb.asFloatBuffer();
     }
 }
@@ -0,0 +1,87 @@
+package com.yzz.cpucollector.util;
+
+import java.nio.Buffer;
+
+/**
+ * 渲染器使用的OpenGL ES 2.0调用，方法签名与 GLES20 相同
+ * 实现：AndroidGL 直接调用GLES20；RecordingGL 只记录调用，用于在JVM上验证渲染器的调用序列；
+ * GLTracer 包装任一实现，按级别做错误检查与调用统计
+ */
+public interface GLApi {
+    void glActiveTexture(int texture);
+
+    void glAttachShader(int program, int shader);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBindTexture(int target, int texture);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glCompileShader(int shader);
+
+    int glCreateProgram();
+
+    int glCreateShader(int type);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteProgram(int program);
+
+    void glDisable(int cap);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    void glEnable(int cap);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetError();
+
+    String glGetProgramInfoLog(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glLinkProgram(int program);
+
+    void glShaderSource(int shader, String string);
+
+    void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                      int border, int format, int type, Buffer pixels);
+
+    void glTexParameterf(int target, int pname, float param);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                         int format, int type, Buffer pixels);
+
+    void glUniform1i(int location, int x);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glUseProgram(int program);
+
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr);
+
+    /**
+     * 从当前绑定的GL_ARRAY_BUFFER中offset字节处读取顶点数据
+     */
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset);
+
+    void glViewport(int x, int y, int width, int height);
+}
@@ -0,0 +1,290 @@
+package com.yzz.cpucollector.util;
+
+import android.opengl.GLES20;
+
+/**
+ * GL状态缓存，记录已设置的program、纹理绑定、uniform、顶点属性、视口等状态，值没有变化时不再调用GL
+ *
+ * 缓存只知道经过自己的调用，因此同一上下文中的其他代码修改了这些状态（如直接调用GLES20.glViewport），
+ * 或者上下文重建后，必须调用 invalidate()，之后每个状态的第一次设置一定会调用GL。
+ * uniform的值属于program，切换program时清空uniform缓存；超出缓存范围的纹理单元、属性、uniform位置直接调用GL。
+ * 只能在GL线程中使用
+ */
+public class GLStateCache {
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_ATTRIBS = 16;
+    private static final int MAX_UNIFORMS = 16;
+    private static final int MAX_CAPS = 4;
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final GLApi mGL;
+
+    private int mProgram;
+    private int mActiveUnit;
+    private final int[] mBoundTextures = new int[MAX_TEXTURE_UNITS];
+    private int mArrayBuffer;
+    private int mEnabledAttribs;       // 已启用的顶点属性，按位记录
+    private int mKnownAttribs;         // 启用状态已知的顶点属性
+    private final int[] mAttribBuffers = new int[MAX_ATTRIBS]; // 属性指针对应的buffer，UNKNOWN表示未知
+    private final int[] mAttribFormats = new int[MAX_ATTRIBS]; // size、type、normalized、stride合成的键
+    private final int[] mAttribOffsets = new int[MAX_ATTRIBS];
+    private final int[] mCaps = new int[MAX_CAPS];
+    private final boolean[] mCapEnabled = new boolean[MAX_CAPS];
+    private int mCapCount;
+    private final int[] mViewport = new int[4];
+    private final float[][] mUniformMatrices = new float[MAX_UNIFORMS][];
+    private final boolean[] mUniformMatrixKnown = new boolean[MAX_UNIFORMS];
+    private final int[] mUniformInts = new int[MAX_UNIFORMS];
+
+    // 统计，只在GL线程中更新
+    private volatile long mIssuedCount;
+    private volatile long mSkippedCount;
+
+    public GLStateCache(GLApi gl) {
+        mGL = gl;
+        for (int i = 0; i < MAX_UNIFORMS; i++) {
+            mUniformMatrices[i] = new float[16];
+        }
+        invalidate();
+    }
+
+    /**
+     * 丢弃所有缓存的状态
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mActiveUnit = UNKNOWN;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            mBoundTextures[i] = UNKNOWN;
+        }
+        mArrayBuffer = UNKNOWN;
+        mEnabledAttribs = 0;
+        mKnownAttribs = 0;
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            mAttribBuffers[i] = UNKNOWN;
+        }
+        mCapCount = 0;
+        mViewport[0] = UNKNOWN;
+        invalidateUniforms();
+    }
+
+    private void invalidateUniforms() {
+        for (int i = 0; i < MAX_UNIFORMS; i++) {
+            mUniformMatrixKnown[i] = false;
+            mUniformInts[i] = UNKNOWN;
+        }
+    }
+
+    public void useProgram(int program) {
+        if (program == mProgram) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glUseProgram(program);
+        mProgram = program;
+        invalidateUniforms();
+    }
+
+    /**
+     * @param texture GL_TEXTURE0 + 单元号
+     */
+    public void activeTexture(int texture) {
+        if (texture == mActiveUnit) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glActiveTexture(texture);
+        mActiveUnit = texture;
+    }
+
+    /**
+     * 在当前纹理单元上绑定GL_TEXTURE_2D纹理
+     */
+    public void bindTexture2D(int texture) {
+        int unit = mActiveUnit == UNKNOWN ? -1 : mActiveUnit - GLES20.GL_TEXTURE0;
+        boolean cached = unit >= 0 && unit < MAX_TEXTURE_UNITS;
+        if (cached && mBoundTextures[unit] == texture) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        if (cached) {
+            mBoundTextures[unit] = texture;
+        }
+    }
+
+    /**
+     * 在指定纹理单元上绑定GL_TEXTURE_2D纹理，已绑定时不切换当前纹理单元
+     *
+     * @param unit 单元号，从0开始
+     */
+    public void bindTexture2D(int unit, int texture) {
+        if (unit >= 0 && unit < MAX_TEXTURE_UNITS && mBoundTextures[unit] == texture) {
+            mSkippedCount++;
+            return;
+        }
+        activeTexture(GLES20.GL_TEXTURE0 + unit);
+        bindTexture2D(texture);
+    }
+
+    /**
+     * 当前纹理单元（GL_TEXTURE0 + 单元号），未知时返回 GL_TEXTURE0 - 1
+     */
+    public int getActiveTexture() {
+        return mActiveUnit == UNKNOWN ? GLES20.GL_TEXTURE0 - 1 : mActiveUnit;
+    }
+
+    public void bindArrayBuffer(int buffer) {
+        if (buffer == mArrayBuffer) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        mArrayBuffer = buffer;
+    }
+
+    public void setCapability(int cap, boolean enabled) {
+        int index = 0;
+        while (index < mCapCount && mCaps[index] != cap) {
+            index++;
+        }
+        if (index < mCapCount && mCapEnabled[index] == enabled) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        if (enabled) {
+            mGL.glEnable(cap);
+        } else {
+            mGL.glDisable(cap);
+        }
+        if (index == mCapCount && mCapCount < MAX_CAPS) {
+            mCaps[mCapCount++] = cap;
+        }
+        if (index < mCapCount) {
+            mCapEnabled[index] = enabled;
+        }
+    }
+
+    public void enableVertexAttribArray(int index) {
+        int bit = index >= 0 && index < MAX_ATTRIBS ? 1 << index : 0;
+        if ((mKnownAttribs & mEnabledAttribs & bit) != 0) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glEnableVertexAttribArray(index);
+        mKnownAttribs |= bit;
+        mEnabledAttribs |= bit;
+    }
+
+    public void disableVertexAttribArray(int index) {
+        int bit = index >= 0 && index < MAX_ATTRIBS ? 1 << index : 0;
+        if ((mKnownAttribs & ~mEnabledAttribs & bit) != 0) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glDisableVertexAttribArray(index);
+        mKnownAttribs |= bit;
+        mEnabledAttribs &= ~bit;
+    }
+
+    /**
+     * 设置从当前GL_ARRAY_BUFFER读取的顶点属性指针，必须先调用 bindArrayBuffer()
+     */
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        boolean cached = index >= 0 && index < MAX_ATTRIBS && mArrayBuffer != UNKNOWN
+                && stride >= 0 && stride < 256;
+        // size 1~4、stride 0~255，type为GL_BYTE~GL_FIXED（0x1400~0x140C），合成一个int
+        int format = (size << 24) | ((stride & 0xff) << 16) | ((type & 0x7fff) << 1) | (normalized ? 1 : 0);
+        if (cached && mAttribBuffers[index] == mArrayBuffer && mAttribFormats[index] == format
+                && mAttribOffsets[index] == offset) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        if (cached) {
+            mAttribBuffers[index] = mArrayBuffer;
+            mAttribFormats[index] = format;
+            mAttribOffsets[index] = offset;
+        }
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (mViewport[0] == x && mViewport[1] == y && mViewport[2] == width && mViewport[3] == height) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glViewport(x, y, width, height);
+        mViewport[0] = x;
+        mViewport[1] = y;
+        mViewport[2] = width;
+        mViewport[3] = height;
+    }
+
+    /**
+     * 设置当前program的一个mat4 uniform（不转置），取value[0..16)
+     */
+    public void uniformMatrix4fv(int location, float[] value) {
+        boolean cached = location >= 0 && location < MAX_UNIFORMS;
+        if (cached && mUniformMatrixKnown[location] && equals16(mUniformMatrices[location], value)) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glUniformMatrix4fv(location, 1, false, value, 0);
+        if (cached) {
+            System.arraycopy(value, 0, mUniformMatrices[location], 0, 16);
+            mUniformMatrixKnown[location] = true;
+        }
+    }
+
+    public void uniform1i(int location, int value) {
+        boolean cached = location >= 0 && location < MAX_UNIFORMS;
+        if (cached && mUniformInts[location] == value) {
+            mSkippedCount++;
+            return;
+        }
+        mIssuedCount++;
+        mGL.glUniform1i(location, value);
+        if (cached) {
+            mUniformInts[location] = value;
+        }
+    }
+
+    private static boolean equals16(float[] a, float[] b) {
+        for (int i = 0; i < 16; i++) {
+            // 按位比较，NaN也能命中缓存
+            if (Float.floatToRawIntBits(a[i]) != Float.floatToRawIntBits(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 实际调用GL的次数
+     */
+    public long getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * 因状态没有变化而省去的调用次数
+     */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "issued=" + mIssuedCount + " skipped=" + mSkippedCount;
+    }
+}
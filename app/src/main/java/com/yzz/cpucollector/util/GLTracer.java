@@ -0,0 +1,446 @@
+package com.yzz.cpucollector.util;
+
+import android.util.Log;
+
+import java.nio.Buffer;
+import java.util.Locale;
+
+/**
+ * 分级的GL错误检查与调用统计，包装另一个 GLApi 实现，渲染器的所有GL调用都经过这里
+ *
+ * LEVEL_OFF：直接转发，checkError() 不做任何事，不会因glGetError导致管线同步，用于正式版本；
+ * LEVEL_SAMPLED：每 sampleInterval 帧中只有一帧在 checkError() 时读取错误，发现错误时记录日志并计数，不抛异常；
+ * LEVEL_FULL：每次调用后立即检查错误（出错时抛出RuntimeException，与 ShaderUtil.checkGLError 一致），
+ * 并统计各方法的调用次数与耗时，用于调试。
+ *
+ * 帧的边界由渲染器调用 beginFrame() 标记。只能在GL线程中使用，统计结果可在其他线程读取（不保证一致）
+ */
+public class GLTracer implements GLApi {
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_SAMPLED = 1;
+    public static final int LEVEL_FULL = 2;
+
+    public static final int CALL_ACTIVE_TEXTURE = 0;
+    public static final int CALL_ATTACH_SHADER = 1;
+    public static final int CALL_BIND_BUFFER = 2;
+    public static final int CALL_BIND_TEXTURE = 3;
+    public static final int CALL_BUFFER_DATA = 4;
+    public static final int CALL_BUFFER_SUB_DATA = 5;
+    public static final int CALL_CLEAR_COLOR = 6;
+    public static final int CALL_COMPILE_SHADER = 7;
+    public static final int CALL_CREATE_PROGRAM = 8;
+    public static final int CALL_CREATE_SHADER = 9;
+    public static final int CALL_DELETE_BUFFERS = 10;
+    public static final int CALL_DELETE_PROGRAM = 11;
+    public static final int CALL_DISABLE = 12;
+    public static final int CALL_DISABLE_VERTEX_ATTRIB_ARRAY = 13;
+    public static final int CALL_DRAW_ARRAYS = 14;
+    public static final int CALL_ENABLE = 15;
+    public static final int CALL_ENABLE_VERTEX_ATTRIB_ARRAY = 16;
+    public static final int CALL_GEN_BUFFERS = 17;
+    public static final int CALL_GEN_TEXTURES = 18;
+    public static final int CALL_GET_ATTRIB_LOCATION = 19;
+    public static final int CALL_GET_ERROR = 20;
+    public static final int CALL_GET_PROGRAM_INFO_LOG = 21;
+    public static final int CALL_GET_PROGRAMIV = 22;
+    public static final int CALL_GET_UNIFORM_LOCATION = 23;
+    public static final int CALL_LINK_PROGRAM = 24;
+    public static final int CALL_SHADER_SOURCE = 25;
+    public static final int CALL_TEX_IMAGE_2D = 26;
+    public static final int CALL_TEX_PARAMETERF = 27;
+    public static final int CALL_TEX_PARAMETERI = 28;
+    public static final int CALL_TEX_SUB_IMAGE_2D = 29;
+    public static final int CALL_UNIFORM_1I = 30;
+    public static final int CALL_UNIFORM_MATRIX_4FV = 31;
+    public static final int CALL_USE_PROGRAM = 32;
+    public static final int CALL_VERTEX_ATTRIB_POINTER = 33;
+    public static final int CALL_VIEWPORT = 34;
+    private static final int CALL_COUNT = 35;
+    private static final String[] CALL_NAMES = {
+            "glActiveTexture", "glAttachShader", "glBindBuffer", "glBindTexture", "glBufferData",
+            "glBufferSubData", "glClearColor", "glCompileShader", "glCreateProgram", "glCreateShader",
+            "glDeleteBuffers", "glDeleteProgram", "glDisable", "glDisableVertexAttribArray", "glDrawArrays",
+            "glEnable", "glEnableVertexAttribArray", "glGenBuffers", "glGenTextures", "glGetAttribLocation",
+            "glGetError", "glGetProgramInfoLog", "glGetProgramiv", "glGetUniformLocation", "glLinkProgram",
+            "glShaderSource", "glTexImage2D", "glTexParameterf", "glTexParameteri", "glTexSubImage2D",
+            "glUniform1i", "glUniformMatrix4fv", "glUseProgram", "glVertexAttribPointer", "glViewport"
+    };
+
+    private static final String TAG = GLTracer.class.getSimpleName();
+
+    private final GLApi mDelegate;
+    private volatile int mLevel;
+    private final int mSampleInterval;
+    private long mFrameCount;
+    private boolean mCheckThisFrame;
+    private volatile long mErrorCount;
+    private final long[] mCallCounts = new long[CALL_COUNT];
+    private final long[] mCallNanos = new long[CALL_COUNT];
+
+    /**
+     * @param delegate       实际执行调用的实现
+     * @param level          LEVEL_OFF / LEVEL_SAMPLED / LEVEL_FULL
+     * @param sampleInterval LEVEL_SAMPLED 时每多少帧检查一次错误
+     */
+    public GLTracer(GLApi delegate, int level, int sampleInterval) {
+        mDelegate = delegate;
+        mLevel = level;
+        mSampleInterval = Math.max(1, sampleInterval);
+    }
+
+    public void setLevel(int level) {
+        mLevel = level;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 标记新的一帧开始
+     */
+    public void beginFrame() {
+        mFrameCount++;
+        mCheckThisFrame = mFrameCount % mSampleInterval == 0;
+    }
+
+    /**
+     * 按当前级别检查GL错误，代替 ShaderUtil.checkGLError
+     */
+    public void checkError(String tag, String label) {
+        int level = mLevel;
+        if (level == LEVEL_OFF || (level == LEVEL_SAMPLED && !mCheckThisFrame)) {
+            return;
+        }
+        drainErrors(tag, label, level == LEVEL_FULL);
+    }
+
+    private void drainErrors(String tag, String label, boolean fatal) {
+        int lastError = 0; // GL_NO_ERROR
+        int error;
+        while ((error = mDelegate.glGetError()) != 0) {
+            Log.e(tag, label + ": glError " + error);
+            lastError = error;
+            mErrorCount++;
+        }
+        if (fatal && lastError != 0) {
+            throw new RuntimeException(label + ": glError " + lastError);
+        }
+    }
+
+    /**
+     * 已发现的GL错误数
+     */
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * LEVEL_FULL 下某个方法的调用次数，call为 CALL_* 常量
+     */
+    public long getCallCount(int call) {
+        return mCallCounts[call];
+    }
+
+    /**
+     * LEVEL_FULL 下某个方法的累计耗时（纳秒）
+     */
+    public long getCallNanos(int call) {
+        return mCallNanos[call];
+    }
+
+    public void resetStats() {
+        for (int i = 0; i < CALL_COUNT; i++) {
+            mCallCounts[i] = 0;
+            mCallNanos[i] = 0;
+        }
+    }
+
+    /**
+     * 各方法的调用次数与耗时，格式为 "方法名 x次数 耗时us"，以逗号分隔，用于日志
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CALL_COUNT; i++) {
+            if (mCallCounts[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format(Locale.CHINA, "%s x%d %dus", CALL_NAMES[i], mCallCounts[i],
+                    mCallNanos[i] / 1000));
+        }
+        return sb.toString();
+    }
+
+    private long begin() {
+        return mLevel == LEVEL_FULL ? System.nanoTime() : 0;
+    }
+
+    private void end(int call, long start) {
+        if (start == 0) {
+            return;
+        }
+        mCallNanos[call] += System.nanoTime() - start;
+        mCallCounts[call]++;
+        drainErrors(TAG, CALL_NAMES[call], true);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        long start = begin();
+        mDelegate.glActiveTexture(texture);
+        end(CALL_ACTIVE_TEXTURE, start);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        long start = begin();
+        mDelegate.glAttachShader(program, shader);
+        end(CALL_ATTACH_SHADER, start);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        long start = begin();
+        mDelegate.glBindBuffer(target, buffer);
+        end(CALL_BIND_BUFFER, start);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        long start = begin();
+        mDelegate.glBindTexture(target, texture);
+        end(CALL_BIND_TEXTURE, start);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        long start = begin();
+        mDelegate.glBufferData(target, size, data, usage);
+        end(CALL_BUFFER_DATA, start);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        long start = begin();
+        mDelegate.glBufferSubData(target, offset, size, data);
+        end(CALL_BUFFER_SUB_DATA, start);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        long start = begin();
+        mDelegate.glClearColor(red, green, blue, alpha);
+        end(CALL_CLEAR_COLOR, start);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        long start = begin();
+        mDelegate.glCompileShader(shader);
+        end(CALL_COMPILE_SHADER, start);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        long start = begin();
+        int result = mDelegate.glCreateProgram();
+        end(CALL_CREATE_PROGRAM, start);
+        return result;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        long start = begin();
+        int result = mDelegate.glCreateShader(type);
+        end(CALL_CREATE_SHADER, start);
+        return result;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        long start = begin();
+        mDelegate.glDeleteBuffers(n, buffers, offset);
+        end(CALL_DELETE_BUFFERS, start);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        long start = begin();
+        mDelegate.glDeleteProgram(program);
+        end(CALL_DELETE_PROGRAM, start);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        long start = begin();
+        mDelegate.glDisable(cap);
+        end(CALL_DISABLE, start);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        long start = begin();
+        mDelegate.glDisableVertexAttribArray(index);
+        end(CALL_DISABLE_VERTEX_ATTRIB_ARRAY, start);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        long start = begin();
+        mDelegate.glDrawArrays(mode, first, count);
+        end(CALL_DRAW_ARRAYS, start);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        long start = begin();
+        mDelegate.glEnable(cap);
+        end(CALL_ENABLE, start);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        long start = begin();
+        mDelegate.glEnableVertexAttribArray(index);
+        end(CALL_ENABLE_VERTEX_ATTRIB_ARRAY, start);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        long start = begin();
+        mDelegate.glGenBuffers(n, buffers, offset);
+        end(CALL_GEN_BUFFERS, start);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        long start = begin();
+        mDelegate.glGenTextures(n, textures, offset);
+        end(CALL_GEN_TEXTURES, start);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        long start = begin();
+        int result = mDelegate.glGetAttribLocation(program, name);
+        end(CALL_GET_ATTRIB_LOCATION, start);
+        return result;
+    }
+
+    @Override
+    public int glGetError() {
+        return mDelegate.glGetError();
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        long start = begin();
+        String result = mDelegate.glGetProgramInfoLog(program);
+        end(CALL_GET_PROGRAM_INFO_LOG, start);
+        return result;
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        long start = begin();
+        mDelegate.glGetProgramiv(program, pname, params, offset);
+        end(CALL_GET_PROGRAMIV, start);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        long start = begin();
+        int result = mDelegate.glGetUniformLocation(program, name);
+        end(CALL_GET_UNIFORM_LOCATION, start);
+        return result;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        long start = begin();
+        mDelegate.glLinkProgram(program);
+        end(CALL_LINK_PROGRAM, start);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        long start = begin();
+        mDelegate.glShaderSource(shader, string);
+        end(CALL_SHADER_SOURCE, start);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                             int border, int format, int type, Buffer pixels) {
+        long start = begin();
+        mDelegate.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+        end(CALL_TEX_IMAGE_2D, start);
+    }
+
+    @Override
+    public void glTexParameterf(int target, int pname, float param) {
+        long start = begin();
+        mDelegate.glTexParameterf(target, pname, param);
+        end(CALL_TEX_PARAMETERF, start);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        long start = begin();
+        mDelegate.glTexParameteri(target, pname, param);
+        end(CALL_TEX_PARAMETERI, start);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, Buffer pixels) {
+        long start = begin();
+        mDelegate.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+        end(CALL_TEX_SUB_IMAGE_2D, start);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        long start = begin();
+        mDelegate.glUniform1i(location, x);
+        end(CALL_UNIFORM_1I, start);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        long start = begin();
+        mDelegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+        end(CALL_UNIFORM_MATRIX_4FV, start);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        long start = begin();
+        mDelegate.glUseProgram(program);
+        end(CALL_USE_PROGRAM, start);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        long start = begin();
+        mDelegate.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+        end(CALL_VERTEX_ATTRIB_POINTER, start);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+        long start = begin();
+        mDelegate.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+        end(CALL_VERTEX_ATTRIB_POINTER, start);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        long start = begin();
+        mDelegate.glViewport(x, y, width, height);
+        end(CALL_VIEWPORT, start);
+    }
+}
@@ -0,0 +1,210 @@
+package com.yzz.cpucollector.util;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * NV21转RGBA/BGR的CPU实现，用于分析、截图，以及在没有GPU的环境下验证 BDCameraSyncRenderer 中shader的转换公式
+ *
+ * 转换公式与 FRAGMENT_SHADER_NV212BGR 一致（全范围YUV，u/v以0.5为中心）：
+ * r = y + 1.13983v，g = y - 0.39465u - 0.58060v，b = y + 2.03211u，
+ * 系数放大 2^16 后用整数运算，结果与shader的浮点结果相差不超过1。
+ * 色度按最近邻取样（2x2像素共用一组VU），shader中的线性过滤会在色度边缘产生插值，这部分不做模拟。
+ *
+ * 图像按行分条，由调用线程和 threadCount-1 个常驻工作线程并行转换；每帧只通过一个计数器和 park/unpark 同步，
+ * 不提交任务、不分配内存。输出写入调用方提供的数组。
+ * convert() 同一时刻只能有一个线程调用（内部加锁）
+ */
+public class Nv21Converter implements Closeable {
+    public static final int FORMAT_RGBA = 0; // 每像素4字节 R,G,B,A，A为255
+    public static final int FORMAT_BGR = 1;  // 每像素3字节 B,G,R
+
+    // shader系数 × 2^16，作用于 (2 × 分量 - 255)，即 (分量 / 255 - 0.5) × 510，因此再除以2
+    private static final int SHIFT = 16;
+    private static final int ROUND = 1 << (SHIFT - 1);
+    private static final int K_RV = (int) Math.round(1.13983 / 2 * (1 << SHIFT));
+    private static final int K_GU = (int) Math.round(0.39465 / 2 * (1 << SHIFT));
+    private static final int K_GV = (int) Math.round(0.58060 / 2 * (1 << SHIFT));
+    private static final int K_BU = (int) Math.round(2.03211 / 2 * (1 << SHIFT));
+
+    private final Thread[] mWorkers;
+    private final int mStripeCount;
+    private final AtomicInteger mRemaining = new AtomicInteger();
+    private volatile int mGeneration;
+    private volatile boolean mClosed;
+    private volatile Thread mCaller;
+
+    // 当前帧参数，在递增mGeneration之前写入，由volatile写保证对工作线程可见
+    private byte[] mInput;
+    private byte[] mOutput;
+    private int mWidth;
+    private int mHeight;
+    private int mFormat;
+
+    /**
+     * @param threadCount 参与转换的线程数（含调用线程），<=1 时只在调用线程中转换
+     */
+    public Nv21Converter(int threadCount) {
+        int workers = Math.max(0, threadCount - 1);
+        mStripeCount = workers + 1;
+        mWorkers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            final int stripe = i + 1;
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(stripe);
+                }
+            }, "Nv21Converter-" + stripe);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 一帧输出所需的字节数
+     */
+    public static int outputSize(int width, int height, int format) {
+        return width * height * (format == FORMAT_RGBA ? 4 : 3);
+    }
+
+    /**
+     * 转换一帧，返回时输出已全部写完
+     *
+     * @param nv21   输入，至少 width × height × 3 / 2 字节
+     * @param width  宽，必须为偶数
+     * @param height 高，必须为偶数
+     * @param output 输出，至少 outputSize() 字节
+     * @param format FORMAT_RGBA 或 FORMAT_BGR
+     */
+    public synchronized void convert(byte[] nv21, int width, int height, byte[] output, int format) {
+        checkArguments(nv21, width, height, output, format);
+        if (mClosed) {
+            throw new IllegalStateException("converter closed");
+        }
+        int workers = mWorkers.length;
+        if (workers == 0 || height < 2 * mStripeCount) {
+            convertRows(nv21, width, height, output, format, 0, height);
+            return;
+        }
+        mInput = nv21;
+        mOutput = output;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mCaller = Thread.currentThread();
+        mRemaining.set(workers);
+        mGeneration++;
+        for (Thread worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+        convertStripe(0);
+        while (mRemaining.get() > 0) {
+            LockSupport.park(this);
+        }
+        mInput = null;
+        mOutput = null;
+    }
+
+    /**
+     * 单线程转换 [rowStart, rowEnd) 行，rowStart 必须为偶数
+     */
+    public static void convertRows(byte[] nv21, int width, int height, byte[] output, int format,
+                                   int rowStart, int rowEnd) {
+        int frameSize = width * height;
+        int pixelSize = format == FORMAT_RGBA ? 4 : 3;
+        for (int row = rowStart; row < rowEnd; row++) {
+            int yIndex = row * width;
+            int uvIndex = frameSize + (row >> 1) * width;
+            int out = yIndex * pixelSize;
+            for (int col = 0; col < width; col += 2) {
+                // NV21的色度排列为 V,U
+                int v = 2 * (nv21[uvIndex++] & 0xff) - 255;
+                int u = 2 * (nv21[uvIndex++] & 0xff) - 255;
+                int rd = K_RV * v + ROUND;
+                int gd = -K_GU * u - K_GV * v + ROUND;
+                int bd = K_BU * u + ROUND;
+                for (int i = 0; i < 2; i++) {
+                    int y = (nv21[yIndex++] & 0xff) << SHIFT;
+                    int r = clamp((y + rd) >> SHIFT);
+                    int g = clamp((y + gd) >> SHIFT);
+                    int b = clamp((y + bd) >> SHIFT);
+                    if (format == FORMAT_RGBA) {
+                        output[out] = (byte) r;
+                        output[out + 1] = (byte) g;
+                        output[out + 2] = (byte) b;
+                        output[out + 3] = (byte) 0xff;
+                    } else {
+                        output[out] = (byte) b;
+                        output[out + 1] = (byte) g;
+                        output[out + 2] = (byte) r;
+                    }
+                    out += pixelSize;
+                }
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        if ((value & ~0xff) == 0) {
+            return value;
+        }
+        return value < 0 ? 0 : 255;
+    }
+
+    private static void checkArguments(byte[] nv21, int width, int height, byte[] output, int format) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("width and height must be positive and even: " + width + "x" + height);
+        }
+        if (format != FORMAT_RGBA && format != FORMAT_BGR) {
+            throw new IllegalArgumentException("unknown format " + format);
+        }
+        if (nv21.length < width * height * 3 / 2) {
+            throw new IllegalArgumentException("nv21 buffer too small: " + nv21.length);
+        }
+        if (output.length < outputSize(width, height, format)) {
+            throw new IllegalArgumentException("output buffer too small: " + output.length);
+        }
+    }
+
+    /**
+     * 转换第stripe条，各条按偶数行对齐
+     */
+    private void convertStripe(int stripe) {
+        int pairs = mHeight / 2;
+        int start = pairs * stripe / mStripeCount * 2;
+        int end = pairs * (stripe + 1) / mStripeCount * 2;
+        convertRows(mInput, mWidth, mHeight, mOutput, mFormat, start, end);
+    }
+
+    private void workerLoop(int stripe) {
+        int seen = 0;
+        while (true) {
+            int generation = mGeneration;
+            while (generation == seen && !mClosed) {
+                LockSupport.park(this);
+                generation = mGeneration;
+            }
+            if (mClosed) {
+                return;
+            }
+            seen = generation;
+            convertStripe(stripe);
+            if (mRemaining.decrementAndGet() == 0) {
+                LockSupport.unpark(mCaller);
+            }
+        }
+    }
+
+    /**
+     * 结束工作线程，正在进行的转换完成后才返回
+     */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        for (Thread worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+    }
+}
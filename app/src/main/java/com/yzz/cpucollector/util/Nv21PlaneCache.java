@@ -0,0 +1,69 @@
+package com.yzz.cpucollector.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * NV21预览帧到y、vu两个平面视图的缓存
+ * 平面视图是 ByteBuffer.wrap(...).slice() 得到的、指向预览帧数组本身的视图，不拷贝数据。
+ * 预览缓冲在缓冲池中循环使用，每个数组只在第一次出现时创建一次视图，之后按数组引用命中缓存。
+ * 只能在一个线程中使用
+ */
+public class Nv21PlaneCache {
+    private final byte[][] mKeys;
+    private final ByteBuffer[] mYPlanes;
+    private final ByteBuffer[] mVUPlanes;
+    private int mNext;
+    private int mCurrent = -1;
+
+    /**
+     * @param capacity 缓存的数组数，应不小于循环使用的预览缓冲数
+     */
+    public Nv21PlaneCache(int capacity) {
+        mKeys = new byte[capacity][];
+        mYPlanes = new ByteBuffer[capacity];
+        mVUPlanes = new ByteBuffer[capacity];
+    }
+
+    /**
+     * 取得一帧的平面视图，之后由 getYPlane()/getVUPlane() 返回
+     *
+     * @return 数据不足一帧时返回false
+     */
+    public boolean split(byte[] data, int width, int height) {
+        int ySize = width * height;
+        if (data == null || data.length < ySize * 3 / 2) {
+            return false;
+        }
+        int slot = -1;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == data && mYPlanes[i].capacity() == ySize) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            // 新的数组或预览尺寸变化，按轮转替换缓存项
+            slot = mNext;
+            mNext = (mNext + 1) % mKeys.length;
+            mKeys[slot] = data;
+            mYPlanes[slot] = ByteBuffer.wrap(data, 0, ySize).slice();
+            mVUPlanes[slot] = ByteBuffer.wrap(data, ySize, ySize / 2).slice();
+        }
+        mCurrent = slot;
+        return true;
+    }
+
+    /**
+     * 上一次 split() 得到的y平面
+     */
+    public ByteBuffer getYPlane() {
+        return mYPlanes[mCurrent];
+    }
+
+    /**
+     * 上一次 split() 得到的vu平面（V、U交错）
+     */
+    public ByteBuffer getVUPlane() {
+        return mVUPlanes[mCurrent];
+    }
+}
@@ -0,0 +1,278 @@
+package com.yzz.cpucollector.util;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 不依赖GPU的 GLApi 实现，只记录调用，用于在JVM上验证渲染器的调用序列与次数
+ *
+ * 每次调用按 "方法名(参数, ...)" 记录，Buffer参数记为 "buffer[剩余字节数]"；
+ * 创建类调用返回递增的id，attrib/uniform位置按名字分配，link/compile状态总是成功，
+ * glGetError 返回 setNextError() 设置的错误（只返回一次）
+ */
+public class RecordingGL implements GLApi {
+    private final List<String> mCalls = new ArrayList<>();
+    private final Map<String, Integer> mCounts = new HashMap<>();
+    private final Map<String, Integer> mLocations = new HashMap<>();
+    private int mNextId = 1;
+    private int mNextError;
+
+    /**
+     * 按顺序记录的调用
+     */
+    public List<String> getCalls() {
+        return mCalls;
+    }
+
+    /**
+     * 某个方法的调用次数
+     */
+    public int count(String method) {
+        Integer count = mCounts.get(method);
+        return count == null ? 0 : count;
+    }
+
+    public void clear() {
+        mCalls.clear();
+        mCounts.clear();
+    }
+
+    /**
+     * 下一次 glGetError 返回的错误码
+     */
+    public void setNextError(int error) {
+        mNextError = error;
+    }
+
+    private void record(String method, Object... args) {
+        StringBuilder sb = new StringBuilder(method).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            Object arg = args[i];
+            if (arg instanceof Buffer) {
+                sb.append("buffer[").append(((Buffer) arg).remaining()).append(']');
+            } else if (arg instanceof float[]) {
+                sb.append(Arrays.toString((float[]) arg));
+            } else if (arg instanceof int[]) {
+                sb.append("int[").append(((int[]) arg).length).append(']');
+            } else {
+                sb.append(arg);
+            }
+        }
+        mCalls.add(sb.append(')').toString());
+        Integer count = mCounts.get(method);
+        mCounts.put(method, count == null ? 1 : count + 1);
+    }
+
+    private int location(String name) {
+        Integer location = mLocations.get(name);
+        if (location == null) {
+            location = mLocations.size();
+            mLocations.put(name, location);
+        }
+        return location;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record("glActiveTexture", texture);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        record("glAttachShader", program, shader);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record("glBindBuffer", target, buffer);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record("glBindTexture", target, texture);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record("glBufferData", target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        record("glBufferSubData", target, offset, size, data);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record("glClearColor", red, green, blue, alpha);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record("glCompileShader", shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        record("glCreateProgram");
+        return mNextId++;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        record("glCreateShader", type);
+        return mNextId++;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        record("glDeleteBuffers", n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        record("glDeleteProgram", program);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        record("glDisable", cap);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record("glDisableVertexAttribArray", index);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        record("glDrawArrays", mode, first, count);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        record("glEnable", cap);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record("glEnableVertexAttribArray", index);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        record("glGenBuffers", n, buffers, offset);
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = mNextId++;
+        }
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        record("glGenTextures", n, textures, offset);
+        for (int i = 0; i < n; i++) {
+            textures[offset + i] = mNextId++;
+        }
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        record("glGetAttribLocation", program, name);
+        return location(name);
+    }
+
+    @Override
+    public int glGetError() {
+        record("glGetError");
+        int error = mNextError;
+        mNextError = 0;
+        return error;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        record("glGetProgramInfoLog", program);
+        return "";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        record("glGetProgramiv", program, pname, params, offset);
+        params[offset] = 1; // GL_TRUE
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        record("glGetUniformLocation", program, name);
+        return location(name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        record("glLinkProgram", program);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        record("glShaderSource", shader, string);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                             int border, int format, int type, Buffer pixels) {
+        record("glTexImage2D", target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexParameterf(int target, int pname, float param) {
+        record("glTexParameterf", target, pname, param);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record("glTexParameteri", target, pname, param);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                                int format, int type, Buffer pixels) {
+        record("glTexSubImage2D", target, level, xoffset, yoffset, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record("glUniform1i", location, x);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        record("glUniformMatrix4fv", location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record("glUseProgram", program);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        record("glVertexAttribPointer", indx, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+        record("glVertexAttribPointer", indx, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record("glViewport", x, y, width, height);
+    }
+}
@@ -0,0 +1,120 @@
+package com.yzz.cpucollector.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 无锁三缓冲交换，用于一个生产线程向一个消费线程传递“最新一帧”
+ *
+ * 三个槽位分别归生产者（写槽）、消费者（读槽）所有，第三个在两者之间交换（中间槽）：
+ * 生产者写完写槽后 publish()，用一次原子交换把写槽换成中间槽；消费者 consume() 时如有新帧，同样用一次原子交换取走中间槽。
+ * 任何时刻两个线程都不会访问同一个槽位，消费者总是拿到最新的完整帧，生产者不会被阻塞。
+ *
+ * 槽位对象在构造时给定，之后在线程间循环使用，本类不分配内存。槽位内容的读写由调用方负责：
+ * 生产者只访问 getWriteSlot()，消费者只访问 consume()/getReadSlot() 返回的槽位
+ *
+ * @param <T> 槽位类型
+ */
+public class TripleBuffer<T> {
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4; // 中间槽中是尚未被消费的新帧
+
+    private final T[] mSlots;
+    private final AtomicInteger mMiddle; // 中间槽下标 | FRESH
+    private int mWriteIndex; // 仅生产线程访问
+    private int mReadIndex;  // 仅消费线程访问
+
+    // 计数，分别只由一个线程写入
+    private volatile long mPublishCount;
+    private volatile long mSkipCount;
+    private volatile long mConsumeCount;
+    private volatile long mStaleCount;
+
+    @SuppressWarnings("unchecked")
+    public TripleBuffer(T first, T second, T third) {
+        mSlots = (T[]) new Object[]{first, second, third};
+        mWriteIndex = 0;
+        mMiddle = new AtomicInteger(1);
+        mReadIndex = 2;
+    }
+
+    /**
+     * 生产者当前可写的槽位
+     */
+    public T getWriteSlot() {
+        return mSlots[mWriteIndex];
+    }
+
+    /**
+     * 发布写槽，之后 getWriteSlot() 返回换回来的槽位
+     *
+     * @return 上一次发布的帧还没被消费就被本次覆盖时返回true，此时换回的槽位中是那一帧的内容，由调用方回收；
+     * 同时说明消费者已有一次待处理的通知，无需再次唤醒
+     */
+    public boolean publish() {
+        int old = mMiddle.getAndSet(mWriteIndex | FRESH);
+        mWriteIndex = old & INDEX_MASK;
+        mPublishCount++;
+        if ((old & FRESH) != 0) {
+            mSkipCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 取走最新发布的帧
+     *
+     * @return 新帧所在的槽位；自上次调用后没有新帧时返回null
+     */
+    public T consume() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            mStaleCount++;
+            return null;
+        }
+        int old = mMiddle.getAndSet(mReadIndex);
+        mReadIndex = old & INDEX_MASK;
+        mConsumeCount++;
+        return mSlots[mReadIndex];
+    }
+
+    /**
+     * 消费者当前持有的槽位（上一次 consume() 取到的帧）
+     */
+    public T getReadSlot() {
+        return mSlots[mReadIndex];
+    }
+
+    /**
+     * 已发布的帧数
+     */
+    public long getPublishCount() {
+        return mPublishCount;
+    }
+
+    /**
+     * 被后一帧覆盖、没有被消费的帧数
+     */
+    public long getSkipCount() {
+        return mSkipCount;
+    }
+
+    /**
+     * 已消费的帧数
+     */
+    public long getConsumeCount() {
+        return mConsumeCount;
+    }
+
+    /**
+     * consume() 时没有新帧的次数
+     */
+    public long getStaleCount() {
+        return mStaleCount;
+    }
+
+    @Override
+    public String toString() {
+        return "published=" + mPublishCount + " consumed=" + mConsumeCount + " skipped=" + mSkipCount
+                + " stale=" + mStaleCount;
+    }
+}
@@ -0,0 +1,217 @@
+package com.yzz.cpucollector.util;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 在JVM上通过 RecordingGL 驱动渲染器，校验GL调用序列
+ */
+public class BDCameraSyncRendererTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1};
+
+    private final RecordingGL mGL = new RecordingGL();
+    private final byte[] mFrame = new byte[WIDTH * HEIGHT * 3 / 2];
+
+    private GLTracer mTracer;
+    private BDCameraSyncRenderer mRenderer;
+
+    @Before
+    public void setUp() {
+        mTracer = new GLTracer(mGL, GLTracer.LEVEL_OFF, 60);
+        mRenderer = new BDCameraSyncRenderer(mTracer);
+    }
+
+    @Test
+    public void constructorBuildsProgramAndQuad() {
+        assertEquals(Arrays.asList(
+                "glCreateShader", "glShaderSource", "glCompileShader",
+                "glCreateShader", "glShaderSource", "glCompileShader",
+                "glCreateProgram", "glAttachShader", "glAttachShader", "glLinkProgram", "glGetProgramiv",
+                "glGetAttribLocation", "glGetAttribLocation",
+                "glGetUniformLocation", "glGetUniformLocation", "glGetUniformLocation", "glGetUniformLocation",
+                "glGenBuffers", "glBindBuffer", "glBufferData"), methods());
+        List<String> calls = mGL.getCalls();
+        assertEquals("glCreateShader(" + GLES20.GL_VERTEX_SHADER + ")", calls.get(0));
+        assertEquals("glCreateShader(" + GLES20.GL_FRAGMENT_SHADER + ")", calls.get(3));
+        // 4个顶点的位置和纹理坐标，共16个float
+        assertEquals("glBufferData(" + GLES20.GL_ARRAY_BUFFER + ", 64, buffer[16], " + GLES20.GL_STATIC_DRAW + ")",
+                calls.get(calls.size() - 1));
+    }
+
+    @Test
+    public void firstFrameCreatesTexturesThenDraws() {
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        mGL.clear();
+        mRenderer.draw(IDENTITY, mFrame);
+        List<String> texture = Arrays.asList("glGenTextures", "glBindTexture", "glTexImage2D",
+                "glTexParameterf", "glTexParameterf", "glTexParameteri", "glTexParameteri");
+        List<String> expected = new ArrayList<>();
+        expected.add("glViewport");
+        expected.addAll(texture);
+        expected.addAll(texture);
+        expected.addAll(Arrays.asList(
+                "glDisable", "glUseProgram", "glUniformMatrix4fv", "glUniformMatrix4fv",
+                "glBindBuffer", "glBufferSubData",
+                "glEnableVertexAttribArray", "glVertexAttribPointer",
+                "glEnableVertexAttribArray", "glVertexAttribPointer",
+                "glActiveTexture", "glBindTexture", "glTexSubImage2D", "glUniform1i",
+                "glActiveTexture", "glBindTexture", "glTexSubImage2D", "glUniform1i",
+                "glDrawArrays"));
+        assertEquals(expected, methods());
+
+        List<String> calls = mGL.getCalls();
+        assertEquals("glViewport(0, 0, 1080, 1920)", calls.get(0));
+        assertEquals("glTexImage2D(" + GLES20.GL_TEXTURE_2D + ", 0, " + GLES20.GL_LUMINANCE + ", 640, 480, 0, "
+                + GLES20.GL_LUMINANCE + ", " + GLES20.GL_UNSIGNED_BYTE + ", null)", calls.get(3));
+        assertEquals("glTexImage2D(" + GLES20.GL_TEXTURE_2D + ", 0, " + GLES20.GL_LUMINANCE_ALPHA + ", 320, 240, 0, "
+                + GLES20.GL_LUMINANCE_ALPHA + ", " + GLES20.GL_UNSIGNED_BYTE + ", null)", calls.get(10));
+        // y平面上传到纹理单元0，vu平面上传到纹理单元1，各自直接引用预览帧数组中的一段
+        assertEquals("glTexSubImage2D(" + GLES20.GL_TEXTURE_2D + ", 0, 0, 0, 640, 480, " + GLES20.GL_LUMINANCE
+                + ", " + GLES20.GL_UNSIGNED_BYTE + ", buffer[" + WIDTH * HEIGHT + "])", calls.get(27));
+        assertEquals("glTexSubImage2D(" + GLES20.GL_TEXTURE_2D + ", 0, 0, 0, 320, 240, " + GLES20.GL_LUMINANCE_ALPHA
+                + ", " + GLES20.GL_UNSIGNED_BYTE + ", buffer[" + WIDTH * HEIGHT / 2 + "])", calls.get(31));
+        assertEquals("glDrawArrays(" + GLES20.GL_TRIANGLE_STRIP + ", 0, 4)", calls.get(calls.size() - 1));
+        assertEquals(WIDTH * HEIGHT * 3 / 2, mRenderer.getLastUploadBytes());
+    }
+
+    /**
+     * GLStateCache 省去不变的状态后每帧的调用数：冷启动的第一帧34次（含纹理创建，与没有缓存时每帧的调用数相同），
+     * 有新帧上传时4次（切换一次纹理单元、两次上传、绘制），没有新帧的重绘只剩glDrawArrays
+     */
+    @Test
+    public void perFrameCallCounts() {
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        assertEquals(34, drawAndCount(mFrame));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(4, drawAndCount(mFrame));
+            assertEquals(1, drawAndCount(null));
+        }
+        assertEquals(Arrays.asList("glDrawArrays"), methods());
+        drawAndCount(mFrame);
+        assertEquals(2, mGL.count("glTexSubImage2D"));
+        assertEquals(1, mGL.count("glActiveTexture"));
+    }
+
+    /**
+     * 上下文丢失（或其他代码直接改了GL状态）后调用 invalidate()，下一帧重新设置全部状态，之后恢复为4次
+     */
+    @Test
+    public void invalidateReissuesAllState() {
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        drawAndCount(mFrame);
+        drawAndCount(mFrame);
+        mRenderer.getGLState().invalidate();
+        assertEquals(19, drawAndCount(mFrame));
+        assertEquals(Arrays.asList(
+                "glViewport", "glDisable", "glUseProgram", "glUniformMatrix4fv", "glUniformMatrix4fv",
+                "glBindBuffer",
+                "glEnableVertexAttribArray", "glVertexAttribPointer",
+                "glEnableVertexAttribArray", "glVertexAttribPointer",
+                "glActiveTexture", "glBindTexture", "glTexSubImage2D", "glUniform1i",
+                "glActiveTexture", "glBindTexture", "glTexSubImage2D", "glUniform1i",
+                "glDrawArrays"), methods());
+        assertEquals(4, drawAndCount(mFrame));
+
+        // 没有新帧时同样重新设置状态，只是不上传
+        mRenderer.getGLState().invalidate();
+        assertEquals(17, drawAndCount(null));
+        assertEquals(0, mGL.count("glTexSubImage2D"));
+        assertEquals(1, drawAndCount(null));
+    }
+
+    /**
+     * 尺寸变化时 setInputOutputParam() 自行invalidate，并在下一帧重新上传纹理坐标
+     */
+    @Test
+    public void resizeReissuesViewportAndTexCoords() {
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        drawAndCount(mFrame);
+        drawAndCount(mFrame);
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 720, 1280);
+        drawAndCount(mFrame);
+        assertEquals("glViewport(0, 0, 720, 1280)", mGL.getCalls().get(0));
+        assertEquals(1, mGL.count("glBufferSubData"));
+        assertEquals(4, drawAndCount(mFrame));
+    }
+
+    @Test
+    public void sampledLevelChecksErrorsOnceEveryInterval() {
+        mTracer.setLevel(GLTracer.LEVEL_SAMPLED);
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        mGL.clear();
+        for (int frame = 1; frame <= 120; frame++) {
+            mRenderer.draw(IDENTITY, mFrame);
+        }
+        // 第60、120帧在glUseProgram与glDrawArrays之后各检查一次
+        assertEquals(4, mGL.count("glGetError"));
+        assertEquals(0, mTracer.getErrorCount());
+    }
+
+    @Test
+    public void sampledLevelReportsErrors() {
+        mTracer.setLevel(GLTracer.LEVEL_SAMPLED);
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        for (int frame = 1; frame < 60; frame++) {
+            mRenderer.draw(IDENTITY, mFrame);
+        }
+        mGL.setNextError(0x0502); // GL_INVALID_OPERATION
+        mRenderer.draw(IDENTITY, mFrame);
+        assertEquals(1, mTracer.getErrorCount());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void fullLevelThrowsOnError() {
+        mTracer.setLevel(GLTracer.LEVEL_FULL);
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        mGL.setNextError(0x0505); // GL_OUT_OF_MEMORY
+        mRenderer.draw(IDENTITY, mFrame);
+    }
+
+    @Test
+    public void fullLevelCountsCalls() {
+        mTracer.setLevel(GLTracer.LEVEL_FULL);
+        mRenderer.setInputOutputParam(WIDTH, HEIGHT, 1080, 1920);
+        mGL.clear();
+        mRenderer.draw(IDENTITY, mFrame);
+        assertEquals(1, mTracer.getCallCount(GLTracer.CALL_DRAW_ARRAYS));
+        assertEquals(2, mTracer.getCallCount(GLTracer.CALL_TEX_SUB_IMAGE_2D));
+        assertEquals(2, mTracer.getCallCount(GLTracer.CALL_GEN_TEXTURES));
+        // 每次调用后检查一次，另有两次glGenTextures、glUseProgram与glDrawArrays之后的checkError
+        int calls = mGL.getCalls().size() - mGL.count("glGetError");
+        assertEquals(calls + 4, mGL.count("glGetError"));
+    }
+
+    /**
+     * 清空记录后绘制一帧，返回本帧的GL调用数
+     */
+    private int drawAndCount(byte[] data) {
+        mGL.clear();
+        mRenderer.draw(IDENTITY, data);
+        return mGL.getCalls().size();
+    }
+
+    /**
+     * 按顺序记录的方法名，不含参数
+     */
+    private List<String> methods() {
+        List<String> methods = new ArrayList<>();
+        for (String call : mGL.getCalls()) {
+            methods.add(call.substring(0, call.indexOf('(')));
+        }
+        return methods;
+    }
+}
@@ -0,0 +1,82 @@
+package com.yzz.cpucollector.util;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * GLStateCache 对不变状态的省略与 invalidate() 后的重新设置
+ */
+public class GLStateCacheTest {
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1};
+
+    private final RecordingGL mGL = new RecordingGL();
+    private final GLStateCache mState = new GLStateCache(mGL);
+
+    @Test
+    public void skipsUnchangedState() {
+        for (int i = 0; i < 3; i++) {
+            setAll();
+        }
+        // bindTexture2D(0, ..) 在纹理单元未知时还需要一次glActiveTexture
+        assertEquals(9, mGL.getCalls().size());
+        assertEquals(9, mState.getIssuedCount());
+        assertEquals(16, mState.getSkippedCount());
+    }
+
+    /**
+     * 上下文丢失后GL中的状态都已重置，invalidate() 之后每个状态的第一次设置必须调用GL
+     */
+    @Test
+    public void invalidateAfterContextLoss() {
+        setAll();
+        mGL.clear();
+        mState.invalidate();
+        setAll();
+        assertEquals(9, mGL.getCalls().size());
+        mGL.clear();
+        setAll();
+        assertEquals(0, mGL.getCalls().size());
+    }
+
+    @Test
+    public void switchingProgramForgetsUniforms() {
+        mState.useProgram(1);
+        mState.uniform1i(0, 5);
+        mState.useProgram(2);
+        mState.uniform1i(0, 5);
+        assertEquals(2, mGL.count("glUniform1i"));
+    }
+
+    @Test
+    public void bindOnOtherUnitSwitchesOnlyWhenNeeded() {
+        mState.bindTexture2D(0, 10);
+        mState.bindTexture2D(1, 11);
+        mGL.clear();
+        // 两个单元都已绑定，不切换纹理单元
+        mState.bindTexture2D(0, 10);
+        mState.bindTexture2D(1, 11);
+        assertEquals(0, mGL.getCalls().size());
+        assertEquals(GLES20.GL_TEXTURE1, mState.getActiveTexture());
+        mState.bindTexture2D(0, 12);
+        assertEquals(2, mGL.getCalls().size());
+        assertEquals(GLES20.GL_TEXTURE0, mState.getActiveTexture());
+    }
+
+    private void setAll() {
+        mState.viewport(0, 0, 1080, 1920);
+        mState.setCapability(GLES20.GL_CULL_FACE, false);
+        mState.useProgram(3);
+        mState.uniformMatrix4fv(0, IDENTITY);
+        mState.bindArrayBuffer(4);
+        mState.enableVertexAttribArray(0);
+        mState.vertexAttribPointer(0, 2, GLES20.GL_FLOAT, false, 8, 0);
+        mState.bindTexture2D(0, 5);
+    }
+}
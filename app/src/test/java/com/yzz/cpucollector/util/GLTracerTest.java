@@ -0,0 +1,117 @@
+package com.yzz.cpucollector.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * GLTracer 三个级别下的错误检查与调用统计，底层为 RecordingGL
+ */
+public class GLTracerTest {
+    private static final int GL_INVALID_OPERATION = 0x0502;
+
+    private final RecordingGL mGL = new RecordingGL();
+
+    @Test
+    public void offForwardsWithoutChecking() {
+        GLTracer tracer = new GLTracer(mGL, GLTracer.LEVEL_OFF, 1);
+        mGL.setNextError(GL_INVALID_OPERATION);
+        for (int i = 0; i < 3; i++) {
+            tracer.beginFrame();
+            tracer.glDrawArrays(5, 0, 4);
+            tracer.checkError("test", "draw");
+        }
+        assertEquals(3, mGL.count("glDrawArrays"));
+        assertEquals(0, mGL.count("glGetError"));
+        assertEquals(0, tracer.getErrorCount());
+        assertEquals(0, tracer.getCallCount(GLTracer.CALL_DRAW_ARRAYS));
+        assertEquals("", tracer.report());
+    }
+
+    @Test
+    public void sampledChecksOneFrameInN() {
+        GLTracer tracer = new GLTracer(mGL, GLTracer.LEVEL_SAMPLED, 3);
+        for (int frame = 1; frame <= 6; frame++) {
+            tracer.beginFrame();
+            mGL.clear();
+            tracer.glDrawArrays(5, 0, 4);
+            tracer.checkError("test", "draw");
+            // 调用本身之后不检查，只有checkError()在第3、6帧读取错误
+            assertEquals("frame " + frame, frame % 3 == 0 ? 1 : 0, mGL.count("glGetError"));
+        }
+        assertEquals(0, tracer.getCallCount(GLTracer.CALL_DRAW_ARRAYS));
+    }
+
+    @Test
+    public void sampledCountsErrorsWithoutThrowing() {
+        GLTracer tracer = new GLTracer(mGL, GLTracer.LEVEL_SAMPLED, 2);
+        tracer.beginFrame();
+        mGL.setNextError(GL_INVALID_OPERATION);
+        tracer.checkError("test", "draw");
+        // 第1帧不检查，错误留到第2帧才读出
+        assertEquals(0, tracer.getErrorCount());
+        tracer.beginFrame();
+        tracer.checkError("test", "draw");
+        assertEquals(1, tracer.getErrorCount());
+        tracer.checkError("test", "draw");
+        assertEquals(1, tracer.getErrorCount());
+    }
+
+    @Test
+    public void fullChecksAfterEveryCall() {
+        GLTracer tracer = new GLTracer(mGL, GLTracer.LEVEL_FULL, 60);
+        tracer.beginFrame();
+        tracer.glUseProgram(1);
+        tracer.glDrawArrays(5, 0, 4);
+        tracer.glDrawArrays(5, 0, 4);
+        assertEquals(3, mGL.count("glGetError"));
+        assertEquals("glUseProgram(1)", mGL.getCalls().get(0));
+        assertEquals("glGetError()", mGL.getCalls().get(1));
+        assertEquals(1, tracer.getCallCount(GLTracer.CALL_USE_PROGRAM));
+        assertEquals(2, tracer.getCallCount(GLTracer.CALL_DRAW_ARRAYS));
+        String report = tracer.report();
+        assertTrue(report, report.contains("glUseProgram x1"));
+        assertTrue(report, report.contains("glDrawArrays x2"));
+
+        tracer.resetStats();
+        assertEquals(0, tracer.getCallCount(GLTracer.CALL_DRAW_ARRAYS));
+        assertEquals("", tracer.report());
+    }
+
+    @Test
+    public void fullThrowsOnError() {
+        GLTracer tracer = new GLTracer(mGL, GLTracer.LEVEL_FULL, 60);
+        mGL.setNextError(GL_INVALID_OPERATION);
+        try {
+            tracer.glBindTexture(3553, 7);
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("glBindTexture"));
+            assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(GL_INVALID_OPERATION)));
+        }
+        assertEquals(1, tracer.getErrorCount());
+        assertEquals(1, mGL.count("glBindTexture"));
+
+        mGL.setNextError(GL_INVALID_OPERATION);
+        try {
+            tracer.checkError("test", "draw");
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("draw"));
+        }
+        assertEquals(2, tracer.getErrorCount());
+    }
+
+    @Test
+    public void levelCanChangeAtRuntime() {
+        GLTracer tracer = new GLTracer(mGL, GLTracer.LEVEL_OFF, 1);
+        tracer.glDrawArrays(5, 0, 4);
+        tracer.setLevel(GLTracer.LEVEL_FULL);
+        assertEquals(GLTracer.LEVEL_FULL, tracer.getLevel());
+        tracer.glDrawArrays(5, 0, 4);
+        assertEquals(1, tracer.getCallCount(GLTracer.CALL_DRAW_ARRAYS));
+        assertEquals(1, mGL.count("glGetError"));
+    }
+}
@@ -0,0 +1,133 @@
+package com.yzz.cpucollector.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 定点实现与 BDCameraSyncRenderer.FRAGMENT_SHADER_NV212BGR 的浮点公式对比，穷举全部 (Y, U, V) 组合
+ */
+public class Nv21ConverterTest {
+    private static final int TOLERANCE = 1;
+
+    /**
+     * 每帧固定一个V：宽512（256列色度块，U取0~255），高128（64行色度块，每块4个像素的Y依次递增，覆盖0~255）
+     */
+    @Test
+    public void matchesShaderForAllYuv() {
+        int width = 512;
+        int height = 128;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        byte[] bgr = new byte[Nv21Converter.outputSize(width, height, Nv21Converter.FORMAT_BGR)];
+        int maxError = 0;
+        for (int v = 0; v < 256; v++) {
+            fillAllYu(nv21, width, height, v);
+            Nv21Converter.convertRows(nv21, width, height, bgr, Nv21Converter.FORMAT_BGR, 0, height);
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    int y = nv21[row * width + col] & 0xff;
+                    int u = col / 2;
+                    int out = (row * width + col) * 3;
+                    maxError = Math.max(maxError, check(y, u, v, "b", shaderB(y, u), bgr[out] & 0xff));
+                    maxError = Math.max(maxError, check(y, u, v, "g", shaderG(y, u, v), bgr[out + 1] & 0xff));
+                    maxError = Math.max(maxError, check(y, u, v, "r", shaderR(y, v), bgr[out + 2] & 0xff));
+                }
+            }
+        }
+        assertTrue("max error " + maxError, maxError <= TOLERANCE);
+    }
+
+    @Test
+    public void rgbaMatchesBgr() {
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = randomFrame(width, height, 1);
+        byte[] bgr = new byte[Nv21Converter.outputSize(width, height, Nv21Converter.FORMAT_BGR)];
+        byte[] rgba = new byte[Nv21Converter.outputSize(width, height, Nv21Converter.FORMAT_RGBA)];
+        Nv21Converter.convertRows(nv21, width, height, bgr, Nv21Converter.FORMAT_BGR, 0, height);
+        Nv21Converter.convertRows(nv21, width, height, rgba, Nv21Converter.FORMAT_RGBA, 0, height);
+        for (int i = 0; i < width * height; i++) {
+            if (rgba[i * 4] != bgr[i * 3 + 2] || rgba[i * 4 + 1] != bgr[i * 3 + 1]
+                    || rgba[i * 4 + 2] != bgr[i * 3] || rgba[i * 4 + 3] != (byte) 0xff) {
+                fail("pixel " + i);
+            }
+        }
+    }
+
+    /**
+     * 多线程分条转换与单线程结果逐字节相同
+     */
+    @Test
+    public void stripesMatchSingleThread() {
+        int width = 320;
+        int height = 240;
+        byte[] nv21 = randomFrame(width, height, 2);
+        byte[] expected = new byte[Nv21Converter.outputSize(width, height, Nv21Converter.FORMAT_BGR)];
+        byte[] actual = new byte[expected.length];
+        Nv21Converter.convertRows(nv21, width, height, expected, Nv21Converter.FORMAT_BGR, 0, height);
+        Nv21Converter converter = new Nv21Converter(3);
+        try {
+            for (int i = 0; i < 5; i++) {
+                Arrays.fill(actual, (byte) 0);
+                converter.convert(nv21, width, height, actual, Nv21Converter.FORMAT_BGR);
+                assertArrayEquals(expected, actual);
+            }
+        } finally {
+            converter.close();
+        }
+    }
+
+    private static void fillAllYu(byte[] nv21, int width, int height, int v) {
+        int frameSize = width * height;
+        for (int blockRow = 0; blockRow < height / 2; blockRow++) {
+            for (int blockCol = 0; blockCol < width / 2; blockCol++) {
+                int y = blockRow * 4;
+                int top = blockRow * 2 * width + blockCol * 2;
+                nv21[top] = (byte) y;
+                nv21[top + 1] = (byte) (y + 1);
+                nv21[top + width] = (byte) (y + 2);
+                nv21[top + width + 1] = (byte) (y + 3);
+                int uv = frameSize + blockRow * width + blockCol * 2;
+                nv21[uv] = (byte) v;
+                nv21[uv + 1] = (byte) blockCol;
+            }
+        }
+    }
+
+    private static byte[] randomFrame(int width, int height, long seed) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    private static int check(int y, int u, int v, String channel, int expected, int actual) {
+        int error = Math.abs(expected - actual);
+        if (error > TOLERANCE) {
+            fail(channel + " y=" + y + " u=" + u + " v=" + v + " expected " + expected + " but was " + actual);
+        }
+        return error;
+    }
+
+    // 以下与shader相同：纹理采样得到 分量/255，u、v减去0.5，输出钳位到[0,1]后按8位量化
+
+    private static int shaderR(int y, int v) {
+        return unorm(y / 255.0 + 1.13983 * (v / 255.0 - 0.5));
+    }
+
+    private static int shaderG(int y, int u, int v) {
+        return unorm(y / 255.0 - 0.39465 * (u / 255.0 - 0.5) - 0.58060 * (v / 255.0 - 0.5));
+    }
+
+    private static int shaderB(int y, int u) {
+        return unorm(y / 255.0 + 2.03211 * (u / 255.0 - 0.5));
+    }
+
+    private static int unorm(double value) {
+        return (int) Math.round(Math.min(1, Math.max(0, value)) * 255);
+    }
+}
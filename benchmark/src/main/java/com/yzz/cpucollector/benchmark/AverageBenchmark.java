@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.yzz.cpucollector.sampler.FrameTimingRecorder;
+import com.yzz.cpucollector.sampler.SampleRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个样本/每帧的统计开销，每30个样本输出一次结果
+ * legacy* 为已删除的 calculateAVGValue / calculateCameraTime 的原样实现（日志改为只生成字符串），用作对照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AverageBenchmark {
+    private static final int REPORT_INTERVAL = 30;
+    private static final int VALUE_COUNT = 1024; // 2的幂
+    private static final long FRAME_NANOS = 33333333L;
+
+    private final double[] mValues = new double[VALUE_COUNT];
+    private int mIndex;
+    private long mNanos;
+
+    // calculateAVGValue 的状态
+    private int mResultFrameTimes;
+    private double mResultAvgValue;
+    private String mAvgCpuValue;
+
+    // calculateCameraTime 的状态
+    private int mCameraFrameTimes;
+    private double mCameraFrameAvgTime;
+
+    private SampleRingBuffer mHistory;
+    private SampleRingBuffer.Window mWindow;
+    private final SampleRingBuffer.Stats mStats = new SampleRingBuffer.Stats();
+    private FrameTimingRecorder mFrameTiming;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            mValues[i] = random.nextDouble() * 100;
+        }
+        mHistory = new SampleRingBuffer(600, 0.2);
+        mWindow = mHistory.addSampleWindow(REPORT_INTERVAL);
+        mFrameTiming = new FrameTimingRecorder(30);
+    }
+
+    private double nextValue() {
+        return mValues[mIndex++ & (VALUE_COUNT - 1)];
+    }
+
+    @Benchmark
+    public String legacyAvgValue() {
+        double resultTime = nextValue();
+        if (mResultFrameTimes >= REPORT_INTERVAL) {
+            if (mResultFrameTimes == REPORT_INTERVAL) {
+                mResultFrameTimes++;
+            }
+            mAvgCpuValue = String.format("%.2f", mResultAvgValue);
+            mResultFrameTimes = 0;
+            mResultAvgValue = 0;
+            return mAvgCpuValue;
+        }
+        mResultFrameTimes++;
+        double allResultTime = (mResultFrameTimes - 1) * mResultAvgValue;
+        mResultAvgValue = (allResultTime + resultTime) / mResultFrameTimes;
+        return mAvgCpuValue;
+    }
+
+    /**
+     * 现在的实现：样本写入 SampleRingBuffer，窗口统计随写入增量更新，输出时读取
+     */
+    @Benchmark
+    public String ringBufferWindow() {
+        mNanos += FRAME_NANOS;
+        mHistory.add(mNanos, nextValue());
+        if (mIndex % REPORT_INTERVAL == 0) {
+            mWindow.read(mStats);
+            mAvgCpuValue = String.format("%.2f", mStats.mean);
+        }
+        return mAvgCpuValue;
+    }
+
+    @Benchmark
+    public void legacyCameraTime(Blackhole bh) {
+        double detectTime = nextValue();
+        if (mCameraFrameTimes >= REPORT_INTERVAL) {
+            if (mCameraFrameTimes == REPORT_INTERVAL) {
+                bh.consume("相机输入帧率:" + (1000.0f / mCameraFrameAvgTime));
+                mCameraFrameTimes++;
+            }
+            mCameraFrameTimes = 0;
+            mCameraFrameAvgTime = 0;
+            return;
+        }
+        mCameraFrameTimes++;
+        double allTime = (mCameraFrameTimes - 1) * mCameraFrameAvgTime;
+        mCameraFrameAvgTime = (allTime + detectTime) / mCameraFrameTimes;
+    }
+
+    /**
+     * 现在的实现：相机帧与渲染完成各记录一次时间戳，每30帧批量更新直方图与帧率
+     */
+    @Benchmark
+    public void frameTimingRecorder(Blackhole bh) {
+        mNanos += FRAME_NANOS;
+        long frameId = mFrameTiming.onCameraFrame(mNanos);
+        mFrameTiming.onFrameRendered(frameId, mNanos + (long) (nextValue() * 100000));
+        if (mIndex % REPORT_INTERVAL == 0) {
+            mFrameTiming.update();
+            bh.consume(String.format(Locale.CHINA, "%.1f %.1f", mFrameTiming.getCameraFps(),
+                    mFrameTiming.getRenderFps()));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 比较两次JMH结果（-rf json）：用法 CompareBaseline 基线.json 本次.json [阈值]
+ *
+ * 按 基准名 + 参数 对应，比较主指标（耗时或吞吐量）与GC profiler的 gc.alloc.rate.norm（每次操作分配的字节数）。
+ * 主指标变差超过阈值（默认0.10即10%），或每次操作多分配超过阈值且超过 ALLOC_NOISE_BYTES 时记为回归，
+ * 有回归时以状态码1退出
+ */
+public class CompareBaseline {
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+    private static final double ALLOC_NOISE_BYTES = 16;
+
+    private static class Result {
+        String mode;
+        double score;
+        double allocBytes = -1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareBaseline <baseline.json> <current.json> [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        Map<String, Result> baseline = load(args[0]);
+        Map<String, Result> current = load(args[1]);
+
+        int regressions = 0;
+        System.out.println(String.format(Locale.US, "%-60s %14s %14s %8s %12s %12s", "benchmark", "baseline",
+                "current", "change", "alloc(B/op)", "baseline"));
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result now = entry.getValue();
+            Result base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.println(String.format(Locale.US, "%-60s %14s %14.3f %8s %12.1f %12s",
+                        entry.getKey(), "-", now.score, "new", now.allocBytes, "-"));
+                continue;
+            }
+            // 吞吐量越大越好，其余模式（耗时）越小越好
+            double change = now.score / base.score - 1;
+            boolean slower = "thrpt".equals(now.mode) ? change < -threshold : change > threshold;
+            boolean moreAlloc = base.allocBytes >= 0 && now.allocBytes > base.allocBytes * (1 + threshold)
+                    && now.allocBytes - base.allocBytes > ALLOC_NOISE_BYTES;
+            String flag = slower || moreAlloc ? "  REGRESSION" : "";
+            if (slower || moreAlloc) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.US, "%-60s %14.3f %14.3f %+7.1f%% %12.1f %12.1f%s",
+                    entry.getKey(), base.score, now.score, change * 100, now.allocBytes, base.allocBytes, flag));
+        }
+        for (String name : baseline.keySet()) {
+            if (!current.containsKey(name)) {
+                System.out.println(String.format(Locale.US, "%-60s (not run)", name));
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " regression(s) over " + (int) (threshold * 100) + "%");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Result> load(String path) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        Reader reader = new InputStreamReader(new FileInputStream(path), "UTF-8");
+        try {
+            JsonArray runs = new JsonParser().parse(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                // 去掉包名，保留 类名.方法名
+                String benchmark = run.get("benchmark").getAsString();
+                StringBuilder key = new StringBuilder(benchmark.substring(
+                        benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+                JsonObject params = run.getAsJsonObject("params");
+                if (params != null) {
+                    for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+                        key.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                    }
+                }
+                Result result = new Result();
+                result.mode = run.get("mode").getAsString();
+                JsonObject primary = run.getAsJsonObject("primaryMetric");
+                result.score = primary.get("score").getAsDouble();
+                JsonObject secondary = run.getAsJsonObject("secondaryMetrics");
+                if (secondary != null) {
+                    for (Map.Entry<String, JsonElement> metric : secondary.entrySet()) {
+                        // 指标名前有JMH加的前缀符号
+                        if (metric.getKey().endsWith(ALLOC_METRIC)) {
+                            result.allocBytes = metric.getValue().getAsJsonObject().get("score").getAsDouble();
+                        }
+                    }
+                }
+                results.put(key.toString(), result);
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.yzz.cpucollector.sampler.PidStat;
+import com.yzz.cpucollector.sampler.ProcCpuSampler;
+import com.yzz.cpucollector.sampler.ProcFileReader;
+import com.yzz.cpucollector.sampler.ProcUtil;
+import com.yzz.cpucollector.sampler.SchedCpuSampler;
+import com.yzz.cpucollector.sampler.ShellSession;
+import com.yzz.cpucollector.sampler.SystemCpuClock;
+import com.yzz.cpucollector.sampler.SystemTopSampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU占用的解析开销：top输出行截取（getCPUFromTopCMD的解析部分，不含启动top）与 /proc 解析
+ * /proc 基准读取的是当前JVM进程，需在Linux上运行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CpuParseBenchmark {
+    // Android 7上 "top -n 1 -s cpu" 的输出片段，目标进程在最后一行
+    private static final String[] TOP_OUTPUT = {
+            "User 12%, System 5%, IOW 0%, IRQ 0%",
+            "  PID USER     PR  NI CPU% S  #THR     VSS     RSS PCY Name",
+            " 1320 system   12  -8   6% S   112 2466724K 201312K  fg system_server",
+            "  801 media    20   0   3% S    22  187308K  21588K  fg /system/bin/mediaserver",
+            " 5123 u0_a123  10 -10  12% S    45 1534876K 123456K  ta com.yzz.cpucollector",
+    };
+    private static final ShellSession.LineMatcher MATCHER = ShellSession.contains("com.yzz.cpucollector");
+
+    private ProcFileReader mStatReader;
+    private final PidStat mPidStat = new PidStat();
+    private SystemCpuClock mClock;
+    private ProcCpuSampler mSampler;
+    private SchedCpuSampler mSchedSampler;
+    private SystemTopSampler mTopSampler;
+
+    @Setup
+    public void setup() throws IOException {
+        int pid = ProcUtil.selfPid();
+        mStatReader = new ProcFileReader("/proc/" + pid + "/stat", 512);
+        mClock = new SystemCpuClock();
+        mSampler = new ProcCpuSampler(pid, mClock);
+        mSchedSampler = new SchedCpuSampler(pid);
+        mTopSampler = new SystemTopSampler(5, mClock);
+        mTopSampler.sample();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSampler.close();
+        mSchedSampler.close();
+        mTopSampler.close();
+        mClock.close();
+        mStatReader.close();
+    }
+
+    /**
+     * 逐行匹配包名后截取%前的数值，即top方式在拿到输出后的全部解析工作
+     */
+    @Benchmark
+    public double topOutput() {
+        for (String line : TOP_OUTPUT) {
+            if (MATCHER.matches(line)) {
+                return ProcUtil.parseTopCpuPercent(line);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取并解析 /proc/[pid]/stat
+     */
+    @Benchmark
+    public long procPidStat() {
+        mStatReader.read();
+        mPidStat.parse(mStatReader);
+        return mPidStat.cpuTime();
+    }
+
+    /**
+     * 一次完整的 /proc 采样：/proc/stat 总时间 + /proc/[pid]/stat + 计算占用率
+     */
+    @Benchmark
+    public double procCpuSample() {
+        mClock.update();
+        mSampler.sample();
+        return mSampler.getCpuPercent();
+    }
+
+    /**
+     * 命令行agent的单进程采样：累加当前JVM各线程的 schedstat，开销与线程数成正比
+     */
+    @Benchmark
+    public double schedCpuSample() {
+        mSchedSampler.sample(System.nanoTime());
+        return mSchedSampler.getCpuPercent();
+    }
+
+    /**
+     * 全系统top-N的一轮增量采样：读取所有已知进程的stat并选出占用最高的5个，默认每5秒一次的 /proc 遍历摊入其中
+     */
+    @Benchmark
+    public int systemTopSample() {
+        mClock.update();
+        mTopSampler.sample();
+        return mTopSampler.getTopCount();
+    }
+}
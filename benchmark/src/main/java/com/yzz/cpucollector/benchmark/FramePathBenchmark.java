@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.yzz.cpucollector.util.Nv21PlaneCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BDCameraSyncRenderer.update() 中NV21拆分为y、vu平面的开销
+ * 预览帧在 CAMERA_QUEUE_DEPTH + 2 个数组间轮转，与 CameraActivity 的缓冲池一致
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramePathBenchmark {
+    private static final int BUFFER_COUNT = 5;
+
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[][] mFrames;
+    private int mNext;
+    private ByteBuffer mYPlane;
+    private ByteBuffer mVUPlane;
+    private final Nv21PlaneCache mPlaneCache = new Nv21PlaneCache(8);
+
+    @Setup
+    public void setup() {
+        int split = size.indexOf('x');
+        mWidth = Integer.parseInt(size.substring(0, split));
+        mHeight = Integer.parseInt(size.substring(split + 1));
+        Random random = new Random(42);
+        mFrames = new byte[BUFFER_COUNT][mWidth * mHeight * 3 / 2];
+        for (byte[] frame : mFrames) {
+            random.nextBytes(frame);
+        }
+    }
+
+    private byte[] nextFrame() {
+        byte[] frame = mFrames[mNext];
+        mNext = (mNext + 1) % BUFFER_COUNT;
+        return frame;
+    }
+
+    /**
+     * 原实现：每帧把两个平面拷贝到direct buffer
+     */
+    @Benchmark
+    public ByteBuffer planeCopy() {
+        byte[] data = nextFrame();
+        int ySize = mWidth * mHeight;
+        if (mYPlane == null || mYPlane.capacity() != ySize) {
+            mYPlane = ByteBuffer.allocateDirect(ySize);
+        }
+        if (mVUPlane == null || mVUPlane.capacity() != ySize / 2) {
+            mVUPlane = ByteBuffer.allocateDirect(ySize / 2);
+        }
+        mYPlane.put(data, 0, ySize);
+        mVUPlane.put(data, ySize, ySize / 2);
+        mYPlane.position(0);
+        mVUPlane.position(0);
+        return mVUPlane;
+    }
+
+    /**
+     * 现在的实现：按数组缓存指向预览帧本身的平面视图
+     */
+    @Benchmark
+    public ByteBuffer planeView() {
+        mPlaneCache.split(nextFrame(), mWidth, mHeight);
+        mPlaneCache.getYPlane();
+        return mPlaneCache.getVUPlane();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.yzz.cpucollector.sampler.MetricsServer;
+import com.yzz.cpucollector.sampler.MetricsWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地抓取端点一次完整抓取的往返耗时，客户端为复用缓冲区的阻塞SocketChannel。
+ * 指标内容与CPUCollector、CameraActivity输出的规模相当（8个核心）。
+ * gc.alloc.rate.norm 只统计基准线程（客户端）的分配，服务线程的分配需另看 gc.alloc.rate
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsServerBenchmark {
+    private static final int CORE_COUNT = 8;
+    private static final byte[] REQUEST = ascii("GET /metrics HTTP/1.1\r\nHost: localhost\r\n\r\n");
+    private static final byte[] REQUEST_CLOSE =
+            ascii("GET /metrics HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+
+    private final MetricsServer mServer = new MetricsServer();
+    private InetSocketAddress mAddress;
+    private SocketChannel mChannel;
+    private final ByteBuffer mRequest = ByteBuffer.allocateDirect(REQUEST.length);
+    private final ByteBuffer mRequestClose = ByteBuffer.allocateDirect(REQUEST_CLOSE.length);
+    private final ByteBuffer mResponse = ByteBuffer.allocateDirect(64 * 1024);
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        mServer.addSource(new MetricsServer.Source() {
+            @Override
+            public void writeMetrics(MetricsWriter writer) {
+                writer.header("cpucollector_samples_total", MetricsWriter.TYPE_COUNTER, "Samples.");
+                writer.value("cpucollector_samples_total", 123456L);
+                writer.header("cpucollector_cpu_percent", MetricsWriter.TYPE_GAUGE, "CPU.");
+                writer.value("cpucollector_cpu_percent", 12.345678);
+                writer.header("cpucollector_cpu_avg_percent", MetricsWriter.TYPE_GAUGE, "Average CPU.");
+                writer.value("cpucollector_cpu_avg_percent", 11.5);
+                writer.header("cpucollector_memory_rss_bytes", MetricsWriter.TYPE_GAUGE, "RSS.");
+                writer.value("cpucollector_memory_rss_bytes", 201312L * 1024);
+                writer.header("cpucollector_core_busy_percent", MetricsWriter.TYPE_GAUGE, "Core busy.");
+                for (int i = 0; i < CORE_COUNT; i++) {
+                    writer.value("cpucollector_core_busy_percent", "core", i, 10.25 * i);
+                }
+                writer.header("cpucollector_core_frequency_hertz", MetricsWriter.TYPE_GAUGE, "Core frequency.");
+                for (int i = 0; i < CORE_COUNT; i++) {
+                    writer.value("cpucollector_core_frequency_hertz", "core", i, 1804800000.0);
+                }
+                writer.header("camera_render_fps", MetricsWriter.TYPE_GAUGE, "Render FPS.");
+                writer.value("camera_render_fps", 29.97);
+            }
+        });
+        mServer.start(0);
+        mAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), mServer.getPort());
+        mChannel = SocketChannel.open(mAddress);
+        mRequest.put(REQUEST);
+        mRequestClose.put(REQUEST_CLOSE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mChannel.close();
+        mServer.stop();
+    }
+
+    /**
+     * keep-alive连接上的一次抓取，Prometheus默认复用连接
+     */
+    @Benchmark
+    public int scrapeKeepAlive() throws IOException {
+        return roundTrip(mChannel, mRequest);
+    }
+
+    /**
+     * 每次抓取新建连接，包含TCP握手与连接对象的创建
+     */
+    @Benchmark
+    public int scrapeNewConnection() throws IOException {
+        SocketChannel channel = SocketChannel.open(mAddress);
+        try {
+            return roundTrip(channel, mRequestClose);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 发送请求并读完响应（按Content-Length）
+     *
+     * @return 正文长度
+     */
+    private int roundTrip(SocketChannel channel, ByteBuffer request) throws IOException {
+        request.clear();
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+        ByteBuffer response = mResponse;
+        response.clear();
+        int headerEnd = -1;
+        int contentLength = 0;
+        while (headerEnd < 0 || response.position() < headerEnd + contentLength) {
+            if (channel.read(response) < 0) {
+                throw new EOFException();
+            }
+            if (headerEnd < 0) {
+                headerEnd = indexOfHeaderEnd(response);
+                if (headerEnd >= 0) {
+                    contentLength = parseContentLength(response, headerEnd);
+                }
+            }
+        }
+        return contentLength;
+    }
+
+    private static int indexOfHeaderEnd(ByteBuffer buffer) {
+        for (int i = 3; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n' && buffer.get(i - 2) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseContentLength(ByteBuffer buffer, int headerEnd) {
+        byte[] key = CONTENT_LENGTH;
+        outer:
+        for (int i = 0; i <= headerEnd - key.length; i++) {
+            for (int j = 0; j < key.length; j++) {
+                if (buffer.get(i + j) != key[j]) {
+                    continue outer;
+                }
+            }
+            int value = 0;
+            for (int k = i + key.length; buffer.get(k) >= '0' && buffer.get(k) <= '9'; k++) {
+                value = value * 10 + buffer.get(k) - '0';
+            }
+            return value;
+        }
+        throw new IllegalStateException("no Content-Length");
+    }
+}
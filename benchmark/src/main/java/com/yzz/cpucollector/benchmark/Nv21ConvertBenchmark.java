@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.yzz.cpucollector.util.Nv21Converter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nv21Converter 整帧转换耗时，threads为参与转换的线程数（含调用线程）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Nv21ConvertBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"1", "2"})
+    public int threads;
+
+    @Param({"0", "1"}) // Nv21Converter.FORMAT_RGBA / FORMAT_BGR
+    public int format;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mInput;
+    private byte[] mOutput;
+    private Nv21Converter mConverter;
+
+    @Setup
+    public void setup() {
+        int split = size.indexOf('x');
+        mWidth = Integer.parseInt(size.substring(0, split));
+        mHeight = Integer.parseInt(size.substring(split + 1));
+        mInput = new byte[mWidth * mHeight * 3 / 2];
+        new Random(42).nextBytes(mInput);
+        mOutput = new byte[Nv21Converter.outputSize(mWidth, mHeight, format)];
+        mConverter = new Nv21Converter(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mConverter.close();
+    }
+
+    @Benchmark
+    public byte[] convert() {
+        mConverter.convert(mInput, mWidth, mHeight, mOutput, format);
+        return mOutput;
+    }
+}
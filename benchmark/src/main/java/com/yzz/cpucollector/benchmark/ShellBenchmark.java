@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.benchmark;
+
+import com.yzz.cpucollector.sampler.ShellProcess;
+import com.yzz.cpucollector.sampler.ShellSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行一条shell命令的开销：每次启动新的sh进程（CPUCollector.execute()的默认方式）与常驻会话
+ * 需要系统中有sh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ShellBenchmark {
+    private static final String COMMAND = "echo 1";
+    private static final long TIMEOUT_MS = 5000;
+
+    private ShellSession mSession;
+
+    @Setup
+    public void setup() {
+        mSession = new ShellSession();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSession.close();
+    }
+
+    @Benchmark
+    public List<String> spawnProcess() {
+        return ShellProcess.execute(new String[]{COMMAND}, null, TIMEOUT_MS).lines;
+    }
+
+    @Benchmark
+    public List<String> persistentSession() {
+        ShellSession.Command cmd = mSession.submit(COMMAND);
+        return cmd == null ? null : cmd.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应采样周期
+ * 根据采样值的波动决定下一次采样的周期：相邻两次的差值或近期标准差超过阈值时立即切到最短周期，
+ * 信号平稳时周期按倍数指数退避，直到最长周期。
+ *
+ * 另有开销预算：采样本身的耗时（指数平均）占周期的比例不超过预算，即周期不短于 平均耗时 / 预算，
+ * 与最长周期冲突时以预算为准，保证采集对被测应用的影响有上限。
+ *
+ * 非线程安全，应只在采样线程中调用
+ */
+public class AdaptiveSampleRate {
+    public static final double DEFAULT_DELTA_THRESHOLD = 10; // 相邻两次采样的差值阈值（百分点）
+    public static final double DEFAULT_STDDEV_THRESHOLD = 5; // 近期标准差阈值（百分点）
+    public static final double DEFAULT_BACKOFF_FACTOR = 2;
+
+    private static final double VARIANCE_ALPHA = 0.25; // 均值/方差的指数平均系数
+    private static final double COST_ALPHA = 0.2; // 采样耗时的指数平均系数
+
+    private final long mMinPeriodNanos;
+    private final long mMaxPeriodNanos;
+    private final double mOverheadBudget;
+    private double mDeltaThreshold = DEFAULT_DELTA_THRESHOLD;
+    private double mStddevThreshold = DEFAULT_STDDEV_THRESHOLD;
+    private double mBackoffFactor = DEFAULT_BACKOFF_FACTOR;
+
+    private long mPeriodNanos;
+    private boolean mHasValue;
+    private double mLastValue;
+    private double mMean;
+    private double mVariance;
+    private double mCostNanos = -1;
+    private long mBurstCount;
+
+    /**
+     * @param minPeriod      最短周期（波动时使用）
+     * @param maxPeriod      最长周期（平稳时退避的上限）
+     * @param overheadBudget 采样耗时占周期的最大比例，如0.02表示2%；<=0 表示不限制
+     */
+    public AdaptiveSampleRate(long minPeriod, long maxPeriod, TimeUnit unit, double overheadBudget) {
+        mMinPeriodNanos = Math.max(1, unit.toNanos(minPeriod));
+        mMaxPeriodNanos = Math.max(mMinPeriodNanos, unit.toNanos(maxPeriod));
+        mOverheadBudget = overheadBudget;
+        mPeriodNanos = mMinPeriodNanos;
+    }
+
+    /**
+     * 设置触发加速的阈值
+     *
+     * 阈值应大于最短周期下的量化噪声：jiffies精度为10ms，周期为T秒、共N核时，单次采样的分辨率约为 1 / (T × N) 个百分点
+     *
+     * @param deltaThreshold  相邻两次采样的差值阈值（百分点）
+     * @param stddevThreshold 近期标准差阈值（百分点）
+     */
+    public void setThresholds(double deltaThreshold, double stddevThreshold) {
+        mDeltaThreshold = deltaThreshold;
+        mStddevThreshold = stddevThreshold;
+    }
+
+    /**
+     * 设置平稳时每次采样后周期的放大倍数，应大于1
+     */
+    public void setBackoffFactor(double factor) {
+        mBackoffFactor = Math.max(1, factor);
+    }
+
+    /**
+     * 记录一次采样结果，计算下一次采样的周期
+     *
+     * @param value           采样值（百分比）
+     * @param sampleCostNanos 本次采样的耗时，用于开销预算
+     * @return 下一次采样的周期（纳秒）
+     */
+    public long onSample(double value, long sampleCostNanos) {
+        mCostNanos = mCostNanos < 0 ? sampleCostNanos : mCostNanos + COST_ALPHA * (sampleCostNanos - mCostNanos);
+
+        boolean burst = false;
+        if (mHasValue) {
+            burst = Math.abs(value - mLastValue) > mDeltaThreshold;
+            // 指数加权的均值与方差
+            double diff = value - mMean;
+            mMean += VARIANCE_ALPHA * diff;
+            mVariance = (1 - VARIANCE_ALPHA) * (mVariance + VARIANCE_ALPHA * diff * diff);
+            burst |= mVariance > mStddevThreshold * mStddevThreshold;
+        } else {
+            mHasValue = true;
+            mMean = value;
+        }
+        mLastValue = value;
+
+        long period;
+        if (burst) {
+            mBurstCount++;
+            period = mMinPeriodNanos;
+        } else {
+            period = (long) Math.min(mMaxPeriodNanos, mPeriodNanos * mBackoffFactor);
+        }
+        if (mOverheadBudget > 0) {
+            period = Math.max(period, (long) (mCostNanos / mOverheadBudget));
+        }
+        mPeriodNanos = period;
+        return period;
+    }
+
+    /**
+     * 当前的采样周期（纳秒）
+     */
+    public long getPeriodNanos() {
+        return mPeriodNanos;
+    }
+
+    /**
+     * 触发加速的次数
+     */
+    public long getBurstCount() {
+        return mBurstCount;
+    }
+
+    /**
+     * 采样耗时的指数平均（纳秒），尚未采样时返回-1
+     */
+    public double getAverageCostNanos() {
+        return mCostNanos;
+    }
+
+    public long getMinPeriodNanos() {
+        return mMinPeriodNanos;
+    }
+
+    public long getMaxPeriodNanos() {
+        return mMaxPeriodNanos;
+    }
+}
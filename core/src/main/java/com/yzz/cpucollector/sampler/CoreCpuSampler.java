@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+
+/**
+ * 各CPU核心占用率及当前频率采样器
+ * 一次sample()内读取 /proc/stat 的 cpuN 行与每个核心的 /sys/devices/system/cpu/cpuN/cpufreq/scaling_cur_freq，
+ * 用于观察大小核调度和降频。结果保存在基本类型数组中，预热后不再分配内存
+ *
+ * 核心下线时 /proc/stat 中不再出现对应行、cpufreq 也不可读，此时该核心标记为离线；
+ * 重新上线后的第一轮只记录基准值，不计算占用率。cpufreq 读取失败（核心离线，或内核没有cpufreq）后不再每轮打开，
+ * 只在 /proc/stat 显示该核心重新上线时、或每 FREQ_RESCAN_SAMPLES 次采样重新扫描时再试，避免每轮抛出异常。
+ * Android 8.0+ 普通应用读不到 /proc/stat，此时只有频率数据，占用率为 UNAVAILABLE
+ *
+ * sample()只应在采样线程中调用，snapshot()可在任意线程调用
+ */
+public class CoreCpuSampler implements Closeable {
+    public static final double UNAVAILABLE = -1;
+
+    /**
+     * 各核心数据快照，数组由调用方持有并复用
+     */
+    public static class Snapshot {
+        public int coreCount;
+        public boolean[] online = new boolean[0];
+        public double[] busyPercent = new double[0]; // 0~100，离线或不可用时为 UNAVAILABLE
+        public long[] freqKHz = new long[0];         // 当前频率，离线或不可用时为 -1
+        public long sampleNanos;
+
+        void ensureCapacity(int count) {
+            if (online.length < count) {
+                online = new boolean[count];
+                busyPercent = new double[count];
+                freqKHz = new long[count];
+            }
+        }
+
+        /**
+         * 复制另一个快照，只在核心数增加时扩容
+         */
+        public void copyFrom(Snapshot other) {
+            ensureCapacity(other.coreCount);
+            coreCount = other.coreCount;
+            sampleNanos = other.sampleNanos;
+            System.arraycopy(other.online, 0, online, 0, other.coreCount);
+            System.arraycopy(other.busyPercent, 0, busyPercent, 0, other.coreCount);
+            System.arraycopy(other.freqKHz, 0, freqKHz, 0, other.coreCount);
+        }
+    }
+
+    private static final byte[] CPU_PREFIX = {'c', 'p', 'u'};
+    private static final int FREQ_RESCAN_SAMPLES = 10;
+
+    private final int mCoreCount;
+    private final ProcFileReader mStatReader = new ProcFileReader("/proc/stat", 4096);
+    private final ProcFileReader[] mFreqReaders;
+    private final boolean[] mFreqMissing; // cpufreq上一次读取失败，等待重新扫描
+    private int mFreqRescanCountdown = FREQ_RESCAN_SAMPLES;
+    private boolean mUseSystemStat = true;
+
+    // 采样线程的工作数据
+    private final long[] mLastBusy;
+    private final long[] mLastTotal;
+    private final boolean[] mSeen;
+    private final Snapshot mWork = new Snapshot();
+    // 发布给其他线程的数据，受this保护
+    private final Snapshot mPublished = new Snapshot();
+
+    public CoreCpuSampler() {
+        this(possibleCoreCount());
+    }
+
+    public CoreCpuSampler(int coreCount) {
+        mCoreCount = coreCount;
+        mFreqReaders = new ProcFileReader[coreCount];
+        for (int i = 0; i < coreCount; i++) {
+            mFreqReaders[i] = new ProcFileReader("/sys/devices/system/cpu/cpu" + i + "/cpufreq/scaling_cur_freq", 32);
+        }
+        mLastBusy = new long[coreCount];
+        mLastTotal = new long[coreCount];
+        mSeen = new boolean[coreCount];
+        mFreqMissing = new boolean[coreCount];
+        for (int i = 0; i < coreCount; i++) {
+            mLastTotal[i] = -1;
+        }
+        mWork.ensureCapacity(coreCount);
+        mWork.coreCount = coreCount;
+        mPublished.ensureCapacity(coreCount);
+        mPublished.coreCount = coreCount;
+    }
+
+    /**
+     * 采样一次所有核心
+     */
+    public void sample() {
+        Snapshot work = mWork;
+        work.sampleNanos = System.nanoTime();
+        for (int i = 0; i < mCoreCount; i++) {
+            mSeen[i] = false;
+        }
+
+        if (mUseSystemStat && mStatReader.read()) {
+            parseCoreLines();
+        } else if (mUseSystemStat) {
+            mUseSystemStat = false;
+            mStatReader.close();
+        }
+
+        boolean rescan = --mFreqRescanCountdown <= 0;
+        if (rescan) {
+            mFreqRescanCountdown = FREQ_RESCAN_SAMPLES;
+        }
+        for (int i = 0; i < mCoreCount; i++) {
+            // work.online[i] 此时还是上一轮的结果
+            boolean cameOnline = mUseSystemStat && mSeen[i] && !work.online[i];
+            long freq = !mFreqMissing[i] || rescan || cameOnline ? readFreq(i) : -1;
+            work.freqKHz[i] = freq;
+            if (mUseSystemStat) {
+                work.online[i] = mSeen[i];
+            } else {
+                // 没有 /proc/stat 时以cpufreq是否可读判断在线
+                work.online[i] = freq > 0;
+            }
+            if (!mSeen[i]) {
+                work.busyPercent[i] = UNAVAILABLE;
+                mLastTotal[i] = -1;
+            }
+        }
+
+        synchronized (this) {
+            mPublished.sampleNanos = work.sampleNanos;
+            System.arraycopy(work.online, 0, mPublished.online, 0, mCoreCount);
+            System.arraycopy(work.busyPercent, 0, mPublished.busyPercent, 0, mCoreCount);
+            System.arraycopy(work.freqKHz, 0, mPublished.freqKHz, 0, mCoreCount);
+        }
+    }
+
+    private void parseCoreLines() {
+        ProcFileReader reader = mStatReader;
+        reader.position(0);
+        // 第一行是汇总的 "cpu "，从第二行开始逐行匹配 cpuN
+        while (reader.nextLine()) {
+            if (!reader.startsWith(CPU_PREFIX)) {
+                // cpuN 行是连续的，遇到其他行即可结束
+                break;
+            }
+            reader.position(reader.position() + CPU_PREFIX.length);
+            long index = reader.nextLong();
+            if (index < 0 || index >= mCoreCount) {
+                continue;
+            }
+            long total = 0;
+            long idle = 0;
+            for (int field = 0; field < 8; field++) {
+                long value = reader.nextLong();
+                if (value < 0) {
+                    break;
+                }
+                total += value;
+                if (field == 3 || field == 4) {
+                    // idle 与 iowait
+                    idle += value;
+                }
+            }
+            int core = (int) index;
+            long busy = total - idle;
+            mSeen[core] = true;
+            if (mLastTotal[core] >= 0 && total > mLastTotal[core]) {
+                double percent = (busy - mLastBusy[core]) * 100.0 / (total - mLastTotal[core]);
+                mWork.busyPercent[core] = Math.max(0, Math.min(100.0, percent));
+            } else {
+                mWork.busyPercent[core] = UNAVAILABLE;
+            }
+            mLastBusy[core] = busy;
+            mLastTotal[core] = total;
+        }
+    }
+
+    private long readFreq(int core) {
+        ProcFileReader reader = mFreqReaders[core];
+        mFreqMissing[core] = !reader.read();
+        if (mFreqMissing[core]) {
+            return -1;
+        }
+        long freq = reader.nextLong();
+        return freq > 0 ? freq : -1;
+    }
+
+    public int getCoreCount() {
+        return mCoreCount;
+    }
+
+    /**
+     * 把最近一次采样结果复制到out，out的数组容量足够时不分配内存
+     */
+    public synchronized void snapshot(Snapshot out) {
+        out.ensureCapacity(mCoreCount);
+        out.coreCount = mCoreCount;
+        out.sampleNanos = mPublished.sampleNanos;
+        System.arraycopy(mPublished.online, 0, out.online, 0, mCoreCount);
+        System.arraycopy(mPublished.busyPercent, 0, out.busyPercent, 0, mCoreCount);
+        System.arraycopy(mPublished.freqKHz, 0, out.freqKHz, 0, mCoreCount);
+    }
+
+    @Override
+    public void close() {
+        mStatReader.close();
+        for (ProcFileReader reader : mFreqReaders) {
+            reader.close();
+        }
+    }
+
+    /**
+     * 读取 /sys/devices/system/cpu/possible（形如 "0-7"），包含当前离线的核心
+     */
+    public static int possibleCoreCount() {
+        ProcFileReader reader = new ProcFileReader("/sys/devices/system/cpu/possible", 64);
+        try {
+            if (reader.read()) {
+                int max = -1;
+                byte[] buffer = reader.buffer();
+                while (reader.hasRemaining()) {
+                    byte b = buffer[reader.position()];
+                    if (b < '0' || b > '9') {
+                        // 跳过 '-' 与 ','
+                        reader.position(reader.position() + 1);
+                        continue;
+                    }
+                    max = (int) Math.max(max, reader.nextLong());
+                }
+                if (max >= 0) {
+                    return max + 1;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return ProcUtil.cpuCount();
+    }
+}
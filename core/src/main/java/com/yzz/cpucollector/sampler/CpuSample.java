@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.Locale;
+
+/**
+ * 一次采样结果（CPU占用及同一轮采集的内存数据），不可变，可安全地交给其他线程
+ * 内存字段在通过top命令回退采集时不可用，值为 UNAVAILABLE
+ */
+public final class CpuSample {
+    public static final long UNAVAILABLE = -1;
+
+    private final long mSequence;
+    private final long mTimestampNanos;
+    private final double mCpuPercent;
+    private final double mAvgCpuPercent;
+    private final long mRssKb;
+    private final long mPssKb;
+    private final long mMinorFaultsDelta;
+    private final long mMajorFaultsDelta;
+
+    public CpuSample(long sequence, long timestampNanos, double cpuPercent, double avgCpuPercent) {
+        this(sequence, timestampNanos, cpuPercent, avgCpuPercent, UNAVAILABLE, UNAVAILABLE, UNAVAILABLE, UNAVAILABLE);
+    }
+
+    public CpuSample(long sequence, long timestampNanos, double cpuPercent, double avgCpuPercent,
+                     long rssKb, long pssKb, long minorFaultsDelta, long majorFaultsDelta) {
+        mSequence = sequence;
+        mTimestampNanos = timestampNanos;
+        mCpuPercent = cpuPercent;
+        mAvgCpuPercent = avgCpuPercent;
+        mRssKb = rssKb;
+        mPssKb = pssKb;
+        mMinorFaultsDelta = minorFaultsDelta;
+        mMajorFaultsDelta = majorFaultsDelta;
+    }
+
+    /**
+     * 采样序号，从0开始递增
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * 采样时间（System.nanoTime()）
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * CPU占用率，0~100
+     */
+    public double getCpuPercent() {
+        return mCpuPercent;
+    }
+
+    /**
+     * 截至本次采样的平均CPU占用率，0~100
+     */
+    public double getAvgCpuPercent() {
+        return mAvgCpuPercent;
+    }
+
+    /**
+     * 常驻内存（KB）
+     */
+    public long getRssKb() {
+        return mRssKb;
+    }
+
+    /**
+     * PSS（KB），需要 /proc/[pid]/smaps_rollup
+     */
+    public long getPssKb() {
+        return mPssKb;
+    }
+
+    /**
+     * 上一个采样间隔内的次缺页次数
+     */
+    public long getMinorFaultsDelta() {
+        return mMinorFaultsDelta;
+    }
+
+    /**
+     * 上一个采样间隔内的主缺页次数
+     */
+    public long getMajorFaultsDelta() {
+        return mMajorFaultsDelta;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.CHINA, "#%d cpu=%.2f%% avg=%.2f%% rss=%dKB pss=%dKB minflt=%d majflt=%d",
+                mSequence, mCpuPercent, mAvgCpuPercent, mRssKb, mPssKb, mMinorFaultsDelta, mMajorFaultsDelta);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 帧耗时记录器
+ * 相机线程在每个预览帧到达时调用 onCameraFrame()，渲染线程在每次绘制完成后调用 onFrameRendered()，
+ * 两者各自写入一个单生产者的环形缓冲区（只有三次lazySet，无锁、不分配内存）。
+ * 统计线程调用 update() 批量消费两个缓冲区，得到：
+ * 1. 相机帧间隔、渲染帧间隔、相机到渲染的延迟分布（LogLinearHistogram，纳秒）；
+ * 2. 按目标帧率判定的卡顿帧数：渲染帧间隔超过 目标间隔 × JANK_FACTOR 记为一次卡顿；
+ * 3. 丢帧数：相机帧间隔超过目标间隔时按缺少的帧数计入，已采集但被后一帧覆盖、没有渲染的帧也计入；
+ * 4. 最近一秒的相机帧率与渲染帧率。
+ *
+ * update() 之间产生的帧超过缓冲区容量时，多出的部分不参与统计，计入 getOverflowCount()
+ */
+public class FrameTimingRecorder {
+    public static final double JANK_FACTOR = 1.5;
+
+    private static final int RING_CAPACITY = 256; // 2的幂
+    private static final long FPS_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long HISTOGRAM_MAX_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int HISTOGRAM_PRECISION_BITS = 7;
+
+    /**
+     * 单生产者环形缓冲区，保存 (帧号, 时间戳)
+     * 槽位与写指针一样用 lazySet 写入、get 读取：消费线程读到被覆盖后的槽位时，之后读写指针一定能看到
+     * 覆盖前发布的值，从而发现越界，与 SampleRingBuffer.copyLatest() 的校验方式相同
+     */
+    private static final class TimestampRing {
+        final AtomicLongArray mFrameIds = new AtomicLongArray(RING_CAPACITY);
+        final AtomicLongArray mNanos = new AtomicLongArray(RING_CAPACITY);
+        final AtomicLong mWriteIndex = new AtomicLong();
+        long mReadIndex; // 仅消费线程访问
+
+        /**
+         * 只能在生产线程调用
+         */
+        long put(long frameId, long nanos) {
+            long index = mWriteIndex.get();
+            int slot = (int) (index & (RING_CAPACITY - 1));
+            mFrameIds.lazySet(slot, frameId);
+            mNanos.lazySet(slot, nanos);
+            // 有序写：消费线程看到新的写指针时一定能看到槽内数据
+            mWriteIndex.lazySet(index + 1);
+            return index;
+        }
+    }
+
+    /**
+     * 最近一段时间的帧率，仅消费线程访问
+     */
+    private static final class RollingRate {
+        final long[] mNanos = new long[RING_CAPACITY];
+        int mCount;
+        int mHead; // 最新一帧的位置
+
+        void add(long nanos) {
+            mHead = (mHead + 1) & (RING_CAPACITY - 1);
+            mNanos[mHead] = nanos;
+            if (mCount < RING_CAPACITY) {
+                mCount++;
+            }
+        }
+
+        double fps() {
+            long newest = mNanos[mHead];
+            int frames = 0;
+            long oldest = newest;
+            for (int i = 1; i < mCount; i++) {
+                long t = mNanos[(mHead - i) & (RING_CAPACITY - 1)];
+                if (newest - t > FPS_WINDOW_NANOS) {
+                    break;
+                }
+                oldest = t;
+                frames = i;
+            }
+            return frames == 0 ? 0 : frames * 1e9 / (newest - oldest);
+        }
+    }
+
+    private final TimestampRing mCameraRing = new TimestampRing();
+    private final TimestampRing mRenderRing = new TimestampRing();
+    private volatile long mTargetIntervalNanos;
+
+    private final LogLinearHistogram mCameraIntervals =
+            new LogLinearHistogram(HISTOGRAM_MAX_NANOS, HISTOGRAM_PRECISION_BITS);
+    private final LogLinearHistogram mRenderIntervals = mCameraIntervals.newEmpty();
+    private final LogLinearHistogram mLatency = mCameraIntervals.newEmpty();
+
+    // 以下字段受this保护（消费线程状态）
+    private final RollingRate mCameraRate = new RollingRate();
+    private final RollingRate mRenderRate = new RollingRate();
+    private long mLastCameraNanos;
+    private long mLastRenderNanos;
+    private long mLastRenderedFrameId = -1;
+    private long mCameraFrameCount;
+    private long mRenderedFrameCount;
+    private long mJankFrameCount;
+    private long mMissedFrameCount;
+    private long mSkippedFrameCount;
+    private long mOverflowCount;
+
+    /**
+     * @param targetFps 目标帧率，用于判定卡顿和丢帧
+     */
+    public FrameTimingRecorder(double targetFps) {
+        setTargetFps(targetFps);
+    }
+
+    public void setTargetFps(double targetFps) {
+        mTargetIntervalNanos = (long) (1e9 / Math.max(1, targetFps));
+    }
+
+    /**
+     * 记录一个相机帧，只能在相机回调线程中调用
+     *
+     * @param nanos System.nanoTime()
+     * @return 帧号，渲染该帧后传给 onFrameRendered()
+     */
+    public long onCameraFrame(long nanos) {
+        long frameId = mCameraRing.mWriteIndex.get();
+        return mCameraRing.put(frameId, nanos);
+    }
+
+    /**
+     * 记录一次渲染完成，只能在渲染线程中调用
+     *
+     * @param frameId 本次渲染的相机帧号
+     * @param nanos   System.nanoTime()
+     */
+    public void onFrameRendered(long frameId, long nanos) {
+        mRenderRing.put(frameId, nanos);
+    }
+
+    /**
+     * 消费两个缓冲区中的新记录并更新统计，可在任意线程调用
+     */
+    public synchronized void update() {
+        long target = mTargetIntervalNanos;
+        TimestampRing ring = mCameraRing;
+        long end = ring.mWriteIndex.get();
+        for (long i = skipOverflow(ring, end); i < end; i++) {
+            int slot = (int) (i & (RING_CAPACITY - 1));
+            long nanos = ring.mNanos.get(slot);
+            if (ring.mWriteIndex.get() - i >= RING_CAPACITY) {
+                // 读取过程中已被生产线程覆盖
+                mOverflowCount++;
+                continue;
+            }
+            mCameraFrameCount++;
+            if (mLastCameraNanos > 0) {
+                long interval = nanos - mLastCameraNanos;
+                mCameraIntervals.record(interval);
+                long missed = Math.round((double) interval / target) - 1;
+                if (missed > 0) {
+                    mMissedFrameCount += missed;
+                }
+            }
+            mLastCameraNanos = nanos;
+            mCameraRate.add(nanos);
+        }
+        ring.mReadIndex = end;
+
+        ring = mRenderRing;
+        end = ring.mWriteIndex.get();
+        for (long i = skipOverflow(ring, end); i < end; i++) {
+            int slot = (int) (i & (RING_CAPACITY - 1));
+            long frameId = ring.mFrameIds.get(slot);
+            long nanos = ring.mNanos.get(slot);
+            if (ring.mWriteIndex.get() - i >= RING_CAPACITY) {
+                mOverflowCount++;
+                continue;
+            }
+            onRendered(frameId, nanos, target);
+        }
+        ring.mReadIndex = end;
+    }
+
+    private void onRendered(long frameId, long nanos, long target) {
+        if (frameId == mLastRenderedFrameId) {
+            // 没有新的相机帧时的重绘，不计入渲染帧
+            return;
+        }
+        mRenderedFrameCount++;
+        if (mLastRenderedFrameId >= 0 && frameId > mLastRenderedFrameId + 1) {
+            mSkippedFrameCount += frameId - mLastRenderedFrameId - 1;
+        }
+        mLastRenderedFrameId = frameId;
+        if (mLastRenderNanos > 0) {
+            long interval = nanos - mLastRenderNanos;
+            mRenderIntervals.record(interval);
+            if (interval > target * JANK_FACTOR) {
+                mJankFrameCount++;
+            }
+        }
+        mLastRenderNanos = nanos;
+        mRenderRate.add(nanos);
+
+        // 相机帧号即其在相机缓冲区中的写入序号，可直接定位；确认读取后该槽位没有被覆盖
+        int slot = (int) (frameId & (RING_CAPACITY - 1));
+        long cameraNanos = mCameraRing.mNanos.get(slot);
+        long cameraFrameId = mCameraRing.mFrameIds.get(slot);
+        if (cameraFrameId == frameId && mCameraRing.mWriteIndex.get() - frameId < RING_CAPACITY) {
+            mLatency.record(nanos - cameraNanos);
+        }
+    }
+
+    /**
+     * 跳过已被覆盖的记录
+     */
+    private long skipOverflow(TimestampRing ring, long end) {
+        long start = ring.mReadIndex;
+        if (end - start > RING_CAPACITY) {
+            mOverflowCount += end - start - RING_CAPACITY;
+            start = end - RING_CAPACITY;
+        }
+        return start;
+    }
+
+    /**
+     * 相机帧间隔分布（纳秒），可用 copyIntoAndReset() 按时间段统计
+     */
+    public LogLinearHistogram getCameraIntervals() {
+        return mCameraIntervals;
+    }
+
+    /**
+     * 渲染帧间隔分布（纳秒）
+     */
+    public LogLinearHistogram getRenderIntervals() {
+        return mRenderIntervals;
+    }
+
+    /**
+     * 相机帧到达至渲染完成的延迟分布（纳秒）
+     */
+    public LogLinearHistogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * 截至上一次update()，最近一秒的相机帧率
+     */
+    public synchronized double getCameraFps() {
+        return mCameraRate.fps();
+    }
+
+    /**
+     * 截至上一次update()，最近一秒的渲染帧率
+     */
+    public synchronized double getRenderFps() {
+        return mRenderRate.fps();
+    }
+
+    public synchronized long getCameraFrameCount() {
+        return mCameraFrameCount;
+    }
+
+    public synchronized long getRenderedFrameCount() {
+        return mRenderedFrameCount;
+    }
+
+    /**
+     * 渲染帧间隔超过 目标间隔 × JANK_FACTOR 的次数
+     */
+    public synchronized long getJankFrameCount() {
+        return mJankFrameCount;
+    }
+
+    /**
+     * 丢帧数 = 按目标帧率相机缺少的帧 + 已采集但没有渲染的帧
+     */
+    public synchronized long getDroppedFrameCount() {
+        return mMissedFrameCount + mSkippedFrameCount;
+    }
+
+    /**
+     * 按目标帧率相机缺少的帧数
+     */
+    public synchronized long getMissedFrameCount() {
+        return mMissedFrameCount;
+    }
+
+    /**
+     * 已采集但被后一帧覆盖、没有渲染的帧数
+     */
+    public synchronized long getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
+
+    /**
+     * 两次update()之间超出缓冲区容量而未统计的记录数
+     */
+    public synchronized long getOverflowCount() {
+        return mOverflowCount;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.Locale;
+
+/**
+ * 对数-线性分桶直方图（HdrHistogram的简化实现），用于帧间隔、CPU占用等数据的分位数统计
+ *
+ * 数值按2的幂分段，每段再线性分为 2^(precisionBits-1) 个桶，小于 2^precisionBits 的数值每个值一个桶。
+ * 因此任意数值的相对误差不超过 1 / 2^(precisionBits-1)，例如precisionBits为7时不超过1.6%。
+ * 桶数组在构造时一次分配，记录只做一次位运算和计数，不分配内存；max/min单独记录，是精确值。
+ *
+ * 只支持非负整数，小数需先按固定倍数放大（如CPU占用按0.01%记录）。超过最大可记录值的数值计入最后一个桶。
+ * 所有方法都加锁，可在多个线程中记录和查询
+ */
+public class LogLinearHistogram {
+    private final long mHighestTrackableValue;
+    private final int mPrecisionBits;
+    private final int mSubBucketHalfCount;
+    private final long[] mCounts;
+
+    // identityHashCode相同的两个直方图同时加锁前先获取，保证这种情况下同一时刻只有一个线程按不确定的顺序加锁
+    private static final Object TIE_LOCK = new Object();
+
+    // 以下字段受this保护
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * @param highestTrackableValue 最大可记录值
+     * @param precisionBits         精度位数，1~20，决定相对误差与内存占用
+     */
+    public LogLinearHistogram(long highestTrackableValue, int precisionBits) {
+        if (highestTrackableValue < 1 || precisionBits < 1 || precisionBits > 20) {
+            throw new IllegalArgumentException("highestTrackableValue=" + highestTrackableValue
+                    + " precisionBits=" + precisionBits);
+        }
+        mHighestTrackableValue = highestTrackableValue;
+        mPrecisionBits = precisionBits;
+        mSubBucketHalfCount = 1 << (precisionBits - 1);
+        mCounts = new long[indexOf(highestTrackableValue) + 1];
+    }
+
+    /**
+     * 以相同的参数创建一个空直方图，可用作 copyInto() 的目标
+     */
+    public LogLinearHistogram newEmpty() {
+        return new LogLinearHistogram(mHighestTrackableValue, mPrecisionBits);
+    }
+
+    private int indexOf(long value) {
+        // 线性区间：[0, 2^precisionBits)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (mPrecisionBits - 1);
+        if (shift <= 0) {
+            return (int) value;
+        }
+        // 对数区间：value >>> shift 落在 [2^(p-1), 2^p)
+        return shift * mSubBucketHalfCount + (int) (value >>> shift);
+    }
+
+    /**
+     * 第index个桶能表示的最大值
+     */
+    private long highestValueAt(int index) {
+        if (index < 2 * mSubBucketHalfCount) {
+            return index;
+        }
+        int shift = index / mSubBucketHalfCount - 1;
+        long sub = index - shift * mSubBucketHalfCount;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * 记录count次value，负数按0记录
+     */
+    public synchronized void record(long value, long count) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = value > mHighestTrackableValue ? mCounts.length - 1 : indexOf(value);
+        mCounts[index] += count;
+        mTotalCount += count;
+        mSum += value * count;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * 精确的最大值，没有数据时返回0
+     */
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /**
+     * 精确的最小值，没有数据时返回0
+     */
+    public synchronized long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    /**
+     * 精确的平均值，没有数据时返回0
+     */
+    public synchronized double getMean() {
+        return mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+    }
+
+    /**
+     * 分位数对应的数值（所在桶的上界，不超过最大值）
+     *
+     * @param percentile 0~100
+     * @return 没有数据时返回0
+     */
+    public synchronized long valueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        double p = Math.min(100, Math.max(0, percentile));
+        long target = Math.max(1, (long) Math.ceil(p / 100 * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.max(mMin, Math.min(mMax, highestValueAt(i)));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * 合并另一个直方图的数据，两者的参数必须相同
+     */
+    public void add(LogLinearHistogram other) {
+        if (other == this) {
+            throw new IllegalArgumentException("cannot add a histogram to itself");
+        }
+        checkCompatible(other);
+        if (System.identityHashCode(this) == System.identityHashCode(other)) {
+            synchronized (TIE_LOCK) {
+                addOrdered(other);
+            }
+        } else {
+            addOrdered(other);
+        }
+    }
+
+    private void addOrdered(LogLinearHistogram other) {
+        LogLinearHistogram first = lockFirst(this, other);
+        LogLinearHistogram second = first == this ? other : this;
+        synchronized (first) {
+            synchronized (second) {
+                for (int i = 0; i < mCounts.length; i++) {
+                    mCounts[i] += other.mCounts[i];
+                }
+                if (other.mTotalCount > 0) {
+                    mTotalCount += other.mTotalCount;
+                    mSum += other.mSum;
+                    mMin = Math.min(mMin, other.mMin);
+                    mMax = Math.max(mMax, other.mMax);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把当前数据复制到target（覆盖其原有数据），用于得到不再变化的快照
+     */
+    public void copyInto(LogLinearHistogram target) {
+        copyInto(target, false);
+    }
+
+    /**
+     * 把当前数据复制到target后清空自身，两步在同一把锁内完成，用于按时间段统计
+     */
+    public void copyIntoAndReset(LogLinearHistogram target) {
+        copyInto(target, true);
+    }
+
+    private void copyInto(LogLinearHistogram target, boolean reset) {
+        if (target == this) {
+            throw new IllegalArgumentException("cannot copy a histogram into itself");
+        }
+        checkCompatible(target);
+        if (System.identityHashCode(this) == System.identityHashCode(target)) {
+            synchronized (TIE_LOCK) {
+                copyOrdered(target, reset);
+            }
+        } else {
+            copyOrdered(target, reset);
+        }
+    }
+
+    private void copyOrdered(LogLinearHistogram target, boolean reset) {
+        LogLinearHistogram first = lockFirst(this, target);
+        LogLinearHistogram second = first == this ? target : this;
+        synchronized (first) {
+            synchronized (second) {
+                System.arraycopy(mCounts, 0, target.mCounts, 0, mCounts.length);
+                target.mTotalCount = mTotalCount;
+                target.mSum = mSum;
+                target.mMin = mMin;
+                target.mMax = mMax;
+                if (reset) {
+                    resetLocked();
+                }
+            }
+        }
+    }
+
+    /**
+     * 两个直方图同时加锁时先锁的一个，按固定顺序加锁避免两个线程互相合并/复制时死锁。
+     * identityHashCode可能相同，此时两个线程算出的顺序相反，调用方须先持有TIE_LOCK
+     */
+    private static LogLinearHistogram lockFirst(LogLinearHistogram a, LogLinearHistogram b) {
+        return System.identityHashCode(a) <= System.identityHashCode(b) ? a : b;
+    }
+
+    public synchronized void reset() {
+        resetLocked();
+    }
+
+    private void resetLocked() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    private void checkCompatible(LogLinearHistogram other) {
+        if (other.mPrecisionBits != mPrecisionBits || other.mHighestTrackableValue != mHighestTrackableValue) {
+            throw new IllegalArgumentException("histogram layout mismatch");
+        }
+    }
+
+    /**
+     * 格式化为 "n=数量 p50=.. p90=.. p99=.. max=.."，数值除以scale后输出，用于日志
+     */
+    public synchronized String toString(double scale) {
+        return String.format(Locale.CHINA, "n=%d p50=%.2f p90=%.2f p99=%.2f max=%.2f", mTotalCount,
+                valueAtPercentile(50) / scale, valueAtPercentile(90) / scale, valueAtPercentile(99) / scale,
+                mMax / scale);
+    }
+
+    @Override
+    public String toString() {
+        return toString(1);
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * 本地Prometheus抓取端点：单线程NIO Selector实现的极简HTTP/1.1服务器，只监听回环地址，
+ * 在 /metrics 上以文本格式输出各 {@link Source} 提供的指标。
+ * 手机上通过 adb forward tcp:9100 tcp:9100 转发后，即可在电脑上用Prometheus或curl抓取。
+ *
+ * 每次抓取时同步调用各Source，渲染到同一块复用的直接内存缓冲区：正文从预留的头部区之后开始写，
+ * 写完后把带 Content-Length 的响应头紧贴在正文前面，一次write发出，不拼接字符串、不拷贝正文。
+ * 缓冲区写满时翻倍重新渲染；socket一次写不完时才把剩余部分拷到该连接自己的缓冲区里。
+ * 支持keep-alive与 Connection: close；只接受GET和HEAD，其它路径返回404，其它方法返回405，
+ * Source抛出RuntimeException时该请求返回500，连接和服务不受影响
+ */
+public class MetricsServer implements Closeable {
+    private static final String TAG = "MetricsServer";
+
+    public static final String PATH = "/metrics";
+    public static final int DEFAULT_PORT = 9100;
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int HEADER_RESERVE = 192;
+    private static final int INITIAL_RESPONSE_CAPACITY = 16 * 1024;
+    private static final byte[] METHOD_GET = ascii("GET ");
+    private static final byte[] METHOD_HEAD = ascii("HEAD ");
+    private static final byte[] PATH_METRICS = ascii(PATH);
+    private static final byte[] CONNECTION_CLOSE = ascii("connection: close");
+    private static final byte[] HTTP_1_0 = ascii("http/1.0");
+
+    /**
+     * 指标提供者，在服务线程中调用，实现需自行保证线程安全，并尽快返回
+     */
+    public interface Source {
+        void writeMetrics(MetricsWriter writer);
+    }
+
+    /**
+     * 单个客户端连接的状态
+     */
+    private static final class Connection {
+        final ByteBuffer request = ByteBuffer.allocate(1024); // 写模式，累积尚未处理的请求字节
+        ByteBuffer pending; // 读模式，尚未发出的响应
+        boolean closeAfterWrite;
+    }
+
+    private final Object mLock = new Object();
+    private final MetricsWriter mWriter = new MetricsWriter();
+    private final byte[] mHeader = new byte[HEADER_RESERVE];
+    private final byte[] mDigits = new byte[20];
+    private volatile Source[] mSources = new Source[0];
+
+    private ByteBuffer mResponse = ByteBuffer.allocateDirect(INITIAL_RESPONSE_CAPACITY);
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private int mPort = -1;
+
+    private volatile long mScrapeCount;
+    private volatile long mLastRenderNanos;
+    private volatile long mConnectionCount;
+    private volatile long mErrorCount;
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    public void addSource(Source source) {
+        synchronized (mLock) {
+            Source[] sources = new Source[mSources.length + 1];
+            System.arraycopy(mSources, 0, sources, 0, mSources.length);
+            sources[mSources.length] = source;
+            mSources = sources;
+        }
+    }
+
+    public void removeSource(Source source) {
+        synchronized (mLock) {
+            Source[] old = mSources;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == source) {
+                    Source[] sources = new Source[old.length - 1];
+                    System.arraycopy(old, 0, sources, 0, i);
+                    System.arraycopy(old, i + 1, sources, i, old.length - i - 1);
+                    mSources = sources;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 在回环地址上监听并启动服务线程，已在运行时直接返回
+     *
+     * @param port 端口，传0时由系统分配，可通过 {@link #getPort()} 取得
+     */
+    public void start(int port) throws IOException {
+        synchronized (mLock) {
+            if (mRunning) {
+                return;
+            }
+            Selector selector = Selector.open();
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            try {
+                serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                serverChannel.close();
+                selector.close();
+                throw e;
+            }
+            mSelector = selector;
+            mServerChannel = serverChannel;
+            mPort = serverChannel.socket().getLocalPort();
+            mRunning = true;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, TAG);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    /**
+     * 停止服务并关闭所有连接，等待服务线程退出
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            mSelector.wakeup();
+            thread = mThread;
+            mThread = null;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 实际监听的端口，未启动时返回 -1
+     */
+    public int getPort() {
+        return mPort;
+    }
+
+    /**
+     * 成功渲染的 /metrics 响应数
+     */
+    public long getScrapeCount() {
+        return mScrapeCount;
+    }
+
+    /**
+     * 最近一次渲染（调用全部Source并生成响应）耗时，纳秒
+     */
+    public long getLastRenderNanos() {
+        return mLastRenderNanos;
+    }
+
+    /**
+     * 累计接受的连接数
+     */
+    public long getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    /**
+     * 因Source抛出异常而返回500的次数
+     */
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+
+    private void loop() {
+        Selector selector = mSelector;
+        try {
+            while (mRunning) {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(selector);
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            onWritable(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            onReadable(key);
+                        }
+                    } catch (IOException e) {
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Selector出错，停止服务，isRunning()变为false
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+            mPort = -1;
+            mRunning = false;
+        }
+    }
+
+    /**
+     * 接受连接失败（如文件描述符耗尽）只影响这一个连接，不关闭监听socket
+     */
+    private void accept(Selector selector) {
+        SocketChannel channel = null;
+        try {
+            channel = mServerChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+            mConnectionCount++;
+        } catch (IOException e) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void onReadable(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        int read = channel.read(connection.request);
+        if (read < 0) {
+            closeConnection(key);
+            return;
+        }
+        handleRequests(key, connection);
+    }
+
+    private void onWritable(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        channel.write(connection.pending);
+        if (connection.pending.hasRemaining()) {
+            return;
+        }
+        connection.pending.clear().limit(0);
+        if (connection.closeAfterWrite) {
+            closeConnection(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        // 等待期间可能已经收到流水线化的后续请求
+        handleRequests(key, connection);
+    }
+
+    /**
+     * 依次处理缓冲区中完整的请求，直到请求不完整或响应没能一次写完
+     */
+    private void handleRequests(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer request = connection.request;
+        while (key.isValid() && (connection.pending == null || !connection.pending.hasRemaining())) {
+            int end = indexOfHeaderEnd(request);
+            if (end < 0) {
+                if (!request.hasRemaining()) {
+                    // 缓冲区满了仍没有完整的请求头
+                    respond(key, connection, 431, "Request Header Fields Too Large", false, true);
+                }
+                return;
+            }
+            respondTo(key, connection, request, end);
+            // 丢弃已处理的请求
+            request.flip();
+            request.position(end);
+            request.compact();
+        }
+    }
+
+    /**
+     * @return 请求头结束位置（空行之后），请求头不完整时返回 -1
+     */
+    private static int indexOfHeaderEnd(ByteBuffer request) {
+        int limit = request.position();
+        for (int i = 3; i < limit; i++) {
+            if (request.get(i) == '\n' && request.get(i - 1) == '\r'
+                    && request.get(i - 2) == '\n' && request.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void respondTo(SelectionKey key, Connection connection, ByteBuffer request, int end)
+            throws IOException {
+        boolean head = startsWith(request, 0, METHOD_HEAD);
+        int pathStart;
+        if (head) {
+            pathStart = METHOD_HEAD.length;
+        } else if (startsWith(request, 0, METHOD_GET)) {
+            pathStart = METHOD_GET.length;
+        } else {
+            respond(key, connection, 405, "Method Not Allowed", false, true);
+            return;
+        }
+        int lineEnd = indexOf(request, (byte) '\r', 0, end);
+        boolean close = indexOfIgnoreCase(request, CONNECTION_CLOSE, lineEnd, end) >= 0
+                || indexOfIgnoreCase(request, HTTP_1_0, pathStart, lineEnd) >= 0;
+        // 路径后面只能是空格或查询串
+        int pathEnd = pathStart + PATH_METRICS.length;
+        if (!startsWith(request, pathStart, PATH_METRICS)
+                || pathEnd >= lineEnd
+                || (request.get(pathEnd) != ' ' && request.get(pathEnd) != '?')) {
+            respond(key, connection, 404, "Not Found", head, close);
+            return;
+        }
+        respond(key, connection, 200, "OK", head, close);
+    }
+
+    /**
+     * 渲染并发送响应：200时正文为指标，其它状态码正文为状态描述
+     */
+    private void respond(SelectionKey key, Connection connection, int status, String reason,
+                         boolean head, boolean close) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer response;
+        try {
+            response = render(status, reason);
+        } catch (RuntimeException e) {
+            mErrorCount++;
+            status = 500;
+            reason = "Internal Server Error";
+            response = render(status, reason);
+        }
+        int bodyLength = response.position() - HEADER_RESERVE;
+        int headerLength = writeHeader(status, reason, bodyLength, close);
+        response.limit(head ? HEADER_RESERVE : HEADER_RESERVE + bodyLength);
+        response.position(HEADER_RESERVE - headerLength);
+        response.put(mHeader, 0, headerLength);
+        response.position(HEADER_RESERVE - headerLength);
+        if (status == 200) {
+            mLastRenderNanos = System.nanoTime() - start;
+            mScrapeCount++;
+        }
+
+        SocketChannel channel = (SocketChannel) key.channel();
+        channel.write(response);
+        connection.closeAfterWrite = close;
+        if (response.hasRemaining()) {
+            // 只有客户端接收慢时才会走到这里
+            ByteBuffer pending = connection.pending;
+            if (pending == null || pending.capacity() < response.remaining()) {
+                pending = ByteBuffer.allocate(response.remaining());
+                connection.pending = pending;
+            }
+            pending.clear();
+            pending.put(response);
+            pending.flip();
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        if (close) {
+            closeConnection(key);
+        }
+    }
+
+    /**
+     * 把正文写到 HEADER_RESERVE 之后，缓冲区不够时翻倍重来
+     *
+     * @return 正文写完后的缓冲区，position为正文末尾
+     */
+    private ByteBuffer render(int status, String reason) {
+        while (true) {
+            ByteBuffer response = mResponse;
+            response.clear();
+            response.position(HEADER_RESERVE);
+            mWriter.reset(response);
+            try {
+                if (status == 200) {
+                    Source[] sources = mSources;
+                    for (Source source : sources) {
+                        source.writeMetrics(mWriter);
+                    }
+                } else {
+                    response.put(ascii(reason)).put((byte) '\n');
+                }
+                return response;
+            } catch (BufferOverflowException e) {
+                mResponse = ByteBuffer.allocateDirect(response.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * 把响应头写入 mHeader
+     *
+     * @return 响应头长度
+     */
+    private int writeHeader(int status, String reason, int contentLength, boolean close) {
+        int length = put(0, "HTTP/1.1 ");
+        length = putNumber(length, status);
+        length = put(length, " ");
+        length = put(length, reason);
+        length = put(length, "\r\nContent-Type: ");
+        length = put(length, CONTENT_TYPE);
+        length = put(length, "\r\nContent-Length: ");
+        length = putNumber(length, contentLength);
+        if (close) {
+            length = put(length, "\r\nConnection: close");
+        }
+        return put(length, "\r\n\r\n");
+    }
+
+    private int put(int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            mHeader[offset++] = (byte) text.charAt(i);
+        }
+        return offset;
+    }
+
+    private int putNumber(int offset, int value) {
+        int count = 0;
+        do {
+            mDigits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (count > 0) {
+            mHeader[offset++] = mDigits[--count];
+        }
+        return offset;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, byte[] prefix) {
+        if (offset + prefix.length > buffer.position()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @param lowerCase 小写的ASCII模式串
+     */
+    private static int indexOfIgnoreCase(ByteBuffer buffer, byte[] lowerCase, int from, int to) {
+        outer:
+        for (int i = from; i <= to - lowerCase.length; i++) {
+            for (int j = 0; j < lowerCase.length; j++) {
+                int c = buffer.get(i + j);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != lowerCase[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void closeConnection(SelectionKey key) {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
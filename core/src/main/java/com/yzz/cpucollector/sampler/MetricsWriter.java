@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Prometheus文本格式（text/plain; version=0.0.4）的输出器，直接把ASCII字节写入ByteBuffer
+ * 数字按字节逐位写出，不经过String，渲染过程不分配内存。
+ * 指标名、标签名、HELP文本须为ASCII；缓冲区写满时抛出 BufferOverflowException，由调用方换更大的缓冲区重新渲染。
+ * 只能在一个线程中使用
+ */
+public class MetricsWriter {
+    public static final String TYPE_GAUGE = "gauge";
+    public static final String TYPE_COUNTER = "counter";
+
+    private static final int FRACTION_DIGITS = 6;
+    private static final long FRACTION_SCALE = 1000000;
+    private static final double MAX_FIXED = 1e12; // 超过时用Double.toString，定点乘法会溢出
+
+    private final byte[] mDigits = new byte[20];
+    private ByteBuffer mBuffer;
+
+    void reset(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * 写出一个指标的 # HELP 与 # TYPE 行，每个指标名只应写一次，且在其所有样本之前
+     */
+    public void header(String name, String type, String help) {
+        ascii("# HELP ").ascii(name).put(' ').ascii(help).put('\n');
+        ascii("# TYPE ").ascii(name).put(' ').ascii(type).put('\n');
+    }
+
+    public void value(String name, double value) {
+        ascii(name).put(' ');
+        number(value);
+        put('\n');
+    }
+
+    public void value(String name, long value) {
+        ascii(name).put(' ');
+        number(value);
+        put('\n');
+    }
+
+    /**
+     * 带一个标签的样本，标签值为字符串，不做转义，调用方保证不含引号、反斜杠和换行
+     */
+    public void value(String name, String label, String labelValue, double value) {
+        ascii(name).put('{').ascii(label).ascii("=\"").ascii(labelValue).ascii("\"} ");
+        number(value);
+        put('\n');
+    }
+
+    /**
+     * 带一个整数标签的样本，如 core="0"
+     */
+    public void value(String name, String label, int labelValue, double value) {
+        ascii(name).put('{').ascii(label).ascii("=\"");
+        number(labelValue);
+        ascii("\"} ");
+        number(value);
+        put('\n');
+    }
+
+    private MetricsWriter put(char c) {
+        mBuffer.put((byte) c);
+        return this;
+    }
+
+    private MetricsWriter ascii(String text) {
+        ByteBuffer buffer = mBuffer;
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+        return this;
+    }
+
+    private void number(long value) {
+        if (value < 0) {
+            put('-');
+            if (value == Long.MIN_VALUE) {
+                ascii("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        int count = 0;
+        do {
+            mDigits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (count > 0) {
+            mBuffer.put(mDigits[--count]);
+        }
+    }
+
+    /**
+     * 整数值原样写出，其余保留6位小数并去掉末尾的0
+     */
+    private void number(double value) {
+        if (Double.isNaN(value)) {
+            ascii("NaN");
+            return;
+        }
+        if (Double.isInfinite(value)) {
+            ascii(value > 0 ? "+Inf" : "-Inf");
+            return;
+        }
+        if (Math.abs(value) >= MAX_FIXED) {
+            ascii(Double.toString(value));
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * FRACTION_SCALE);
+        if (value < 0 && scaled != 0) {
+            put('-');
+        }
+        number(scaled / FRACTION_SCALE);
+        long fraction = scaled % FRACTION_SCALE;
+        if (fraction == 0) {
+            return;
+        }
+        int digits = FRACTION_DIGITS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        put('.');
+        // 补足小数点后的前导0
+        for (long s = pow10(digits - 1); s > fraction; s /= 10) {
+            put('0');
+        }
+        number(fraction);
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+}
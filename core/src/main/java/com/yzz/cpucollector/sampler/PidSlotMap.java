@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+/**
+ * pid到槽位号的开放寻址哈希表，键和值都是int，查找、插入、删除不分配内存（扩容除外）
+ * 线性探测，删除时把后面同一探测链上的项前移，不留墓碑，表不会因频繁的进程创建退出而退化。
+ * pid必须大于0（0用作空位标记）。非线程安全
+ */
+final class PidSlotMap {
+    private static final int EMPTY = 0;
+    static final int NOT_FOUND = -1;
+
+    private int[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize;
+
+    /**
+     * @param expected 预计的元素数
+     */
+    PidSlotMap(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    private int indexFor(int pid) {
+        // 连续的pid经乘法散列后分散到表中
+        return (pid * 0x9E3779B9) >>> 16 & mMask;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return pid对应的槽位号，不存在时返回 NOT_FOUND
+     */
+    int get(int pid) {
+        int index = indexFor(pid);
+        while (true) {
+            int key = mKeys[index];
+            if (key == pid) {
+                return mValues[index];
+            }
+            if (key == EMPTY) {
+                return NOT_FOUND;
+            }
+            index = (index + 1) & mMask;
+        }
+    }
+
+    /**
+     * 插入或覆盖
+     */
+    void put(int pid, int slot) {
+        if (pid <= 0) {
+            throw new IllegalArgumentException("pid must be positive: " + pid);
+        }
+        if ((mSize + 1) * 2 > mKeys.length) {
+            grow();
+        }
+        int index = indexFor(pid);
+        while (true) {
+            int key = mKeys[index];
+            if (key == pid) {
+                mValues[index] = slot;
+                return;
+            }
+            if (key == EMPTY) {
+                mKeys[index] = pid;
+                mValues[index] = slot;
+                mSize++;
+                return;
+            }
+            index = (index + 1) & mMask;
+        }
+    }
+
+    /**
+     * @return 被删除项的槽位号，不存在时返回 NOT_FOUND
+     */
+    int remove(int pid) {
+        int index = indexFor(pid);
+        while (true) {
+            int key = mKeys[index];
+            if (key == EMPTY) {
+                return NOT_FOUND;
+            }
+            if (key == pid) {
+                break;
+            }
+            index = (index + 1) & mMask;
+        }
+        int removed = mValues[index];
+        mSize--;
+        // 把后面探测链上的项前移到空出的位置，前提是它们的理想位置不在 (空位, 当前位置] 区间内
+        int hole = index;
+        int next = (hole + 1) & mMask;
+        while (mKeys[next] != EMPTY) {
+            int ideal = indexFor(mKeys[next]);
+            boolean movable = hole <= next ? (ideal <= hole || ideal > next) : (ideal <= hole && ideal > next);
+            if (movable) {
+                mKeys[hole] = mKeys[next];
+                mValues[hole] = mValues[next];
+                hole = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        mKeys[hole] = EMPTY;
+        return removed;
+    }
+
+    private void grow() {
+        int[] keys = mKeys;
+        int[] values = mValues;
+        allocate(keys.length * 2);
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+}
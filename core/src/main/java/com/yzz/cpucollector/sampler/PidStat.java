@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+/**
+ * /proc/[pid]/stat（以及 /proc/[pid]/task/[tid]/stat）的解析结果
+ * 可变对象，由调用方复用，parse()不分配内存
+ *
+ * 字段序号参考 man 5 proc：pid(1) comm(2) state(3) ... minflt(10) majflt(12) utime(14) stime(15)
+ * num_threads(20) starttime(22) vsize(23) rss(24)
+ */
+public class PidStat {
+    private static final int MAX_COMM_LENGTH = 64;
+
+    public int pid;
+    public byte state;
+    public long minorFaults;
+    public long majorFaults;
+    public long utime;       // 用户态时间，单位jiffies
+    public long stime;       // 内核态时间，单位jiffies
+    public int numThreads;
+    public long startTime;   // 进程启动时间（开机后的jiffies），可用于识别pid复用
+    public long vsize;       // 虚拟内存大小，字节
+    public long rssPages;    // 常驻内存页数
+
+    private final byte[] mComm = new byte[MAX_COMM_LENGTH];
+    private int mCommLength;
+
+    /**
+     * 从reader当前内容解析，reader需已调用过read()
+     *
+     * @return 格式不符时返回false
+     */
+    public boolean parse(ProcFileReader reader) {
+        reader.position(0);
+        long id = reader.nextLong();
+        if (id < 0 || !reader.skipPast((byte) '(')) {
+            return false;
+        }
+        int commStart = reader.position();
+        // comm中可能包含空格甚至')'，以最后一个')'为准
+        if (!reader.skipPastLast((byte) ')')) {
+            return false;
+        }
+        int commEnd = reader.position() - 1;
+        mCommLength = Math.min(commEnd - commStart, MAX_COMM_LENGTH);
+        System.arraycopy(reader.buffer(), commStart, mComm, 0, mCommLength);
+
+        reader.skipWhitespace();
+        if (!reader.hasRemaining()) {
+            return false;
+        }
+        pid = (int) id;
+        state = reader.buffer()[reader.position()];
+        reader.skipFields(7);          // state(3) ~ flags(9)
+        minorFaults = reader.nextLong(); // 10
+        reader.skipFields(1);
+        majorFaults = reader.nextLong(); // 12
+        reader.skipFields(1);
+        utime = reader.nextLong();       // 14
+        stime = reader.nextLong();       // 15
+        reader.skipFields(4);            // cutime(16) ~ nice(19)
+        numThreads = (int) reader.nextLong(); // 20
+        reader.skipFields(1);
+        startTime = reader.nextLong();   // 22
+        vsize = reader.nextLong();       // 23
+        rssPages = reader.nextLong();    // 24
+        return stime >= 0;
+    }
+
+    /**
+     * utime + stime
+     */
+    public long cpuTime() {
+        return utime + stime;
+    }
+
+    public int commLength() {
+        return mCommLength;
+    }
+
+    public byte commByteAt(int index) {
+        return mComm[index];
+    }
+
+    /**
+     * 线程/进程名，会创建新String，仅用于输出
+     */
+    public String comm() {
+        return new String(mComm, 0, mCommLength);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+
+/**
+ * 进程CPU占用采样器
+ * 直接读取 /proc/[pid]/stat，用两次采样间 utime+stime 的jiffies增量除以系统总jiffies增量得到占用率，
+ * 取值范围0~100（相对全部核心，与 top -s cpu 的口径一致）。分母来自 {@link SystemCpuClock}
+ *
+ * 非线程安全，应只在采样线程中调用；第一次sample()只记录基准值，第二次起才有占用率
+ */
+public class ProcCpuSampler implements Closeable {
+    public static final double UNAVAILABLE = -1;
+
+    private final int mPid;
+    private final ProcFileReader mPidStatReader;
+    private final PidStat mPidStat = new PidStat();
+    private final SystemCpuClock mClock;
+    private final boolean mOwnsClock;
+
+    private long mLastProcessJiffies = -1;
+    private double mLastTotalJiffies;
+    private int mLastEpoch;
+    private double mCpuPercent = UNAVAILABLE;
+
+    /**
+     * 使用独立的系统时钟，sample()时自动刷新
+     */
+    public ProcCpuSampler(int pid) {
+        this(pid, "/proc/" + pid + "/stat", new SystemCpuClock(), true);
+    }
+
+    /**
+     * 与其他采样器共享系统时钟，调用方负责在sample()前调用clock.update()
+     */
+    public ProcCpuSampler(int pid, SystemCpuClock clock) {
+        this(pid, "/proc/" + pid + "/stat", clock, false);
+    }
+
+    /**
+     * 从指定路径读取stat，单元测试用
+     */
+    ProcCpuSampler(int pid, String statPath, SystemCpuClock clock) {
+        this(pid, statPath, clock, false);
+    }
+
+    private ProcCpuSampler(int pid, String statPath, SystemCpuClock clock, boolean ownsClock) {
+        mPid = pid;
+        mClock = clock;
+        mOwnsClock = ownsClock;
+        mPidStatReader = new ProcFileReader(statPath, 512);
+    }
+
+    /**
+     * 采样一次。本次没有得到新的占用率时 getCpuPercent() 返回 UNAVAILABLE，不会重复给出上一次的值：
+     * 两次采样落在同一个jiffy内（系统总jiffies没有增长）时保留基准值，这段时间并入下一次采样；
+     * 进程jiffies倒退（pid被复用）时以本次读数重新建立基准
+     *
+     * @return 目标进程的stat无法读取（已退出或无权限）时返回false
+     */
+    public boolean sample() {
+        if (mOwnsClock) {
+            mClock.update();
+        }
+        if (!mPidStatReader.read() || !mPidStat.parse(mPidStatReader)) {
+            mCpuPercent = UNAVAILABLE;
+            return false;
+        }
+        long processJiffies = mPidStat.cpuTime();
+        double totalJiffies = mClock.getTotalJiffies();
+        mCpuPercent = UNAVAILABLE;
+        if (mLastProcessJiffies >= 0 && mLastEpoch == mClock.getEpoch()) {
+            double deltaTotal = totalJiffies - mLastTotalJiffies;
+            long deltaProcess = processJiffies - mLastProcessJiffies;
+            if (deltaTotal <= 0 && deltaProcess >= 0) {
+                return true;
+            }
+            if (deltaProcess >= 0) {
+                mCpuPercent = Math.min(100.0, deltaProcess * 100.0 / deltaTotal);
+            }
+        }
+        mLastProcessJiffies = processJiffies;
+        mLastTotalJiffies = totalJiffies;
+        mLastEpoch = mClock.getEpoch();
+        return true;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    /**
+     * 最近一次计算出的CPU占用率（0~100），尚无两次有效采样时返回 UNAVAILABLE
+     */
+    public double getCpuPercent() {
+        return mCpuPercent;
+    }
+
+    /**
+     * 最近一次采样的解析结果，随下一次sample()覆盖
+     */
+    public PidStat getPidStat() {
+        return mPidStat;
+    }
+
+    @Override
+    public void close() {
+        mPidStatReader.close();
+        if (mOwnsClock) {
+            mClock.close();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * /proc 文件读取器
+ * 复用同一个文件句柄和字节缓冲区，每次read()回到文件开头重新读取；
+ * 之后通过游标方法在字节上直接解析数字，整个过程不创建String，也不分配对象（缓冲区扩容除外）
+ * 不依赖Android API，可直接在普通Linux JVM上使用
+ */
+public class ProcFileReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final String mPath;
+    private RandomAccessFile mFile;
+    private byte[] mBuffer;
+    private int mLength; // 最近一次读取的有效字节数
+    private int mPos;    // 解析游标
+
+    public ProcFileReader(String path) {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ProcFileReader(String path, int bufferSize) {
+        mPath = path;
+        mBuffer = new byte[bufferSize];
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * 重新读取整个文件，并把游标重置到开头
+     *
+     * @return 读取成功返回true；文件不存在、进程已退出或无权限时返回false
+     */
+    public boolean read() {
+        try {
+            if (mFile == null) {
+                mFile = new RandomAccessFile(mPath, "r");
+            }
+            mFile.seek(0);
+            int total = 0;
+            while (true) {
+                if (total == mBuffer.length) {
+                    byte[] larger = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, larger, 0, total);
+                    mBuffer = larger;
+                }
+                int n = mFile.read(mBuffer, total, mBuffer.length - total);
+                if (n <= 0) {
+                    break;
+                }
+                total += n;
+            }
+            mLength = total;
+            mPos = 0;
+            return true;
+        } catch (IOException e) {
+            close();
+            mLength = 0;
+            mPos = 0;
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mFile = null;
+        }
+    }
+
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public int position() {
+        return mPos;
+    }
+
+    public void position(int pos) {
+        mPos = pos;
+    }
+
+    public boolean hasRemaining() {
+        return mPos < mLength;
+    }
+
+    /**
+     * 判断游标处是否以指定前缀开头（不移动游标）
+     */
+    public boolean startsWith(byte[] prefix) {
+        if (mPos + prefix.length > mLength) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuffer[mPos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把游标移动到最后一个指定字节之后，用于跳过 /proc/pid/stat 中可能包含空格和括号的comm字段
+     *
+     * @return 找不到时返回false，游标不变
+     */
+    public boolean skipPastLast(byte b) {
+        for (int i = mLength - 1; i >= mPos; i--) {
+            if (mBuffer[i] == b) {
+                mPos = i + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把游标移动到下一个指定字节之后
+     *
+     * @return 找不到时游标移到末尾并返回false
+     */
+    public boolean skipPast(byte b) {
+        while (mPos < mLength) {
+            if (mBuffer[mPos++] == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 跳到下一行开头
+     */
+    public boolean nextLine() {
+        return skipPast((byte) '\n') && mPos < mLength;
+    }
+
+    /**
+     * 跳过行内空白（不跨行）
+     */
+    public void skipWhitespace() {
+        while (mPos < mLength && isSpace(mBuffer[mPos])) {
+            mPos++;
+        }
+    }
+
+    /**
+     * 跳过若干个以空白分隔的字段，不会越过行尾
+     */
+    public void skipFields(int count) {
+        for (int i = 0; i < count; i++) {
+            skipWhitespace();
+            while (mPos < mLength && !isSpace(mBuffer[mPos]) && !isLineEnd(mBuffer[mPos])) {
+                mPos++;
+            }
+        }
+    }
+
+    /**
+     * 解析下一个十进制整数字段（允许负号），游标停在数字之后，不会越过行尾
+     *
+     * @return 没有可解析的数字时返回 -1
+     */
+    public long nextLong() {
+        skipWhitespace();
+        boolean negative = false;
+        if (mPos < mLength && mBuffer[mPos] == '-') {
+            negative = true;
+            mPos++;
+        }
+        int start = mPos;
+        long value = 0;
+        while (mPos < mLength) {
+            int digit = mBuffer[mPos] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            mPos++;
+        }
+        if (mPos == start) {
+            return -1;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r' || b == 0;
+    }
+}
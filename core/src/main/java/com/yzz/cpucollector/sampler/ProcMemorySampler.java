@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+
+/**
+ * 进程内存采样器
+ * 读取 /proc/[pid]/statm，以及 /proc/[pid]/smaps_rollup（内核4.14+，第一次就读不到时不再尝试），
+ * smaps_rollup读过之后偶尔读取失败的，本轮PSS等字段为 UNAVAILABLE、RSS取自statm，每隔若干次采样重试一次。
+ * 缺页次数直接取自CPU采样已解析的 /proc/[pid]/stat，不重复读取。解析不分配内存
+ *
+ * 非线程安全，应只在采样线程中调用
+ */
+public class ProcMemorySampler implements Closeable {
+    public static final long UNAVAILABLE = -1;
+
+    /**
+     * statm以页为单位，Android及主流Linux上页大小为4KB
+     */
+    private static final long PAGE_SIZE_KB = 4;
+
+    /**
+     * smaps_rollup读取失败后，间隔多少次采样再重试
+     */
+    private static final int SMAPS_ROLLUP_RETRY_SAMPLES = 10;
+
+    private static final byte[] RSS = {'R', 's', 's', ':'};
+    private static final byte[] PSS = {'P', 's', 's', ':'};
+    private static final byte[] PRIVATE_DIRTY = {'P', 'r', 'i', 'v', 'a', 't', 'e', '_', 'D', 'i', 'r', 't', 'y', ':'};
+    private static final byte[] SWAP = {'S', 'w', 'a', 'p', ':'};
+
+    private final ProcFileReader mStatmReader;
+    private final ProcFileReader mSmapsRollupReader;
+    private boolean mUseSmapsRollup = true; // 第一次读取就失败（内核不支持或无权限）时置为false
+    private boolean mSmapsRollupRead; // smaps_rollup是否成功读取过
+    private int mSmapsRollupRetryCountdown; // 大于0时本轮跳过smaps_rollup
+
+    private long mVmSizeKb = UNAVAILABLE;
+    private long mRssKb = UNAVAILABLE;
+    private long mSharedKb = UNAVAILABLE;
+    private long mPssKb = UNAVAILABLE;
+    private long mPrivateDirtyKb = UNAVAILABLE;
+    private long mSwapKb = UNAVAILABLE;
+    private long mMinorFaults = UNAVAILABLE;
+    private long mMajorFaults = UNAVAILABLE;
+    private long mMinorFaultsDelta;
+    private long mMajorFaultsDelta;
+
+    public ProcMemorySampler(int pid) {
+        mStatmReader = new ProcFileReader("/proc/" + pid + "/statm", 128);
+        mSmapsRollupReader = new ProcFileReader("/proc/" + pid + "/smaps_rollup", 1024);
+    }
+
+    /**
+     * 采样一次
+     *
+     * @param stat 本轮CPU采样已解析的 /proc/[pid]/stat，用于取缺页次数，可为null
+     * @return statm无法读取时返回false
+     */
+    public boolean sample(PidStat stat) {
+        if (stat != null) {
+            if (mMinorFaults >= 0) {
+                mMinorFaultsDelta = stat.minorFaults - mMinorFaults;
+                mMajorFaultsDelta = stat.majorFaults - mMajorFaults;
+            }
+            mMinorFaults = stat.minorFaults;
+            mMajorFaults = stat.majorFaults;
+        }
+
+        boolean smapsRollupValid = false;
+        if (mUseSmapsRollup) {
+            if (mSmapsRollupRetryCountdown > 0) {
+                mSmapsRollupRetryCountdown--;
+            } else if (mSmapsRollupReader.read()) {
+                parseSmapsRollup();
+                mSmapsRollupRead = true;
+                smapsRollupValid = true;
+            } else if (mSmapsRollupRead) {
+                mSmapsRollupRetryCountdown = SMAPS_ROLLUP_RETRY_SAMPLES;
+            } else {
+                mUseSmapsRollup = false;
+            }
+        }
+        if (!smapsRollupValid) {
+            // 不能沿用上一次的值
+            mPssKb = UNAVAILABLE;
+            mPrivateDirtyKb = UNAVAILABLE;
+            mSwapKb = UNAVAILABLE;
+        }
+
+        if (!mStatmReader.read()) {
+            return false;
+        }
+        // statm: size resident shared text lib data dt
+        mVmSizeKb = mStatmReader.nextLong() * PAGE_SIZE_KB;
+        long residentKb = mStatmReader.nextLong() * PAGE_SIZE_KB;
+        mSharedKb = mStatmReader.nextLong() * PAGE_SIZE_KB;
+        if (!smapsRollupValid) {
+            mRssKb = residentKb;
+        }
+        return true;
+    }
+
+    private void parseSmapsRollup() {
+        ProcFileReader reader = mSmapsRollupReader;
+        reader.position(0);
+        // 第一行是地址范围，从第二行开始是 "Name:   value kB"
+        while (reader.nextLine()) {
+            if (reader.startsWith(RSS)) {
+                mRssKb = valueAfter(reader, RSS);
+            } else if (reader.startsWith(PSS)) {
+                mPssKb = valueAfter(reader, PSS);
+            } else if (reader.startsWith(PRIVATE_DIRTY)) {
+                mPrivateDirtyKb = valueAfter(reader, PRIVATE_DIRTY);
+            } else if (reader.startsWith(SWAP)) {
+                mSwapKb = valueAfter(reader, SWAP);
+            }
+        }
+    }
+
+    private static long valueAfter(ProcFileReader reader, byte[] name) {
+        reader.position(reader.position() + name.length);
+        return reader.nextLong();
+    }
+
+    public long getVmSizeKb() {
+        return mVmSizeKb;
+    }
+
+    /**
+     * 常驻内存，有smaps_rollup时取其Rss，否则由statm折算
+     */
+    public long getRssKb() {
+        return mRssKb;
+    }
+
+    public long getSharedKb() {
+        return mSharedKb;
+    }
+
+    /**
+     * 按比例分摊共享页后的内存，需要smaps_rollup，不可用时返回 UNAVAILABLE
+     */
+    public long getPssKb() {
+        return mPssKb;
+    }
+
+    public long getPrivateDirtyKb() {
+        return mPrivateDirtyKb;
+    }
+
+    public long getSwapKb() {
+        return mSwapKb;
+    }
+
+    public long getMinorFaults() {
+        return mMinorFaults;
+    }
+
+    public long getMajorFaults() {
+        return mMajorFaults;
+    }
+
+    /**
+     * 上一个采样间隔内新增的次缺页次数
+     */
+    public long getMinorFaultsDelta() {
+        return mMinorFaultsDelta;
+    }
+
+    /**
+     * 上一个采样间隔内新增的主缺页次数
+     */
+    public long getMajorFaultsDelta() {
+        return mMajorFaultsDelta;
+    }
+
+    @Override
+    public void close() {
+        mStatmReader.close();
+        mSmapsRollupReader.close();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * /proc 相关的通用方法
+ */
+public final class ProcUtil {
+    /**
+     * USER_HZ，/proc中时间字段的单位（jiffies）。Android及主流Linux发行版上固定为100
+     */
+    public static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    private static final byte[] CPU_PREFIX = {'c', 'p', 'u'};
+
+    private ProcUtil() {
+    }
+
+    /**
+     * 判断文件名是否为纯数字（即 /proc 下的pid目录或 task 下的tid目录）
+     */
+    public static boolean isNumeric(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 根据进程名（即 /proc/[pid]/cmdline 的第一段，Android上为包名）查找pid
+     * 需要遍历 /proc，开销较大，只应在初始化或目标进程重启时调用
+     *
+     * @return 找不到时返回 -1
+     */
+    public static int findPidByName(String processName) {
+        if (processName == null) {
+            return -1;
+        }
+        String[] names = new File("/proc").list();
+        if (names == null) {
+            return -1;
+        }
+        byte[] target = processName.getBytes();
+        for (String name : names) {
+            if (!isNumeric(name)) {
+                continue;
+            }
+            ProcFileReader reader = new ProcFileReader("/proc/" + name + "/cmdline", 256);
+            try {
+                if (reader.read() && cmdlineEquals(reader, target)) {
+                    return Integer.parseInt(name);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return -1;
+    }
+
+    private static boolean cmdlineEquals(ProcFileReader reader, byte[] target) {
+        byte[] buffer = reader.buffer();
+        int length = reader.length();
+        int end = 0;
+        while (end < length && buffer[end] != 0) {
+            end++;
+        }
+        if (end != target.length) {
+            return false;
+        }
+        for (int i = 0; i < end; i++) {
+            if (buffer[i] != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 当前进程的pid，取 /proc/self 链接指向的目录名
+     *
+     * @return 无法解析时返回 -1
+     */
+    public static int selfPid() {
+        try {
+            String name = new File("/proc/self").getCanonicalFile().getName();
+            return isNumeric(name) ? Integer.parseInt(name) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 进程名，即 /proc/[pid]/cmdline 的第一段；内核线程等cmdline为空的进程取 /proc/[pid]/comm
+     *
+     * @return 进程已退出或无权限时返回null
+     */
+    public static String processName(int pid) {
+        ProcFileReader reader = new ProcFileReader("/proc/" + pid + "/cmdline", 256);
+        try {
+            if (reader.read() && reader.length() > 0) {
+                byte[] buffer = reader.buffer();
+                int end = 0;
+                while (end < reader.length() && buffer[end] != 0) {
+                    end++;
+                }
+                return new String(buffer, 0, end);
+            }
+        } finally {
+            reader.close();
+        }
+        reader = new ProcFileReader("/proc/" + pid + "/comm", 64);
+        try {
+            if (!reader.read()) {
+                return null;
+            }
+            int end = reader.length();
+            if (end > 0 && reader.buffer()[end - 1] == '\n') {
+                end--;
+            }
+            return new String(reader.buffer(), 0, end);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 解析 /proc/stat 第一行（"cpu " 汇总行）的总jiffies
+     * total = user + nice + system + idle + iowait + irq + softirq + steal（guest已计入user，不重复累加）
+     *
+     * @return 格式不符时返回 -1
+     */
+    public static long parseTotalCpuJiffies(ProcFileReader reader) {
+        reader.position(0);
+        if (!reader.startsWith(CPU_PREFIX)) {
+            return -1;
+        }
+        reader.skipFields(1);
+        long total = 0;
+        for (int i = 0; i < 8; i++) {
+            long value = reader.nextLong();
+            if (value < 0) {
+                // 老内核没有steal等字段
+                break;
+            }
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * 解析top输出中进程所在行的CPU占用，取第一个%前的数值（如 "  1234 u0_a1  10   0  5% S ..." 中的5）
+     *
+     * @return 格式不符时返回 -1
+     */
+    public static double parseTopCpuPercent(String line) {
+        int end = line.indexOf('%');
+        if (end < 0) {
+            return -1;
+        }
+        int start = -1;
+        for (int i = end; i >= 0; i--) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                start = i;
+                break;
+            }
+        }
+        if (start < 0) {
+            return -1;
+        }
+        return Double.parseDouble(line.substring(start, end));
+    }
+
+    /**
+     * 可用CPU核数
+     */
+    public static int cpuCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+}
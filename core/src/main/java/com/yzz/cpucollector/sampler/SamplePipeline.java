@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 采样结果的异步发布管线：单写者定长环 + 多个各自独立的消费阶段
+ *
+ * 环中的 Entry 全部预先分配，采样线程 claim() 取得下一个槽位、填写后 publish()，不分配内存、不加锁，
+ * 也从不等待消费者：环满时直接覆盖最旧的槽位。每个阶段（Stage）有自己的线程和读取游标，
+ * 批量取出 [游标, 已发布) 之间的样本交给 Handler；某个阶段处理慢只会让它自己落后、丢样本，不影响采样和其他阶段。
+ *
+ * 阶段读取时先把槽位复制到自己的 Entry，再检查写者是否已经绕回覆盖了这个槽位（与 SampleRingBuffer.copyLatest()
+ * 相同的校验方式），被覆盖的样本计为丢弃。槽位有多个字段，不能像 SampleRingBuffer 那样逐个有序读写，顺序由volatile保证：
+ * 写者在 claim() 覆盖槽位前先读volatile的 mPublished，覆盖不会早于上一次发布；阶段复制后先写volatile的游标
+ * 再重读 mPublished，复制不会推迟到重读之后。落后时的处理由阶段的策略决定：
+ * POLICY_DROP_OLDEST 跳过已被覆盖的样本，其余的依次处理；POLICY_LATEST_ONLY 每批只处理最新的一个样本。
+ *
+ * 阶段线程空闲时park，写者在某阶段积压达到 batchSize 时才唤醒它，否则由 maxDelay 超时唤醒，
+ * 因此低优先级的阶段（trace、直方图）每次唤醒能处理一批样本。
+ * 阶段需在 start() 之前通过 addStage() 添加
+ */
+public class SamplePipeline {
+    public static final int POLICY_DROP_OLDEST = 0;
+    public static final int POLICY_LATEST_ONLY = 1;
+
+    private static final long JOIN_TIMEOUT_MS = 1000;
+
+    /**
+     * 一个槽位中的样本，字段由采样线程填写；交给 Handler 的是阶段自己的副本，只在回调期间有效
+     */
+    public static class Entry {
+        public long sequence;        // 由publish()填写，从0开始递增
+        public long timestampNanos;  // 采样时间
+        public long publishNanos;    // 由publish()填写，用于统计各阶段的延迟
+        public double cpuPercent;
+        public double avgCpuPercent;
+        public boolean memoryValid;
+        public long rssKb;
+        public long pssKb;
+        public long minorFaultsDelta;
+        public long majorFaultsDelta;
+        public boolean coresValid;
+        public final CoreCpuSampler.Snapshot cores = new CoreCpuSampler.Snapshot();
+
+        /**
+         * 复制各核心数据，只在核心数增加时扩容
+         */
+        public void setCores(CoreCpuSampler.Snapshot snapshot) {
+            coresValid = snapshot != null;
+            if (snapshot == null) {
+                return;
+            }
+            cores.copyFrom(snapshot);
+        }
+
+        /**
+         * 复制全部字段，各核心数据只在核心数增加时扩容
+         */
+        public void copyFrom(Entry other) {
+            sequence = other.sequence;
+            timestampNanos = other.timestampNanos;
+            publishNanos = other.publishNanos;
+            cpuPercent = other.cpuPercent;
+            avgCpuPercent = other.avgCpuPercent;
+            memoryValid = other.memoryValid;
+            rssKb = other.rssKb;
+            pssKb = other.pssKb;
+            minorFaultsDelta = other.minorFaultsDelta;
+            majorFaultsDelta = other.majorFaultsDelta;
+            setCores(other.coresValid ? other.cores : null);
+        }
+
+        /**
+         * 转换为不可变的 CpuSample，会创建新对象
+         */
+        public CpuSample toCpuSample() {
+            if (memoryValid) {
+                return new CpuSample(sequence, timestampNanos, cpuPercent, avgCpuPercent, rssKb, pssKb,
+                        minorFaultsDelta, majorFaultsDelta);
+            }
+            return new CpuSample(sequence, timestampNanos, cpuPercent, avgCpuPercent);
+        }
+    }
+
+    /**
+     * 阶段的处理回调，在阶段自己的线程中执行
+     */
+    public interface Handler {
+        /**
+         * @param entry      样本副本，回调返回后会被复用
+         * @param endOfBatch 是否为本批最后一个样本，可在此时刷新输出
+         */
+        void onSample(Entry entry, boolean endOfBatch);
+    }
+
+    /**
+     * 一个消费阶段，统计数据可在任意线程读取
+     */
+    public final class Stage {
+        private final String mName;
+        private final Handler mHandler;
+        private final int mPolicy;
+        private final int mBatchSize;
+        private final long mMaxDelayNanos;
+        private final Entry mEntry = new Entry();
+        private final LogLinearHistogram mLatency = new LogLinearHistogram(TimeUnit.SECONDS.toNanos(60), 3);
+
+        private volatile Thread mThread;
+        private volatile boolean mParked;
+        private volatile long mCursor; // 下一个要处理的序号
+
+        // 统计，只由阶段线程写
+        private volatile long mProcessedCount;
+        private volatile long mDroppedCount;
+        private volatile long mBatchCount;
+        private volatile long mErrorCount;
+        private volatile long mMaxLag;
+
+        Stage(String name, Handler handler, int policy, int batchSize, long maxDelayNanos) {
+            mName = name;
+            mHandler = handler;
+            mPolicy = policy;
+            mBatchSize = Math.max(1, batchSize);
+            mMaxDelayNanos = maxDelayNanos;
+        }
+
+        private void run() {
+            while (true) {
+                // stop()超时后又start()时，旧线程看到mThread已换成新线程即退出
+                boolean running = mRunning && mThread == Thread.currentThread();
+                drain();
+                if (!running) {
+                    return;
+                }
+                if (mPublished - mCursor >= mBatchSize) {
+                    continue;
+                }
+                mParked = true;
+                // 先置mParked再检查，与写者的 publish后检查mParked 配对，不会漏掉唤醒
+                if (mRunning && mThread == Thread.currentThread() && mPublished - mCursor < mBatchSize) {
+                    LockSupport.parkNanos(this, mMaxDelayNanos);
+                }
+                mParked = false;
+            }
+        }
+
+        /**
+         * 处理当前已发布的全部样本（按策略跳过落后的部分）
+         */
+        private void drain() {
+            long cursor = mCursor;
+            long published = mPublished;
+            if (published == cursor) {
+                return;
+            }
+            long lag = published - cursor;
+            if (lag > mMaxLag) {
+                mMaxLag = lag;
+            }
+            // 写者下一个要覆盖的是 published - capacity 所在的槽位，只有其后的样本是安全的
+            long oldest = published - mRing.length + 1;
+            long start = mPolicy == POLICY_LATEST_ONLY ? published - 1 : Math.max(cursor, oldest);
+            long dropped = start - cursor;
+            long processed = 0;
+            for (long seq = start; seq < published; seq++) {
+                mEntry.copyFrom(mRing[(int) (seq & mMask)]);
+                // volatile写：之前的复制不会推迟到之后重读mPublished之后
+                mCursor = seq;
+                if (mPublished - seq >= mRing.length) {
+                    // 复制期间被覆盖
+                    dropped++;
+                    continue;
+                }
+                try {
+                    mHandler.onSample(mEntry, seq == published - 1);
+                } catch (RuntimeException e) {
+                    mErrorCount++;
+                }
+                mLatency.record(System.nanoTime() - mEntry.publishNanos);
+                processed++;
+            }
+            mCursor = published;
+            mProcessedCount += processed;
+            mDroppedCount += dropped;
+            mBatchCount++;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * 已发布但尚未处理的样本数
+         */
+        public long getLag() {
+            return mPublished - mCursor;
+        }
+
+        /**
+         * 每批开始时的最大积压
+         */
+        public long getMaxLag() {
+            return mMaxLag;
+        }
+
+        public long getProcessedCount() {
+            return mProcessedCount;
+        }
+
+        /**
+         * 因落后被覆盖，或按 POLICY_LATEST_ONLY 跳过的样本数
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        public long getBatchCount() {
+            return mBatchCount;
+        }
+
+        /**
+         * Handler抛出RuntimeException的次数，异常不会中断阶段
+         */
+        public long getErrorCount() {
+            return mErrorCount;
+        }
+
+        /**
+         * 从发布到处理完的延迟分布，单位纳秒
+         */
+        public LogLinearHistogram getLatency() {
+            return mLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: processed=%d dropped=%d batches=%d lag=%d maxLag=%d"
+                            + " errors=%d latency(ms) p50=%.2f p99=%.2f max=%.2f", mName, mProcessedCount,
+                    mDroppedCount, mBatchCount, getLag(), mMaxLag, mErrorCount,
+                    mLatency.valueAtPercentile(50) / 1e6, mLatency.valueAtPercentile(99) / 1e6,
+                    mLatency.getMax() / 1e6);
+        }
+    }
+
+    private final Entry[] mRing;
+    private final int mMask;
+    private volatile long mPublished; // 已发布的样本数，也是下一个样本的序号
+    private volatile Stage[] mStages = new Stage[0];
+    private volatile boolean mRunning;
+    private final String mThreadPrefix;
+
+    /**
+     * @param capacity     环的容量，向上取整为2的幂；决定各阶段最多能落后多少个样本而不丢失
+     * @param threadPrefix 阶段线程名前缀
+     */
+    public SamplePipeline(int capacity, String threadPrefix) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mRing = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            mRing[i] = new Entry();
+        }
+        mMask = size - 1;
+        mThreadPrefix = threadPrefix;
+    }
+
+    /**
+     * 添加一个消费阶段，只能在start()之前调用
+     *
+     * @param policy    POLICY_DROP_OLDEST 或 POLICY_LATEST_ONLY
+     * @param batchSize 积压达到多少个样本时唤醒阶段线程，1表示每个样本都立即唤醒
+     * @param maxDelay  积压不足batchSize时最长多久处理一次
+     */
+    public synchronized Stage addStage(String name, Handler handler, int policy, int batchSize, long maxDelay,
+                                       TimeUnit unit) {
+        if (mRunning) {
+            throw new IllegalStateException("add stage before start()");
+        }
+        if (policy != POLICY_DROP_OLDEST && policy != POLICY_LATEST_ONLY) {
+            throw new IllegalArgumentException("unknown policy " + policy);
+        }
+        Stage stage = new Stage(name, handler, policy, batchSize, unit.toNanos(maxDelay));
+        stage.mCursor = mPublished;
+        Stage[] stages = new Stage[mStages.length + 1];
+        System.arraycopy(mStages, 0, stages, 0, mStages.length);
+        stages[mStages.length] = stage;
+        mStages = stages;
+        return stage;
+    }
+
+    public Stage[] getStages() {
+        return mStages.clone();
+    }
+
+    /**
+     * 启动各阶段线程，已启动时不做任何事
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        for (final Stage stage : mStages) {
+            // 上一次stop()可能等待超时（Handler处理慢），旧线程退出前新线程不能开始读取，二者共用游标和Entry
+            final Thread previous = stage.mThread;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitExit(previous);
+                    stage.run();
+                }
+            }, mThreadPrefix + "-" + stage.mName);
+            thread.setDaemon(true);
+            stage.mThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * 处理完已发布的样本后结束各阶段线程，之后可再次start()。
+     * 每个阶段最多等待 JOIN_TIMEOUT_MS；超时后再次start()时，新线程会先等旧线程退出
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        for (Stage stage : mStages) {
+            LockSupport.unpark(stage.mThread);
+        }
+        for (Stage stage : mStages) {
+            try {
+                stage.mThread.join(JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 等待线程退出，忽略中断（保留中断状态）
+     */
+    private static void awaitExit(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 取得下一个槽位，由采样线程填写后调用publish()；两次调用之间不能再次claim()。
+     * 内存和核心字段已重置为无效
+     */
+    public Entry claim() {
+        // volatile读：下面对槽位的覆盖不会早于上一次发布的mPublished可见
+        Entry entry = mRing[(int) (mPublished & mMask)];
+        entry.memoryValid = false;
+        entry.rssKb = CpuSample.UNAVAILABLE;
+        entry.pssKb = CpuSample.UNAVAILABLE;
+        entry.minorFaultsDelta = CpuSample.UNAVAILABLE;
+        entry.majorFaultsDelta = CpuSample.UNAVAILABLE;
+        entry.coresValid = false;
+        return entry;
+    }
+
+    /**
+     * 发布claim()取得的槽位，唤醒积压达到batchSize的阶段
+     *
+     * @return 样本序号
+     */
+    public long publish() {
+        long seq = mPublished;
+        Entry entry = mRing[(int) (seq & mMask)];
+        entry.sequence = seq;
+        entry.publishNanos = System.nanoTime();
+        mPublished = seq + 1;
+        Stage[] stages = mStages;
+        for (Stage stage : stages) {
+            if (stage.mParked && seq + 1 - stage.mCursor >= stage.mBatchSize) {
+                Thread thread = stage.mThread;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * 已发布的样本数
+     */
+    public long getPublishedCount() {
+        return mPublished;
+    }
+
+    public int getCapacity() {
+        return mRing.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("published=").append(mPublished);
+        for (Stage stage : mStages) {
+            sb.append("; ").append(stage);
+        }
+        return sb.toString();
+    }
+}
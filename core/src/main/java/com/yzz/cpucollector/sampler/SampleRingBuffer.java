@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 定长环形时间序列，保存带时间戳的采样值，数据存放在 AtomicLongArray 中（采样值存为double的位模式），不装箱
+ *
+ * 单写者：只有采样线程调用add()。读者无锁：
+ * 1. copyLatest()直接从环中复制最近的样本，复制后重读写计数，若期间被覆盖则重试。
+ *    槽位用 lazySet 写入、get 读取：写者覆盖槽位前已发布了上一次的写计数，读者只要读到覆盖后的数据，
+ *    之后重读写计数就一定能发现越界；get 也保证复制先于重读完成，不需要额外的屏障；
+ * 2. 窗口统计（min/max/mean）由写者在add()时用单调队列和定点累加和增量维护，读取O(1)，
+ *    结果通过版本号（seqlock）发布，读者读到奇数版本或前后版本不一致时重试。
+ *
+ * 窗口需在开始写入前通过 addSampleWindow()/addTimeWindow() 声明
+ */
+public class SampleRingBuffer {
+    /**
+     * 累加和使用定点数，避免长时间运行后double累加误差
+     */
+    private static final double SUM_SCALE = 1e6;
+
+    /**
+     * 窗口统计结果，由调用方持有并复用
+     */
+    public static class Stats {
+        public int count;
+        public double min;
+        public double max;
+        public double mean;
+    }
+
+    /**
+     * 滑动窗口：最近N个样本，或最近T时间内的样本（均不超过环的容量）
+     */
+    public class Window {
+        private final int mMaxSamples;
+        private final long mMaxAgeNanos;
+        // 单调队列，保存样本序号；队首分别为窗口内最小/最大值
+        private final long[] mMinQueue;
+        private final long[] mMaxQueue;
+        private long mMinHead, mMinTail, mMaxHead, mMaxTail;
+        private long mFirstSeq; // 窗口内最早样本的序号
+        private long mSumFixed;
+
+        // 发布给读者的统计值，均为volatile，保证与版本号之间的读写顺序
+        private volatile int mVersion;
+        private volatile int mCount;
+        private volatile double mMin;
+        private volatile double mMax;
+        private volatile double mMean;
+
+        Window(int maxSamples, long maxAgeNanos) {
+            mMaxSamples = Math.min(maxSamples, mCapacity);
+            mMaxAgeNanos = maxAgeNanos;
+            mMinQueue = new long[mCapacity];
+            mMaxQueue = new long[mCapacity];
+        }
+
+        /**
+         * 新样本seq写入槽位之前由写者调用：淘汰加入新样本后超出样本数或时间范围的旧样本。
+         * 环满时新样本会覆盖最早样本的槽位，必须在覆盖前读出被淘汰的值
+         */
+        void evict(long seq, long timestamp) {
+            while (mFirstSeq < seq && (seq - mFirstSeq + 1 > mMaxSamples
+                    || (mMaxAgeNanos > 0 && timestamp - timestampAt(mFirstSeq) > mMaxAgeNanos))) {
+                mSumFixed -= toFixed(valueAt(mFirstSeq));
+                mFirstSeq++;
+            }
+            while (mMinHead < mMinTail && mMinQueue[index(mMinHead)] < mFirstSeq) {
+                mMinHead++;
+            }
+            while (mMaxHead < mMaxTail && mMaxQueue[index(mMaxHead)] < mFirstSeq) {
+                mMaxHead++;
+            }
+        }
+
+        /**
+         * 新样本seq写入后由写者调用。此时队列中的样本序号都不早于 seq - 容量 + 1，槽位未被覆盖，
+         * 队列长度也不超过容量
+         */
+        void onAdd(long seq, double value) {
+            while (mMinTail > mMinHead && valueAt(mMinQueue[index(mMinTail - 1)]) >= value) {
+                mMinTail--;
+            }
+            mMinQueue[index(mMinTail++)] = seq;
+            while (mMaxTail > mMaxHead && valueAt(mMaxQueue[index(mMaxTail - 1)]) <= value) {
+                mMaxTail--;
+            }
+            mMaxQueue[index(mMaxTail++)] = seq;
+            mSumFixed += toFixed(value);
+
+            int count = (int) (seq - mFirstSeq + 1);
+            mVersion++;
+            mCount = count;
+            mMin = valueAt(mMinQueue[index(mMinHead)]);
+            mMax = valueAt(mMaxQueue[index(mMaxHead)]);
+            mMean = mSumFixed / SUM_SCALE / count;
+            mVersion++;
+        }
+
+        /**
+         * 读取窗口统计，任意线程可调用，不加锁
+         *
+         * @return 窗口为空时返回false
+         */
+        public boolean read(Stats out) {
+            while (true) {
+                int version = mVersion;
+                if ((version & 1) != 0) {
+                    Thread.yield();
+                    continue;
+                }
+                int count = mCount;
+                double min = mMin;
+                double max = mMax;
+                double mean = mMean;
+                if (version == mVersion) {
+                    out.count = count;
+                    out.min = min;
+                    out.max = max;
+                    out.mean = mean;
+                    return count > 0;
+                }
+            }
+        }
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicLongArray mTimestamps;
+    private final AtomicLongArray mValues; // Double.doubleToRawLongBits()
+    private final List<Window> mWindows = new ArrayList<>();
+    private Window[] mWindowArray = new Window[0];
+    private final double mEwmaAlpha;
+
+    private volatile long mCount; // 已写入的样本总数，也是下一个样本的序号
+    private volatile int mEwmaVersion;
+    private volatile double mEwma;
+
+    /**
+     * @param capacity  容量，向上取整为2的幂
+     * @param ewmaAlpha 指数加权移动平均的平滑系数(0,1]，越大越偏重新样本
+     */
+    public SampleRingBuffer(int capacity, double ewmaAlpha) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mTimestamps = new AtomicLongArray(size);
+        mValues = new AtomicLongArray(size);
+        mEwmaAlpha = ewmaAlpha;
+    }
+
+    /**
+     * 声明一个最近N个样本的窗口，需在写入前调用
+     */
+    public synchronized Window addSampleWindow(int samples) {
+        return addWindow(new Window(samples, 0));
+    }
+
+    /**
+     * 声明一个最近T毫秒的窗口，需在写入前调用；窗口样本数同样受容量限制
+     */
+    public synchronized Window addTimeWindow(long millis) {
+        return addWindow(new Window(mCapacity, millis * 1000000L));
+    }
+
+    private Window addWindow(Window window) {
+        mWindows.add(window);
+        mWindowArray = mWindows.toArray(new Window[mWindows.size()]);
+        return window;
+    }
+
+    /**
+     * 写入一个样本，只能由单一写者线程调用
+     *
+     * @param timestampNanos 采样时间（System.nanoTime()）
+     */
+    public void add(long timestampNanos, double value) {
+        long seq = mCount;
+        Window[] windows = mWindowArray;
+        for (Window window : windows) {
+            window.evict(seq, timestampNanos);
+        }
+        int i = index(seq);
+        // 有序写：上一次发布的mCount先于槽位的新数据可见
+        mTimestamps.lazySet(i, timestampNanos);
+        mValues.lazySet(i, Double.doubleToRawLongBits(value));
+        for (Window window : windows) {
+            window.onAdd(seq, value);
+        }
+        mEwmaVersion++;
+        mEwma = seq == 0 ? value : mEwma + mEwmaAlpha * (value - mEwma);
+        mEwmaVersion++;
+        // volatile写，发布本次的样本
+        mCount = seq + 1;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 已写入的样本总数（包含已被覆盖的）
+     */
+    public long count() {
+        return mCount;
+    }
+
+    /**
+     * 当前的指数加权移动平均，尚无样本时返回NaN
+     */
+    public double getEwma() {
+        while (true) {
+            int version = mEwmaVersion;
+            if ((version & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            double ewma = mEwma;
+            if (version == mEwmaVersion) {
+                return mCount == 0 ? Double.NaN : ewma;
+            }
+        }
+    }
+
+    /**
+     * 复制最近的样本（按时间先后），任意线程可调用，不加锁
+     *
+     * @param timestamps 输出时间戳，可为null
+     * @param values     输出采样值
+     * @return 实际复制的样本数
+     */
+    public int copyLatest(long[] timestamps, double[] values) {
+        while (true) {
+            long end = mCount;
+            // 写者正在写入的槽位（序号mCount）不可读，因此最多复制 capacity - 1 个
+            int n = (int) Math.min(Math.min(values.length, mCapacity - 1), end);
+            long start = end - n;
+            for (int k = 0; k < n; k++) {
+                if (timestamps != null) {
+                    timestamps[k] = timestampAt(start + k);
+                }
+                values[k] = valueAt(start + k);
+            }
+            // 复制期间写者可能已绕回覆盖了最早的几个槽位
+            if (mCount - start < mCapacity) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * 最近一个样本的值，尚无样本时返回NaN
+     */
+    public double latest() {
+        while (true) {
+            long end = mCount;
+            if (end == 0) {
+                return Double.NaN;
+            }
+            double value = valueAt(end - 1);
+            if (mCount - (end - 1) < mCapacity) {
+                return value;
+            }
+        }
+    }
+
+    private int index(long seq) {
+        return (int) (seq & mMask);
+    }
+
+    private long timestampAt(long seq) {
+        return mTimestamps.get(index(seq));
+    }
+
+    private double valueAt(long seq) {
+        return Double.longBitsToDouble(mValues.get(index(seq)));
+    }
+
+    private static long toFixed(double value) {
+        return Math.round(value * SUM_SCALE);
+    }
+}
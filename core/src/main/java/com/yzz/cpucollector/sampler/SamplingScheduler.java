@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 采样调度器
+ * 在单独的线程上执行采样任务，支持两种触发方式，可同时使用：
+ * 1. 固定频率：setPeriod()设置周期，按 起始时间 + k × 周期 的节拍执行，任务超时则跳过错过的节拍；
+ * 2. 按需触发：requestSample()唤醒线程立即执行一次，执行前的多次请求会合并为一次。
+ *
+ * 线程在没有周期也没有请求时阻塞在Condition上，空闲期间没有任何唤醒。
+ * stop()会结束线程并等待其退出，之后可再次start()。
+ * stop()的等待有超时，正在执行的采样（如回退到shell命令）可能比它更久；
+ * 因此新的调度线程会先等上一个线程执行完 onStop() 再开始采样，Task 中的资源不会被两个线程同时使用
+ */
+public class SamplingScheduler {
+
+    /**
+     * 采样任务，所有回调都在调度线程中执行
+     */
+    public interface Task {
+        /**
+         * 执行一次采样
+         */
+        void onSample();
+
+        /**
+         * 调度线程退出前回调，用于释放只在调度线程中使用的资源
+         */
+        void onStop();
+    }
+
+    private static final long DEFAULT_JOIN_TIMEOUT_MS = 1000;
+
+    private final String mThreadName;
+    private final Task mTask;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mWakeup = mLock.newCondition();
+
+    // 以下字段受mLock保护
+    private Thread mThread; // 当前的调度线程，置空即通知其退出
+    private Thread mLastThread; // 最近一次创建的调度线程，stop()超时后可能仍在运行
+    private boolean mRequested;
+    private long mPeriodNanos;
+    private long mNextDeadline;
+
+    private volatile long mSampleCount;
+
+    public SamplingScheduler(String threadName, Task task) {
+        mThreadName = threadName;
+        mTask = task;
+    }
+
+    /**
+     * 设置固定采样周期
+     *
+     * @param period 周期，<=0 表示关闭固定频率，只按需触发
+     */
+    public void setPeriod(long period, TimeUnit unit) {
+        mLock.lock();
+        try {
+            mPeriodNanos = period > 0 ? unit.toNanos(period) : 0;
+            mNextDeadline = System.nanoTime() + mPeriodNanos;
+            mWakeup.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getPeriodNanos() {
+        mLock.lock();
+        try {
+            return mPeriodNanos;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 请求尽快执行一次采样，可在任意线程调用
+     */
+    public void requestSample() {
+        mLock.lock();
+        try {
+            if (!mRequested) {
+                mRequested = true;
+                mWakeup.signalAll();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 启动调度线程，已启动时无操作
+     */
+    public void start() {
+        mLock.lock();
+        try {
+            if (mThread != null) {
+                return;
+            }
+            mRequested = false;
+            mNextDeadline = System.nanoTime() + mPeriodNanos;
+            final Thread previous = mLastThread;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitExit(previous);
+                    loop();
+                }
+            }, mThreadName);
+            mLastThread = mThread;
+            mThread.start();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public boolean isStarted() {
+        mLock.lock();
+        try {
+            return mThread != null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 停止调度线程并等待其退出（最多等待1秒，正在执行的采样不会被打断；超时后再次start()是安全的，见类注释）
+     */
+    public void stop() {
+        Thread thread;
+        mLock.lock();
+        try {
+            thread = mThread;
+            mThread = null;
+            mWakeup.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join(DEFAULT_JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 已执行的采样次数
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    private void loop() {
+        try {
+            while (awaitNextSample()) {
+                mTask.onSample();
+                mSampleCount++;
+            }
+        } finally {
+            mTask.onStop();
+        }
+    }
+
+    /**
+     * 等待上一个调度线程执行完 onStop() 后退出，忽略中断（保留中断状态）
+     */
+    private static void awaitExit(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 阻塞直到下一次需要采样
+     *
+     * @return 调度器已停止（或已被新的调度线程取代）时返回false
+     */
+    private boolean awaitNextSample() {
+        mLock.lock();
+        try {
+            while (mThread == Thread.currentThread()) {
+                if (mRequested) {
+                    mRequested = false;
+                    return true;
+                }
+                if (mPeriodNanos <= 0) {
+                    mWakeup.awaitUninterruptibly();
+                    continue;
+                }
+                long now = System.nanoTime();
+                long remaining = mNextDeadline - now;
+                if (remaining <= 0) {
+                    // 固定频率：跳过已经错过的节拍，不补采
+                    long missed = -remaining / mPeriodNanos;
+                    mNextDeadline += (missed + 1) * mPeriodNanos;
+                    return true;
+                }
+                try {
+                    mWakeup.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    // 只响应stop()，忽略中断
+                }
+            }
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+
+/**
+ * 高频进程CPU占用采样器
+ * stat中的utime/stime以jiffies（10ms）为单位，采样间隔为毫秒级时增量几乎总是0或1，无法得到有意义的占用率。
+ * 这里改读调度器统计的累计运行时间（schedstat第一个字段，纳秒），用两次采样间的运行时间增量
+ * 除以墙钟时间增量与核数之积，取值范围0~100（与 {@link ProcCpuSampler} 口径一致）。
+ *
+ * /proc/[pid]/schedstat 只是主线程的统计，因此按线程读取 /proc/[pid]/task/[tid]/schedstat 并累加各线程的增量：
+ * 线程列表每隔 threadRefreshNanos 重新列一次（只有这一步分配内存），新线程从加入时开始计，
+ * 退出的线程保留已计入的部分。每次采样的开销与线程数成正比，线程很多的进程应降低采样频率。
+ * 内核未开启 CONFIG_SCHEDSTATS 等原因导致schedstat不可读时，退回进程 stat 的 utime+stime
+ *
+ * 非线程安全，应只在采样线程中调用；第一次sample()只记录基准值
+ */
+public class SchedCpuSampler implements Closeable {
+    public static final double UNAVAILABLE = -1;
+
+    private static final long NANOS_PER_JIFFY = 1000000000L / ProcUtil.CLOCK_TICKS_PER_SECOND;
+
+    private final int mPid;
+    private final int mCpuCount;
+    private final long mThreadRefreshNanos;
+    private final String mTaskDir;
+
+    private int[] mTids = new int[4];
+    private ProcFileReader[] mThreadReaders = new ProcFileReader[4];
+    private long[] mThreadRuntimes = new long[4];
+    private int mThreadCount;
+    private long mLastRefreshNanos;
+    private boolean mRefreshed;
+    private boolean mExited;
+
+    private ProcFileReader mPidStatReader; // schedstat不可用、退回stat时才创建
+    private PidStat mPidStat;
+
+    private long mRuntimeNanos = -1; // 累计运行时间，各线程增量之和
+    private long mLastRuntimeNanos = -1;
+    private long mLastWallNanos;
+    private double mCpuPercent = UNAVAILABLE;
+
+    /**
+     * 每秒刷新一次线程列表
+     */
+    public SchedCpuSampler(int pid) {
+        this(pid, 1000000000L);
+    }
+
+    public SchedCpuSampler(int pid, long threadRefreshNanos) {
+        mPid = pid;
+        mCpuCount = ProcUtil.cpuCount();
+        mThreadRefreshNanos = threadRefreshNanos;
+        mTaskDir = "/proc/" + pid + "/task/";
+    }
+
+    /**
+     * 采样一次。本次没有得到新的占用率时 getCpuPercent() 返回 UNAVAILABLE，不会重复给出上一次的值
+     *
+     * @param nowNanos 当前时间（System.nanoTime()），由调用方传入，同一轮采样的多个进程可共用
+     * @return 目标进程已退出或无权限时返回false，此后一直返回false（pid可能被复用，需要新建采样器）
+     */
+    public boolean sample(long nowNanos) {
+        long runtime = mExited ? -1 : mPidStatReader == null ? readThreads(nowNanos) : readPidStat();
+        if (runtime < 0) {
+            mCpuPercent = UNAVAILABLE;
+            mLastRuntimeNanos = -1;
+            return false;
+        }
+        mRuntimeNanos = runtime;
+        mCpuPercent = UNAVAILABLE;
+        if (mLastRuntimeNanos >= 0) {
+            long deltaWall = nowNanos - mLastWallNanos;
+            long deltaRuntime = runtime - mLastRuntimeNanos;
+            if (deltaWall <= 0 || (deltaRuntime == 0 && mPidStatReader != null && deltaWall < NANOS_PER_JIFFY)) {
+                // 时间没有前进，或退回stat后两次采样落在同一个jiffy内：保留基准值，并入下一次采样
+                return true;
+            }
+            if (deltaRuntime >= 0) {
+                mCpuPercent = Math.min(100.0, deltaRuntime * 100.0 / ((double) deltaWall * mCpuCount));
+            }
+        }
+        mLastRuntimeNanos = runtime;
+        mLastWallNanos = nowNanos;
+        return true;
+    }
+
+    /**
+     * 读取各线程的schedstat，返回累计运行时间
+     */
+    private long readThreads(long nowNanos) {
+        if (!mRefreshed || nowNanos - mLastRefreshNanos >= mThreadRefreshNanos) {
+            mRefreshed = true;
+            mLastRefreshNanos = nowNanos;
+            if (!refreshThreads()) {
+                mExited = true;
+                return -1;
+            }
+        }
+        long total = mRuntimeNanos < 0 ? 0 : mRuntimeNanos;
+        int i = 0;
+        while (i < mThreadCount) {
+            ProcFileReader reader = mThreadReaders[i];
+            long runtime = -1;
+            if (reader.read()) {
+                reader.position(0);
+                runtime = reader.nextLong();
+            }
+            if (runtime < 0) {
+                // 线程已退出，之前的增量已经计入
+                removeThread(i);
+                continue;
+            }
+            total += runtime - mThreadRuntimes[i];
+            mThreadRuntimes[i] = runtime;
+            i++;
+        }
+        if (mThreadCount == 0) {
+            // 所有线程都读不到：进程已退出，或者schedstat不可用
+            if (!fallBackToPidStat()) {
+                mExited = true;
+                return -1;
+            }
+            return readPidStat();
+        }
+        return total;
+    }
+
+    /**
+     * 重新列出线程，为新线程创建读取器并记下当前运行时间作为起点
+     *
+     * @return 进程已退出时返回false
+     */
+    private boolean refreshThreads() {
+        String[] names = new File(mTaskDir).list();
+        if (names == null) {
+            return false;
+        }
+        for (String name : names) {
+            if (!ProcUtil.isNumeric(name)) {
+                continue;
+            }
+            int tid = Integer.parseInt(name);
+            if (indexOfThread(tid) >= 0) {
+                continue;
+            }
+            ProcFileReader reader = new ProcFileReader(mTaskDir + name + "/schedstat", 64);
+            if (!reader.read()) {
+                reader.close();
+                continue;
+            }
+            reader.position(0);
+            long runtime = reader.nextLong();
+            if (runtime < 0) {
+                reader.close();
+                continue;
+            }
+            addThread(tid, reader, mRuntimeNanos < 0 ? 0 : runtime);
+        }
+        return true;
+    }
+
+    private int indexOfThread(int tid) {
+        for (int i = 0; i < mThreadCount; i++) {
+            if (mTids[i] == tid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param baseline 第一次采样前为0（全部运行时间都计入），之后为加入时的运行时间
+     */
+    private void addThread(int tid, ProcFileReader reader, long baseline) {
+        if (mThreadCount == mTids.length) {
+            int capacity = mThreadCount * 2;
+            int[] tids = new int[capacity];
+            ProcFileReader[] readers = new ProcFileReader[capacity];
+            long[] runtimes = new long[capacity];
+            System.arraycopy(mTids, 0, tids, 0, mThreadCount);
+            System.arraycopy(mThreadReaders, 0, readers, 0, mThreadCount);
+            System.arraycopy(mThreadRuntimes, 0, runtimes, 0, mThreadCount);
+            mTids = tids;
+            mThreadReaders = readers;
+            mThreadRuntimes = runtimes;
+        }
+        mTids[mThreadCount] = tid;
+        mThreadReaders[mThreadCount] = reader;
+        mThreadRuntimes[mThreadCount] = baseline;
+        mThreadCount++;
+    }
+
+    private void removeThread(int index) {
+        mThreadReaders[index].close();
+        int last = mThreadCount - 1;
+        mTids[index] = mTids[last];
+        mThreadReaders[index] = mThreadReaders[last];
+        mThreadRuntimes[index] = mThreadRuntimes[last];
+        mThreadReaders[last] = null;
+        mThreadCount = last;
+    }
+
+    /**
+     * 进程还在（stat可读）而schedstat读不到时，改用stat
+     */
+    private boolean fallBackToPidStat() {
+        ProcFileReader reader = new ProcFileReader("/proc/" + mPid + "/stat", 512);
+        if (!reader.read()) {
+            reader.close();
+            return false;
+        }
+        mPidStatReader = reader;
+        mPidStat = new PidStat();
+        // 单位不同，重新建立基准
+        mLastRuntimeNanos = -1;
+        return true;
+    }
+
+    private long readPidStat() {
+        if (!mPidStatReader.read() || !mPidStat.parse(mPidStatReader)) {
+            return -1;
+        }
+        return mPidStat.cpuTime() * NANOS_PER_JIFFY;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    /**
+     * 最近一次计算出的CPU占用率（0~100），尚无两次有效采样时返回 UNAVAILABLE
+     */
+    public double getCpuPercent() {
+        return mCpuPercent;
+    }
+
+    /**
+     * 累计运行时间（纳秒）：第一次采样时各线程的运行时间之和，加上之后的增量；尚未成功采样时返回 -1
+     */
+    public long getRuntimeNanos() {
+        return mRuntimeNanos;
+    }
+
+    /**
+     * 当前跟踪的线程数，退回stat时为0
+     */
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * 是否在使用schedstat（false表示已退回jiffies精度的stat）
+     */
+    public boolean isUsingSchedStat() {
+        return mPidStatReader == null;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < mThreadCount; i++) {
+            mThreadReaders[i].close();
+        }
+        mThreadCount = 0;
+        if (mPidStatReader != null) {
+            mPidStatReader.close();
+        }
+    }
+}
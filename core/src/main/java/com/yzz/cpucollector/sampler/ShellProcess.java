@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 每次启动一个新的sh进程执行命令，常驻会话（ShellSession）不可用或未开启时使用
+ */
+public final class ShellProcess {
+    private static final String COMMAND_SH = "sh";
+    private static final String COMMAND_LINE_END = "\n";
+    private static final String COMMAND_EXIT = "exit\n";
+
+    /**
+     * 执行结果
+     */
+    public static class Result {
+        public final List<String> lines = new ArrayList<String>();
+        public int status = -1;
+        public String error = "";
+    }
+
+    private ShellProcess() {
+    }
+
+    /**
+     * 启动新的sh进程执行。stdout在进程运行期间逐行读取，stderr由单独的线程同时读取，
+     * 避免输出写满管道后与waitFor()互相等待；指定matcher时找到匹配行即结束进程
+     *
+     * @param commands  依次写入sh的命令
+     * @param matcher   为null时返回全部输出，否则只返回第一条匹配的行
+     * @param timeoutMs 进程结束后等待stderr读完的最长时间
+     */
+    public static Result execute(String[] commands, ShellSession.LineMatcher matcher, long timeoutMs) {
+        Result result = new Result();
+        Process process = null;
+        BufferedReader successReader = null;
+        final StringBuilder errorMsg = new StringBuilder();
+        Thread errorThread = null;
+        DataOutputStream dos = null;
+        try {
+            process = Runtime.getRuntime().exec(COMMAND_SH);
+            final BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+            errorThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String lineStr;
+                        while ((lineStr = errorReader.readLine()) != null) {
+                            synchronized (errorMsg) {
+                                errorMsg.append(lineStr);
+                            }
+                        }
+                    } catch (IOException e) {
+                        // 进程已结束
+                    } finally {
+                        try {
+                            errorReader.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                }
+            }, "CpuCollectorStderr");
+            errorThread.start();
+
+            dos = new DataOutputStream(process.getOutputStream());
+            for (String command : commands) {
+                if (command == null) {
+                    continue;
+                }
+                dos.write(command.getBytes());
+                dos.writeBytes(COMMAND_LINE_END);
+                dos.flush();
+            }
+            dos.writeBytes(COMMAND_EXIT);
+            dos.flush();
+
+            successReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String lineStr;
+            boolean matched = false;
+            while ((lineStr = successReader.readLine()) != null) {
+                if (matcher == null) {
+                    result.lines.add(lineStr);
+                } else if (matcher.matches(lineStr)) {
+                    result.lines.add(lineStr);
+                    matched = true;
+                    break;
+                }
+            }
+            if (matched) {
+                // 已找到目标行，不再等待剩余输出
+                process.destroy();
+            }
+            result.status = process.waitFor();
+            errorThread.join(timeoutMs);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (dos != null) {
+                    dos.close();
+                }
+                if (successReader != null) {
+                    successReader.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (process != null) {
+                process.destroy();
+            }
+        }
+        synchronized (errorMsg) {
+            result.error = errorMsg.toString();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻的shell会话
+ * 只启动一次sh进程，之后所有命令都通过同一对stdin/stdout执行，省去每次采样fork/exec sh的开销。
+ *
+ * 每条命令后追加一行 echo 哨兵，哨兵由会话随机前缀和命令序号组成，读线程据此切分各命令的输出并取得退出码。
+ * submit()写入命令后立即返回，多条命令可以排队（流水线）执行，不必等待前一条返回。
+ * sh进程意外退出时，所有未完成的命令以失败结束，下一次submit()自动重启会话。
+ * stderr由单独的线程持续读取并丢弃，避免管道写满阻塞。
+ * 提交时可指定行匹配器，此时输出边读边匹配，只保留第一条匹配的行，其余直接丢弃，不缓存完整输出
+ */
+public class ShellSession implements Closeable {
+    private static final String COMMAND_SH = "sh";
+
+    /**
+     * 输出行匹配器，在读线程中逐行调用
+     */
+    public interface LineMatcher {
+        boolean matches(String line);
+    }
+
+    /**
+     * 匹配包含指定文本的行，可代替 | grep
+     */
+    public static LineMatcher contains(final String text) {
+        return new LineMatcher() {
+            @Override
+            public boolean matches(String line) {
+                return line.contains(text);
+            }
+        };
+    }
+
+    /**
+     * 已提交的命令
+     */
+    public static class Command {
+        private final long mId;
+        private final LineMatcher mMatcher;
+        private boolean mMatched;
+        private final List<String> mLines = new ArrayList<>();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mFailed;
+        private volatile int mExitCode = -1;
+
+        Command(long id, LineMatcher matcher) {
+            mId = id;
+            mMatcher = matcher;
+        }
+
+        void onLine(String line) {
+            if (mMatcher == null) {
+                mLines.add(line);
+            } else if (!mMatched && mMatcher.matches(line)) {
+                mMatched = true;
+                mLines.add(line);
+            }
+        }
+
+        /**
+         * 等待命令执行完成
+         *
+         * @return 输出的各行（指定了匹配器时最多一行）；超时或会话中断时返回null
+         */
+        public List<String> await(long timeout, TimeUnit unit) {
+            try {
+                if (!mDone.await(timeout, unit)) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return mFailed ? null : mLines;
+        }
+
+        public int getExitCode() {
+            return mExitCode;
+        }
+
+        void complete(int exitCode) {
+            mExitCode = exitCode;
+            mDone.countDown();
+        }
+
+        void fail() {
+            mFailed = true;
+            mDone.countDown();
+        }
+    }
+
+    private final String mSentinelPrefix = "__cpu_collector_" + Long.toHexString(new Random().nextLong()) + "_";
+    private final Object mLock = new Object();
+
+    // 以下字段受mLock保护
+    private Process mProcess;
+    private OutputStream mStdin;
+    private ArrayDeque<Command> mPending = new ArrayDeque<>();
+    private long mNextId;
+    private int mStartCount;
+    private boolean mClosed;
+
+    /**
+     * 提交一条命令（可以是用 ; 或 | 组合的命令行），立即返回
+     *
+     * @return 已提交的命令；会话无法启动时返回null
+     */
+    public Command submit(String command) {
+        return submit(command, null);
+    }
+
+    /**
+     * 提交一条命令，只保留第一条被matcher匹配的输出行
+     *
+     * @param matcher 为null时保留全部输出
+     */
+    public Command submit(String command, LineMatcher matcher) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return null;
+            }
+            if (mProcess == null && !startLocked()) {
+                return null;
+            }
+            Command cmd = new Command(mNextId++, matcher);
+            String line = command + "\necho \"" + mSentinelPrefix + cmd.mId + " $?\"\n";
+            mPending.addLast(cmd);
+            try {
+                mStdin.write(line.getBytes());
+                mStdin.flush();
+            } catch (IOException e) {
+                // sh已退出，读线程会在EOF时让所有未完成命令失败
+                destroyLocked();
+                return cmd;
+            }
+            return cmd;
+        }
+    }
+
+    /**
+     * 会话已启动的次数，大于1说明发生过重启
+     */
+    public int getStartCount() {
+        synchronized (mLock) {
+            return mStartCount;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            if (mStdin != null) {
+                try {
+                    mStdin.write("exit\n".getBytes());
+                    mStdin.flush();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            destroyLocked();
+        }
+    }
+
+    private boolean startLocked() {
+        final Process process;
+        try {
+            process = Runtime.getRuntime().exec(COMMAND_SH);
+        } catch (IOException e) {
+            return false;
+        }
+        mProcess = process;
+        mStdin = process.getOutputStream();
+        mStartCount++;
+        final ArrayDeque<Command> pending = mPending;
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readStdout(process, pending);
+            }
+        }, "ShellSessionReader");
+        reader.setDaemon(true);
+        reader.start();
+        Thread errorDrainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain(process.getErrorStream());
+            }
+        }, "ShellSessionStderr");
+        errorDrainer.setDaemon(true);
+        errorDrainer.start();
+        return true;
+    }
+
+    private void destroyLocked() {
+        if (mProcess != null) {
+            mProcess.destroy();
+            mProcess = null;
+            mStdin = null;
+            // 旧队列交给旧的读线程清理，新会话使用新队列
+            mPending = new ArrayDeque<>();
+        }
+    }
+
+    private void readStdout(Process process, ArrayDeque<Command> pending) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int sentinel = line.indexOf(mSentinelPrefix);
+                Command head;
+                synchronized (mLock) {
+                    head = pending.peekFirst();
+                }
+                if (head == null) {
+                    continue;
+                }
+                if (sentinel < 0) {
+                    head.onLine(line);
+                    continue;
+                }
+                if (sentinel > 0) {
+                    // 命令输出末尾没有换行时，哨兵会接在最后一行之后
+                    head.onLine(line.substring(0, sentinel));
+                }
+                synchronized (mLock) {
+                    pending.pollFirst();
+                }
+                head.complete(parseExitCode(line, sentinel + mSentinelPrefix.length()));
+            }
+        } catch (IOException e) {
+            // 进程退出
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            synchronized (mLock) {
+                Command cmd;
+                while ((cmd = pending.pollFirst()) != null) {
+                    cmd.fail();
+                }
+                if (mProcess == process) {
+                    // sh意外退出，下一次submit()重启
+                    mProcess = null;
+                    mStdin = null;
+                    mPending = new ArrayDeque<>();
+                }
+            }
+        }
+    }
+
+    private static int parseExitCode(String line, int from) {
+        int space = line.indexOf(' ', from);
+        if (space < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(line.substring(space + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void drain(InputStream in) {
+        byte[] buffer = new byte[1024];
+        try {
+            while (in.read(buffer) >= 0) {
+                // 丢弃
+            }
+        } catch (IOException e) {
+            // 进程退出
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
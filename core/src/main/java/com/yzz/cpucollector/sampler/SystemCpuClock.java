@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+
+/**
+ * 系统总CPU时间（所有核心jiffies之和），作为各采样器计算占用率的公共分母
+ * 每轮采样调用一次update()，多个采样器共享同一次读取结果
+ *
+ * 优先读取 /proc/stat；不可读时（Android 8.0+ 普通应用）改用墙钟时间 × USER_HZ × 核数折算。
+ * 数据来源切换时epoch加一，调用方据此丢弃跨来源的增量
+ */
+public class SystemCpuClock implements Closeable {
+    private final ProcFileReader mReader;
+    private final int mCpuCount;
+    private boolean mUseSystemStat;
+    private int mEpoch;
+    private double mTotalJiffies;
+    private long mUpdateNanos;
+
+    public SystemCpuClock() {
+        this("/proc/stat", ProcUtil.cpuCount());
+    }
+
+    /**
+     * 从指定路径读取 /proc/stat 格式的数据，单元测试用
+     */
+    SystemCpuClock(String statPath, int cpuCount) {
+        mReader = new ProcFileReader(statPath, 4096);
+        mCpuCount = cpuCount;
+        mUseSystemStat = true;
+        update();
+    }
+
+    /**
+     * 读取当前系统总CPU时间
+     */
+    public void update() {
+        mUpdateNanos = System.nanoTime();
+        if (mUseSystemStat) {
+            if (mReader.read()) {
+                long total = ProcUtil.parseTotalCpuJiffies(mReader);
+                if (total >= 0) {
+                    mTotalJiffies = total;
+                    return;
+                }
+            }
+            mUseSystemStat = false;
+            mReader.close();
+            mEpoch++;
+        }
+        mTotalJiffies = mUpdateNanos / 1e9 * ProcUtil.CLOCK_TICKS_PER_SECOND * mCpuCount;
+    }
+
+    /**
+     * 最近一次update()得到的总jiffies，只有同一epoch内的差值才有意义
+     */
+    public double getTotalJiffies() {
+        return mTotalJiffies;
+    }
+
+    public long getUpdateNanos() {
+        return mUpdateNanos;
+    }
+
+    public int getEpoch() {
+        return mEpoch;
+    }
+
+    public boolean isUsingSystemStat() {
+        return mUseSystemStat;
+    }
+
+    @Override
+    public void close() {
+        mReader.close();
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全系统进程CPU占用采样器，取占用最高的N个进程，用于查看哪些进程在与目标应用争抢CPU
+ *
+ * 增量式扫描：只有每隔 rescanInterval 才遍历一次 /proc 发现新进程（这一步会分配目录列表的String），
+ * 平时每轮只重新读取已打开的各进程stat文件。每个进程占一个槽位，pid到槽位的映射是int开放寻址表（PidSlotMap），
+ * 上一轮的jiffies、启动时间等状态存放在按槽位索引的基本类型数组中；占用最高的N个进程用一个大小为N的最小堆选出。
+ * 除发现新进程外，每轮采样不分配内存。
+ *
+ * 进程退出后stat读取失败，槽位随即回收；同一个pid被新进程复用时，stat中的启动时间（starttime）不同，
+ * 此时新进程的全部CPU时间计入本轮，不会与旧进程的计数相减。新发现的进程从被发现时开始计。
+ * 占用率口径与 ProcCpuSampler 相同（相对全部核心，0~100）。
+ * Android 7.0起普通应用只能看到自己uid的进程，需要在shell或root权限下运行才能看到整个系统。
+ * 每个进程保持一个打开的文件句柄，但最多 maxOpenFiles 个（默认256，远低于常见的1024软限制，给进程其他部分留出余量），
+ * 超出的进程每轮重新打开、读完即关闭，进程很多时不会耗尽文件句柄。
+ * 非线程安全，应只在采样线程中调用；第一次sample()只记录基准值
+ */
+public class SystemTopSampler implements Closeable {
+    private static final long DEFAULT_RESCAN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int INITIAL_SLOTS = 256;
+    private static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+    private final SystemCpuClock mClock;
+    private final boolean mOwnsClock;
+    private final PidStat mStat = new PidStat();
+    private final PidSlotMap mPidToSlot = new PidSlotMap(INITIAL_SLOTS);
+    private long mRescanIntervalNanos = DEFAULT_RESCAN_INTERVAL_NANOS;
+    private int mMaxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+    private int mOpenCount; // 保持打开的stat文件数
+    private long mLastRescanNanos;
+    private int mRescanCount;
+
+    // 按槽位索引，mSlotReaders[slot] 为null表示空槽
+    private int mSlotCount; // 用过的最大槽位号 + 1
+    private int[] mSlotPids = new int[INITIAL_SLOTS];
+    private long[] mSlotStartTimes = new long[INITIAL_SLOTS];
+    private long[] mSlotJiffies = new long[INITIAL_SLOTS];
+    private ProcFileReader[] mSlotReaders = new ProcFileReader[INITIAL_SLOTS];
+    private boolean[] mSlotKeepOpen = new boolean[INITIAL_SLOTS]; // 为false时每轮读完即关闭
+    private String[] mSlotNames = new String[INITIAL_SLOTS];
+    private int[] mFreeSlots = new int[INITIAL_SLOTS];
+    private int mFreeCount;
+
+    // 最小堆，按本轮jiffies增量排序，堆顶是入选进程中占用最低的
+    private final int[] mHeapSlots;
+    private final long[] mHeapDeltas;
+    private int mHeapSize;
+
+    // 本轮结果，按占用率降序
+    private final int[] mTopPids;
+    private final String[] mTopNames;
+    private final double[] mTopPercents;
+    private int mTopCount;
+
+    private boolean mPrimed;
+    private double mLastTotalJiffies;
+    private int mLastEpoch;
+
+    /**
+     * 使用独立的系统时钟，sample()时自动刷新
+     *
+     * @param topN 保留占用最高的进程数
+     */
+    public SystemTopSampler(int topN) {
+        this(topN, new SystemCpuClock(), true);
+    }
+
+    /**
+     * 与其他采样器共享系统时钟，调用方负责在sample()前调用clock.update()
+     */
+    public SystemTopSampler(int topN, SystemCpuClock clock) {
+        this(topN, clock, false);
+    }
+
+    private SystemTopSampler(int topN, SystemCpuClock clock, boolean ownsClock) {
+        int n = Math.max(1, topN);
+        mClock = clock;
+        mOwnsClock = ownsClock;
+        mHeapSlots = new int[n];
+        mHeapDeltas = new long[n];
+        mTopPids = new int[n];
+        mTopNames = new String[n];
+        mTopPercents = new double[n];
+    }
+
+    /**
+     * 设置遍历 /proc 发现新进程的间隔，默认5秒；<=0 表示每轮都遍历
+     */
+    public void setRescanInterval(long interval, TimeUnit unit) {
+        mRescanIntervalNanos = Math.max(0, unit.toNanos(interval));
+    }
+
+    /**
+     * 设置最多保持打开的stat文件数，默认256；超出的进程每轮重新打开，多一次open/close
+     */
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        mMaxOpenFiles = Math.max(0, maxOpenFiles);
+    }
+
+    /**
+     * 采样一次所有已知进程，并按间隔遍历 /proc 加入新进程
+     *
+     * @return /proc 无法遍历时返回false
+     */
+    public boolean sample() {
+        if (mOwnsClock) {
+            mClock.update();
+        }
+        double totalJiffies = mClock.getTotalJiffies();
+        double deltaTotal = totalJiffies - mLastTotalJiffies;
+        boolean hasDelta = mPrimed && mLastEpoch == mClock.getEpoch() && deltaTotal > 0;
+
+        mHeapSize = 0;
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            ProcFileReader reader = mSlotReaders[slot];
+            if (reader == null) {
+                continue;
+            }
+            if (!reader.read() || !mStat.parse(reader)) {
+                // 进程已退出
+                freeSlot(slot);
+                continue;
+            }
+            keepOpenOrClose(slot);
+            long jiffies = mStat.cpuTime();
+            long last = mSlotJiffies[slot];
+            if (mStat.startTime != mSlotStartTimes[slot]) {
+                // pid被复用：新进程在上一轮之后才启动，全部CPU时间都属于本轮
+                mSlotStartTimes[slot] = mStat.startTime;
+                last = 0;
+            }
+            updateName(slot);
+            mSlotJiffies[slot] = jiffies;
+            long delta = jiffies - last;
+            if (hasDelta && delta > 0) {
+                offer(slot, delta);
+            }
+        }
+        collectTop(hasDelta ? deltaTotal : 0);
+
+        boolean ok = true;
+        long now = mClock.getUpdateNanos();
+        if (!mPrimed || now - mLastRescanNanos >= mRescanIntervalNanos) {
+            mLastRescanNanos = now;
+            ok = rescan();
+        }
+        mLastTotalJiffies = totalJiffies;
+        mLastEpoch = mClock.getEpoch();
+        mPrimed = true;
+        return ok;
+    }
+
+    /**
+     * 遍历 /proc，为尚未跟踪的进程分配槽位，以当前jiffies为基准
+     */
+    private boolean rescan() {
+        String[] names = new File("/proc").list();
+        if (names == null) {
+            return false;
+        }
+        mRescanCount++;
+        for (String name : names) {
+            if (!ProcUtil.isNumeric(name)) {
+                continue;
+            }
+            int pid = Integer.parseInt(name);
+            if (mPidToSlot.get(pid) != PidSlotMap.NOT_FOUND) {
+                continue;
+            }
+            ProcFileReader reader = new ProcFileReader("/proc/" + name + "/stat", 512);
+            if (!reader.read() || !mStat.parse(reader)) {
+                // 无权限或刚刚退出
+                reader.close();
+                continue;
+            }
+            int slot = allocateSlot();
+            mSlotPids[slot] = pid;
+            mSlotStartTimes[slot] = mStat.startTime;
+            mSlotJiffies[slot] = mStat.cpuTime();
+            mSlotReaders[slot] = reader;
+            mSlotKeepOpen[slot] = false;
+            mSlotNames[slot] = mStat.comm();
+            mPidToSlot.put(pid, slot);
+            keepOpenOrClose(slot);
+        }
+        return true;
+    }
+
+    /**
+     * 读取后调用：打开的文件数未达上限时保持打开，否则关闭，下一轮read()时重新打开
+     */
+    private void keepOpenOrClose(int slot) {
+        if (mSlotKeepOpen[slot]) {
+            return;
+        }
+        if (mOpenCount < mMaxOpenFiles) {
+            mSlotKeepOpen[slot] = true;
+            mOpenCount++;
+        } else {
+            mSlotReaders[slot].close();
+        }
+    }
+
+    private int allocateSlot() {
+        if (mFreeCount > 0) {
+            return mFreeSlots[--mFreeCount];
+        }
+        if (mSlotCount == mSlotPids.length) {
+            int capacity = mSlotCount * 2;
+            mSlotPids = copyOf(mSlotPids, capacity);
+            mSlotStartTimes = copyOf(mSlotStartTimes, capacity);
+            mSlotJiffies = copyOf(mSlotJiffies, capacity);
+            ProcFileReader[] readers = new ProcFileReader[capacity];
+            System.arraycopy(mSlotReaders, 0, readers, 0, mSlotCount);
+            mSlotReaders = readers;
+            boolean[] keepOpen = new boolean[capacity];
+            System.arraycopy(mSlotKeepOpen, 0, keepOpen, 0, mSlotCount);
+            mSlotKeepOpen = keepOpen;
+            String[] names = new String[capacity];
+            System.arraycopy(mSlotNames, 0, names, 0, mSlotCount);
+            mSlotNames = names;
+            mFreeSlots = copyOf(mFreeSlots, capacity);
+        }
+        return mSlotCount++;
+    }
+
+    private void freeSlot(int slot) {
+        mSlotReaders[slot].close();
+        mSlotReaders[slot] = null;
+        if (mSlotKeepOpen[slot]) {
+            mSlotKeepOpen[slot] = false;
+            mOpenCount--;
+        }
+        mSlotNames[slot] = null;
+        mPidToSlot.remove(mSlotPids[slot]);
+        mFreeSlots[mFreeCount++] = slot;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    /**
+     * 进程名（comm）只有变化时才创建新String
+     */
+    private void updateName(int slot) {
+        String name = mSlotNames[slot];
+        int length = mStat.commLength();
+        boolean same = length == name.length();
+        for (int i = 0; same && i < length; i++) {
+            same = name.charAt(i) == (char) mStat.commByteAt(i);
+        }
+        if (!same) {
+            mSlotNames[slot] = mStat.comm();
+        }
+    }
+
+    /**
+     * 把一个进程放入最小堆，堆满时只有比堆顶大才替换堆顶
+     */
+    private void offer(int slot, long delta) {
+        if (mHeapSize < mHeapSlots.length) {
+            int pos = mHeapSize++;
+            while (pos > 0) {
+                int parent = (pos - 1) >> 1;
+                if (mHeapDeltas[parent] <= delta) {
+                    break;
+                }
+                mHeapSlots[pos] = mHeapSlots[parent];
+                mHeapDeltas[pos] = mHeapDeltas[parent];
+                pos = parent;
+            }
+            mHeapSlots[pos] = slot;
+            mHeapDeltas[pos] = delta;
+        } else if (delta > mHeapDeltas[0]) {
+            siftDown(slot, delta, mHeapSize);
+        }
+    }
+
+    /**
+     * 用(slot, delta)替换堆顶后下沉
+     */
+    private void siftDown(int slot, long delta, int size) {
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && mHeapDeltas[child + 1] < mHeapDeltas[child]) {
+                child++;
+            }
+            if (mHeapDeltas[child] >= delta) {
+                break;
+            }
+            mHeapSlots[pos] = mHeapSlots[child];
+            mHeapDeltas[pos] = mHeapDeltas[child];
+            pos = child;
+        }
+        mHeapSlots[pos] = slot;
+        mHeapDeltas[pos] = delta;
+    }
+
+    /**
+     * 依次弹出堆顶（当前最小），从后往前写入结果，得到降序排列
+     */
+    private void collectTop(double deltaTotal) {
+        mTopCount = deltaTotal > 0 ? mHeapSize : 0;
+        for (int i = mHeapSize - 1; i >= 0; i--) {
+            int slot = mHeapSlots[0];
+            long delta = mHeapDeltas[0];
+            if (i < mTopCount) {
+                mTopPids[i] = mSlotPids[slot];
+                mTopNames[i] = mSlotNames[slot];
+                mTopPercents[i] = Math.min(100.0, delta * 100.0 / deltaTotal);
+            }
+            // 把最后一个元素移到堆顶后下沉
+            siftDown(mHeapSlots[i], mHeapDeltas[i], i);
+        }
+        for (int i = mTopCount; i < mTopNames.length; i++) {
+            mTopNames[i] = null;
+        }
+        mHeapSize = 0;
+    }
+
+    public int getTopN() {
+        return mTopPids.length;
+    }
+
+    /**
+     * 本轮有CPU占用的进程中占用最高的进程数，不超过topN
+     */
+    public int getTopCount() {
+        return mTopCount;
+    }
+
+    /**
+     * @param index 0为占用最高的进程
+     */
+    public int getTopPid(int index) {
+        return mTopPids[index];
+    }
+
+    /**
+     * 进程名（stat中的comm，最长15个字符，应用进程为包名的末尾部分）
+     */
+    public String getTopName(int index) {
+        return mTopNames[index];
+    }
+
+    public double getTopCpuPercent(int index) {
+        return mTopPercents[index];
+    }
+
+    /**
+     * 当前跟踪的进程数
+     */
+    public int getProcessCount() {
+        return mPidToSlot.size();
+    }
+
+    /**
+     * 当前保持打开的stat文件数，不超过 maxOpenFiles
+     */
+    public int getOpenFileCount() {
+        return mOpenCount;
+    }
+
+    /**
+     * 遍历 /proc 的次数
+     */
+    public int getRescanCount() {
+        return mRescanCount;
+    }
+
+    @Override
+    public void close() {
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            if (mSlotReaders[slot] != null) {
+                freeSlot(slot);
+            }
+        }
+        if (mOwnsClock) {
+            mClock.close();
+        }
+    }
+}
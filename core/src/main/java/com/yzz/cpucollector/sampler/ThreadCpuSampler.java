@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 线程级CPU占用采样器
+ * 遍历 /proc/[pid]/task/[tid]/stat，按tid与线程名（comm）统计每个线程的CPU占用增量，并可取占用最高的N个线程
+ *
+ * task目录列表会被缓存：只有进程的 num_threads 发生变化、或某个线程的stat读取失败（线程已退出）时才重新扫描，
+ * 平时每轮只读取各线程已打开的stat文件，线程数上百时开销依然可控。
+ * tid被复用（starttime变化）或线程改名时按新线程处理。新线程的起点：启动于上一次采样之后的，
+ * 全部CPU时间计入本次间隔；否则（线程早已存在，只是这次才被发现）以第一次读数为基准，本轮占用率为 UNAVAILABLE。
+ * 非线程安全，应只在采样线程中调用
+ */
+public class ThreadCpuSampler implements Closeable {
+    public static final double UNAVAILABLE = -1;
+
+    /**
+     * 单个线程的采样结果，对象在线程存活期间复用
+     */
+    public static class ThreadCpu {
+        private final int mTid;
+        private final ProcFileReader mReader;
+        private String mName = "";
+        private long mStartTime = -1; // 线程启动时间（开机后的jiffies），与tid、线程名一起标识线程
+        private long mLastJiffies = -1;
+        private long mJiffies;
+        private double mCpuPercent = UNAVAILABLE;
+        private boolean mAlive = true;
+
+        ThreadCpu(int tid, String statPath) {
+            mTid = tid;
+            mReader = new ProcFileReader(statPath, 512);
+        }
+
+        public int getTid() {
+            return mTid;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * 线程累计CPU时间（utime+stime），单位jiffies
+         */
+        public long getJiffies() {
+            return mJiffies;
+        }
+
+        /**
+         * 最近一个采样间隔内的CPU占用率，口径与进程级相同（相对全部核心，0~100），本轮没有新的占用率时返回 UNAVAILABLE
+         */
+        public double getCpuPercent() {
+            return mCpuPercent;
+        }
+
+        private boolean nameEquals(PidStat stat) {
+            int length = stat.commLength();
+            boolean same = length == mName.length();
+            for (int i = 0; same && i < length; i++) {
+                same = mName.charAt(i) == (char) stat.commByteAt(i);
+            }
+            return same;
+        }
+    }
+
+    private static final ThreadCpu[] EMPTY = new ThreadCpu[0];
+
+    private final int mPid;
+    private final String mTaskDir;
+    private final ProcFileReader mProcessStatReader;
+    private final String mUptimePath;
+    private final PidStat mStat = new PidStat();
+    private final SystemCpuClock mClock;
+    private final boolean mOwnsClock;
+    private ProcFileReader mUptimeReader; // 发现新线程时才创建
+
+    private ThreadCpu[] mThreads = EMPTY;
+    private int mThreadCount;
+    private boolean mNeedRescan = true;
+    private int mRescanCount;
+    private boolean mPrimed;
+    private double mLastTotalJiffies;
+    private int mLastEpoch;
+    private long mLastSampleNanos;
+    private long mLastSampleTicks; // 上一次采样时的开机后jiffies，本轮第一次需要时才计算
+
+    public ThreadCpuSampler(int pid) {
+        this(pid, "/proc/" + pid, "/proc/uptime", new SystemCpuClock(), true);
+    }
+
+    /**
+     * 与其他采样器共享系统时钟，调用方负责在sample()前调用clock.update()
+     */
+    public ThreadCpuSampler(int pid, SystemCpuClock clock) {
+        this(pid, "/proc/" + pid, "/proc/uptime", clock, false);
+    }
+
+    /**
+     * 从指定目录读取进程的stat与task目录、从指定路径读取uptime，单元测试用
+     */
+    ThreadCpuSampler(int pid, String pidDir, String uptimePath, SystemCpuClock clock) {
+        this(pid, pidDir, uptimePath, clock, false);
+    }
+
+    private ThreadCpuSampler(int pid, String pidDir, String uptimePath, SystemCpuClock clock, boolean ownsClock) {
+        mPid = pid;
+        mClock = clock;
+        mOwnsClock = ownsClock;
+        mTaskDir = pidDir + "/task";
+        mProcessStatReader = new ProcFileReader(pidDir + "/stat", 512);
+        mUptimePath = uptimePath;
+    }
+
+    /**
+     * 采样一次所有线程。与 {@link ProcCpuSampler} 相同，第一次采样、系统时钟的基准变化后只建立基准值；
+     * 两次采样落在同一个jiffy内时保留基准值，这段时间并入下一次采样。这些情况下各线程的占用率为 UNAVAILABLE
+     *
+     * @return 进程已退出或无权限时返回false
+     */
+    public boolean sample() {
+        if (mOwnsClock) {
+            mClock.update();
+        }
+        if (!mProcessStatReader.read() || !mStat.parse(mProcessStatReader)) {
+            return false;
+        }
+        if (mNeedRescan || mStat.numThreads != mThreadCount) {
+            rescan();
+        }
+
+        double totalJiffies = mClock.getTotalJiffies();
+        double deltaTotal = totalJiffies - mLastTotalJiffies;
+        boolean sameEpoch = mPrimed && mLastEpoch == mClock.getEpoch();
+        boolean hasDelta = sameEpoch && deltaTotal > 0;
+        boolean keepBaseline = sameEpoch && deltaTotal <= 0;
+        long now = System.nanoTime();
+        mLastSampleTicks = -1;
+        for (int i = 0; i < mThreadCount; i++) {
+            ThreadCpu thread = mThreads[i];
+            if (!thread.mReader.read() || !mStat.parse(thread.mReader)) {
+                // 线程已退出，下一轮重新扫描task目录
+                thread.mCpuPercent = UNAVAILABLE;
+                thread.mAlive = false;
+                mNeedRescan = true;
+                continue;
+            }
+            thread.mAlive = true;
+            if (thread.mStartTime != mStat.startTime || !thread.nameEquals(mStat)) {
+                // 第一次读取、tid被复用或线程改名：按新线程处理，线程名极少变化，只有这时才创建新String
+                thread.mName = mStat.comm();
+                thread.mStartTime = mStat.startTime;
+                thread.mLastJiffies = sameEpoch && startedAfterLastSample(mStat.startTime, now) ? 0 : -1;
+            }
+            thread.mJiffies = mStat.cpuTime();
+            if (hasDelta && thread.mLastJiffies >= 0) {
+                thread.mCpuPercent = Math.max(0, (thread.mJiffies - thread.mLastJiffies) * 100.0 / deltaTotal);
+                thread.mLastJiffies = thread.mJiffies;
+            } else {
+                thread.mCpuPercent = UNAVAILABLE;
+                if (!keepBaseline || thread.mLastJiffies < 0) {
+                    thread.mLastJiffies = thread.mJiffies;
+                }
+            }
+        }
+        if (keepBaseline) {
+            return true;
+        }
+        mLastTotalJiffies = totalJiffies;
+        mLastEpoch = mClock.getEpoch();
+        mLastSampleNanos = now;
+        mPrimed = true;
+        return true;
+    }
+
+    /**
+     * 线程是否启动于上一次采样之后。starttime与uptime的精度都是一个jiffy，紧挨着上一次采样启动的按早于上一次采样处理，
+     * 宁可少计一次间隔，也不把线程一生的CPU时间算进来
+     */
+    private boolean startedAfterLastSample(long startTime, long nowNanos) {
+        if (mLastSampleTicks < 0) {
+            long uptime = readUptimeTicks();
+            if (uptime < 0) {
+                return false;
+            }
+            long elapsedTicks = (nowNanos - mLastSampleNanos) * ProcUtil.CLOCK_TICKS_PER_SECOND / 1000000000L;
+            mLastSampleTicks = uptime - elapsedTicks;
+        }
+        return startTime > mLastSampleTicks;
+    }
+
+    /**
+     * 读取 /proc/uptime（秒，两位小数），换算为jiffies
+     *
+     * @return 读取失败时返回 -1
+     */
+    private long readUptimeTicks() {
+        if (mUptimeReader == null) {
+            mUptimeReader = new ProcFileReader(mUptimePath, 64);
+        }
+        if (!mUptimeReader.read()) {
+            return -1;
+        }
+        mUptimeReader.position(0);
+        long seconds = mUptimeReader.nextLong();
+        if (seconds < 0 || !mUptimeReader.skipPast((byte) '.')) {
+            return -1;
+        }
+        long hundredths = mUptimeReader.nextLong();
+        if (hundredths < 0) {
+            return -1;
+        }
+        return seconds * ProcUtil.CLOCK_TICKS_PER_SECOND + hundredths * ProcUtil.CLOCK_TICKS_PER_SECOND / 100;
+    }
+
+    /**
+     * 重新扫描task目录，保留仍存活线程的采样状态
+     */
+    private void rescan() {
+        mNeedRescan = false;
+        mRescanCount++;
+        String[] names = new File(mTaskDir).list();
+        if (names == null) {
+            names = new String[0];
+        }
+        Map<Integer, ThreadCpu> old = new HashMap<>(mThreadCount * 2);
+        for (int i = 0; i < mThreadCount; i++) {
+            old.put(mThreads[i].mTid, mThreads[i]);
+        }
+        ThreadCpu[] threads = new ThreadCpu[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!ProcUtil.isNumeric(name)) {
+                continue;
+            }
+            int tid = Integer.parseInt(name);
+            ThreadCpu thread = old.remove(tid);
+            if (thread == null) {
+                // 基准值在第一次读取时按启动时间确定
+                thread = new ThreadCpu(tid, mTaskDir + "/" + name + "/stat");
+            }
+            threads[count++] = thread;
+        }
+        for (ThreadCpu dead : old.values()) {
+            dead.mReader.close();
+        }
+        mThreads = threads;
+        mThreadCount = count;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    public ThreadCpu getThread(int index) {
+        return mThreads[index];
+    }
+
+    /**
+     * task目录被重新扫描的次数，用于确认缓存是否生效
+     */
+    public int getRescanCount() {
+        return mRescanCount;
+    }
+
+    /**
+     * 取本轮占用率最高的若干线程，按占用率降序写入out，不分配内存。已退出和本轮没有占用率的线程不参与排序
+     *
+     * @param out 输出数组，长度即N
+     * @return 实际写入的线程数
+     */
+    public int getTopThreads(ThreadCpu[] out) {
+        int size = 0;
+        for (int i = 0; i < mThreadCount; i++) {
+            ThreadCpu thread = mThreads[i];
+            if (!thread.mAlive || thread.mCpuPercent == UNAVAILABLE) {
+                continue;
+            }
+            int pos = size;
+            while (pos > 0 && out[pos - 1].mCpuPercent < thread.mCpuPercent) {
+                if (pos < out.length) {
+                    out[pos] = out[pos - 1];
+                }
+                pos--;
+            }
+            if (pos < out.length) {
+                out[pos] = thread;
+                if (size < out.length) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        mProcessStatReader.close();
+        for (int i = 0; i < mThreadCount; i++) {
+            mThreads[i].mReader.close();
+        }
+        mThreads = EMPTY;
+        mThreadCount = 0;
+        if (mUptimeReader != null) {
+            mUptimeReader.close();
+        }
+        if (mOwnsClock) {
+            mClock.close();
+        }
+    }
+}
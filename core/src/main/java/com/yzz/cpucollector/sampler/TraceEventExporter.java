@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+
+/**
+ * Chrome trace-event JSON导出器，生成的文件可直接用 Perfetto（ui.perfetto.dev）或 chrome://tracing 打开
+ *
+ * 事件逐条写入一个复用的字符缓冲区，满了以后编码到复用的字节缓冲区再写入文件通道，数字直接按位写入，
+ * 不为每个事件拼接String，内存占用固定，与导出的时长无关。
+ * 时间戳为 System.nanoTime()，与systrace使用同一时钟（CLOCK_MONOTONIC），可与其对齐
+ *
+ * 非线程安全
+ */
+public class TraceEventExporter implements Closeable {
+    public static final int TID_CPU = 1;
+    public static final int TID_FRAME = 2;
+
+    private static final int BUFFER_CHARS = 8192;
+    private static final char[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private final FileOutputStream mOut;
+    private final FileChannel mChannel;
+    private final CharBuffer mChars = CharBuffer.allocate(BUFFER_CHARS);
+    // UTF-8下一个char最多编码为3个字节
+    private final ByteBuffer mBytes = ByteBuffer.allocateDirect(BUFFER_CHARS * 3);
+    private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder();
+    private final int mPid;
+    private boolean mFirstEvent = true;
+    private long mEventCount;
+
+    /**
+     * @param pid 写入每个事件的pid，用于在时间线上分组
+     */
+    public TraceEventExporter(File file, int pid) throws IOException {
+        mOut = new FileOutputStream(file);
+        mChannel = mOut.getChannel();
+        mPid = pid;
+        append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    }
+
+    /**
+     * 把 {@link TraceRecorder} 生成的二进制trace整体转换为JSON
+     *
+     * @return 写入的事件数
+     */
+    public static long export(File traceFile, File jsonFile) throws IOException {
+        TraceReader reader = new TraceReader(traceFile);
+        try {
+            TraceEventExporter exporter = new TraceEventExporter(jsonFile, 1);
+            try {
+                exporter.processName("CPUCollector");
+                exporter.threadName(TID_CPU, "cpu");
+                exporter.threadName(TID_FRAME, "frame");
+                exporter.writeAll(reader);
+            } finally {
+                exporter.close();
+            }
+            return exporter.getEventCount();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 写入读取器中剩余的全部记录：CPU采样写为计数器，帧记录写为即时事件和帧间隔计数器，
+     * 单个进程的采样按pid写为 "pid_[pid]_cpu_percent" 计数器
+     */
+    public void writeAll(TraceReader reader) throws IOException {
+        int coreCount = reader.getCoreCount();
+        String[] coreNames = new String[coreCount];
+        double[] busy = new double[coreCount];
+        double[] freqMHz = new double[coreCount];
+        for (int i = 0; i < coreCount; i++) {
+            coreNames[i] = "cpu" + i;
+        }
+        // pid -> 计数器名在processCounters中的下标，按int查找，不为每条记录装箱
+        PidSlotMap processSlots = new PidSlotMap(16);
+        String[] processCounters = new String[16];
+        int processCount = 0;
+        while (reader.next()) {
+            long ts = reader.timestampNanos();
+            if (reader.kind() == TraceRecorder.KIND_CPU) {
+                counter("cpu_percent", ts, "value", reader.cpuPercent());
+                if (coreCount > 0) {
+                    boolean any = false;
+                    for (int i = 0; i < coreCount; i++) {
+                        // 离线或不可用记为0
+                        float b = reader.coreBusyPercent(i);
+                        int f = reader.coreFreqKHz(i);
+                        busy[i] = b < 0 ? 0 : b;
+                        freqMHz[i] = f < 0 ? 0 : f / 1000.0;
+                        any |= b >= 0;
+                    }
+                    if (any) {
+                        counter("core_busy_percent", ts, coreNames, busy, coreCount);
+                        counter("core_freq_mhz", ts, coreNames, freqMHz, coreCount);
+                    }
+                }
+            } else if (reader.kind() == TraceRecorder.KIND_FRAME) {
+                double intervalMs = reader.frameIntervalNanos() / 1e6;
+                instant("frame", ts, TID_FRAME, "interval_ms", intervalMs);
+                counter("frame_interval_ms", ts, "value", intervalMs);
+            } else if (reader.kind() == TraceRecorder.KIND_PROCESS) {
+                int pid = reader.pid();
+                int slot = pid > 0 ? processSlots.get(pid) : PidSlotMap.NOT_FOUND;
+                String name;
+                if (slot != PidSlotMap.NOT_FOUND) {
+                    name = processCounters[slot];
+                } else {
+                    name = "pid_" + pid + "_cpu_percent";
+                    if (pid > 0) {
+                        // PidSlotMap不接受pid<=0，这样的记录不缓存名字
+                        if (processCount == processCounters.length) {
+                            processCounters = Arrays.copyOf(processCounters, processCount * 2);
+                        }
+                        processCounters[processCount] = name;
+                        processSlots.put(pid, processCount++);
+                    }
+                }
+                counter(name, ts, "value", reader.cpuPercent());
+            }
+        }
+    }
+
+    /**
+     * 写入进程名元数据
+     */
+    public void processName(String name) throws IOException {
+        beginEvent("process_name", 'M', 0, TID_CPU);
+        append(",\"args\":{\"name\":");
+        appendString(name);
+        append("}}");
+    }
+
+    /**
+     * 写入线程名元数据
+     */
+    public void threadName(int tid, String name) throws IOException {
+        beginEvent("thread_name", 'M', 0, tid);
+        append(",\"args\":{\"name\":");
+        appendString(name);
+        append("}}");
+    }
+
+    /**
+     * 写入单值计数器事件
+     */
+    public void counter(String name, long timestampNanos, String argName, double value) throws IOException {
+        beginEvent(name, 'C', timestampNanos, TID_CPU);
+        append(",\"args\":{");
+        appendArg(argName, value);
+        append("}}");
+    }
+
+    /**
+     * 写入多值计数器事件，在时间线上显示为堆叠的多条曲线
+     *
+     * @param count 使用argNames和values的前count项
+     */
+    public void counter(String name, long timestampNanos, String[] argNames, double[] values, int count)
+            throws IOException {
+        beginEvent(name, 'C', timestampNanos, TID_CPU);
+        append(",\"args\":{");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                append(',');
+            }
+            appendArg(argNames[i], values[i]);
+        }
+        append("}}");
+    }
+
+    /**
+     * 写入线程范围的即时事件，带一个数值参数
+     */
+    public void instant(String name, long timestampNanos, int tid, String argName, double value)
+            throws IOException {
+        beginEvent(name, 'i', timestampNanos, tid);
+        append(",\"s\":\"t\",\"args\":{");
+        appendArg(argName, value);
+        append("}}");
+    }
+
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * 写入JSON结尾并关闭文件；未调用close()的文件缺少结尾，chrome://tracing仍可打开
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            append("]}\n");
+            mChars.flip();
+            encode(true);
+            mBytes.clear();
+            mEncoder.flush(mBytes);
+            writeBytes();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    private void beginEvent(String name, char phase, long timestampNanos, int tid) throws IOException {
+        if (mFirstEvent) {
+            mFirstEvent = false;
+        } else {
+            append(',');
+        }
+        append("\n{\"name\":");
+        appendString(name);
+        append(",\"ph\":\"");
+        append(phase);
+        append("\",\"ts\":");
+        // trace-event的ts单位为微秒，保留到纳秒
+        appendScaled(timestampNanos, 3);
+        append(",\"pid\":");
+        appendLong(mPid);
+        append(",\"tid\":");
+        appendLong(tid);
+        mEventCount++;
+    }
+
+    private void appendArg(String name, double value) throws IOException {
+        appendString(name);
+        append(':');
+        appendDouble(value);
+    }
+
+    /**
+     * 保留3位小数；NaN和无穷不是合法的JSON数字，记为0
+     */
+    private void appendDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            append('0');
+            return;
+        }
+        appendScaled(Math.round(value * 1000), 3);
+    }
+
+    /**
+     * 写入 value / 10^decimals，小数部分固定为decimals位
+     */
+    private void appendScaled(long value, int decimals) throws IOException {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        if (value < 0) {
+            append('-');
+            // 按负数取整数和小数部分，避免Long.MIN_VALUE取反溢出
+            appendNegatedLong(value / scale);
+            value = -(value % scale);
+        } else {
+            appendLong(value / scale);
+            value = value % scale;
+        }
+        append('.');
+        for (long digit = scale / 10; digit > 0; digit /= 10) {
+            append((char) ('0' + value / digit % 10));
+        }
+    }
+
+    private void appendLong(long value) throws IOException {
+        if (value < 0) {
+            append('-');
+            appendNegatedLong(value);
+        } else {
+            appendNegatedLong(-value);
+        }
+    }
+
+    /**
+     * 写入 -value 的十进制数字（value <= 0）
+     */
+    private void appendNegatedLong(long value) throws IOException {
+        long divisor = -1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor != 0) {
+            append((char) ('0' + value / divisor));
+            value %= divisor;
+            divisor /= 10;
+        }
+    }
+
+    private void appendString(String s) throws IOException {
+        append('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                append('\\');
+                append(c);
+            } else if (c < 0x20) {
+                append("\\u00");
+                append(HEX[c >> 4]);
+                append(HEX[c & 0xf]);
+            } else {
+                append(c);
+            }
+        }
+        append('"');
+    }
+
+    private void append(String s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            append(s.charAt(i));
+        }
+    }
+
+    private void append(char c) throws IOException {
+        if (!mChars.hasRemaining()) {
+            mChars.flip();
+            encode(false);
+        }
+        mChars.put(c);
+    }
+
+    /**
+     * 把字符缓冲区中的内容编码并写入文件，调用前字符缓冲区应处于读模式，返回后回到写模式
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        mBytes.clear();
+        mEncoder.encode(mChars, mBytes, endOfInput);
+        // 末尾不完整的代理对留在缓冲区，下一次再编码
+        mChars.compact();
+        writeBytes();
+    }
+
+    private void writeBytes() throws IOException {
+        mBytes.flip();
+        while (mBytes.hasRemaining()) {
+            mChannel.write(mBytes);
+        }
+    }
+}
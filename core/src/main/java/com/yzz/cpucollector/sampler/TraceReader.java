@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link TraceRecorder} 生成的trace文件的顺序读取器
+ * 按段只读映射文件，游标式遍历记录，读取过程不分配对象，可按磁盘速度扫描GB级文件
+ *
+ * 用法：
+ * <pre>
+ * while (reader.next()) {
+ *     if (reader.kind() == TraceRecorder.KIND_CPU) { ... reader.cpuPercent() ... }
+ * }
+ * </pre>
+ */
+public class TraceReader implements Closeable {
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mFileSize;
+    private final int mRecordSize;
+    private final int mCoreCount;
+    private final long mChunkSize;
+    private final long mHeaderRecordCount;
+
+    private MappedByteBuffer mChunk;
+    private long mChunkStart;
+    private int mRecordOffset = -1; // 当前记录在段内的偏移
+    private boolean mEnd;
+
+    public TraceReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mFileSize = mChannel.size();
+        if (mFileSize < TraceRecorder.HEADER_SIZE) {
+            close();
+            throw new IOException("trace file too small: " + file);
+        }
+        MappedByteBuffer header = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, TraceRecorder.HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != TraceRecorder.MAGIC) {
+            close();
+            throw new IOException("not a trace file: " + file);
+        }
+        mRecordSize = header.getInt(8);
+        mCoreCount = header.getInt(12);
+        mHeaderRecordCount = header.getLong(16);
+        mChunkSize = header.getLong(24);
+        mapChunk(0);
+        mRecordOffset = TraceRecorder.HEADER_SIZE - mRecordSize;
+    }
+
+    public int getCoreCount() {
+        return mCoreCount;
+    }
+
+    /**
+     * 文件头中记录的总数，记录器未正常关闭时为0
+     */
+    public long getHeaderRecordCount() {
+        return mHeaderRecordCount;
+    }
+
+    /**
+     * 移动到下一条记录
+     *
+     * @return 没有更多记录时返回false
+     */
+    public boolean next() throws IOException {
+        if (mEnd) {
+            return false;
+        }
+        int offset = mRecordOffset + mRecordSize;
+        if (offset + mRecordSize > mChunk.limit()) {
+            long nextStart = mChunkStart + mChunkSize;
+            if (nextStart >= mFileSize) {
+                mEnd = true;
+                return false;
+            }
+            mapChunk(nextStart);
+            offset = 0;
+            if (mRecordSize > mChunk.limit()) {
+                mEnd = true;
+                return false;
+            }
+        }
+        mRecordOffset = offset;
+        if (kind() == TraceRecorder.KIND_END) {
+            mEnd = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void mapChunk(long start) throws IOException {
+        long size = Math.min(mChunkSize, mFileSize - start);
+        mChunk = mChannel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        mChunk.order(ByteOrder.LITTLE_ENDIAN);
+        mChunkStart = start;
+    }
+
+    public long timestampNanos() {
+        return mChunk.getLong(mRecordOffset);
+    }
+
+    public long frameIntervalNanos() {
+        return mChunk.getLong(mRecordOffset + 8);
+    }
+
+    /**
+     * KIND_PROCESS 记录的pid
+     */
+    public int pid() {
+        return (int) mChunk.getLong(mRecordOffset + 8);
+    }
+
+    /**
+     * 记录类型，见 TraceRecorder.KIND_*
+     */
+    public int kind() {
+        return mChunk.getInt(mRecordOffset + 16);
+    }
+
+    public float cpuPercent() {
+        return mChunk.getFloat(mRecordOffset + 20);
+    }
+
+    /**
+     * 核心占用率，离线或不可用时为 -1
+     */
+    public float coreBusyPercent(int core) {
+        return mChunk.getFloat(mRecordOffset + TraceRecorder.FIXED_RECORD_SIZE + core * TraceRecorder.CORE_RECORD_SIZE);
+    }
+
+    /**
+     * 核心频率（KHz），离线或不可用时为 -1
+     */
+    public int coreFreqKHz(int core) {
+        return mChunk.getInt(mRecordOffset + TraceRecorder.FIXED_RECORD_SIZE
+                + core * TraceRecorder.CORE_RECORD_SIZE + 4);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+        mFile.close();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 内存映射的只追加二进制trace记录器，用于长时间拷机时保存每一次采样
+ *
+ * 文件格式（小端）：
+ * 文件头 HEADER_SIZE 字节：magic(int) version(int) recordSize(int) coreCount(int) recordCount(long，close时写入)
+ * chunkSize(long)；之后是定长记录：timestampNanos(long) frameIntervalNanos(long) kind(int) cpuPercent(float)
+ * + coreCount × [coreBusyPercent(float) coreFreqKHz(int)]。kind为0表示记录结束（文件尾部未写入的区域全为0）。
+ * KIND_PROCESS 记录（命令行agent按进程采样）的 frameIntervalNanos 字段保存pid，cpuPercent为该进程的占用率
+ *
+ * 文件按 chunkSize 分段映射，记录不跨段，段尾不足一条记录的空间留空；后台线程在当前分段用到一半时预先映射下一段，并定期force()刷盘，
+ * 写入线程只做内存拷贝，不会因刷盘或扩展文件而阻塞。多个线程可同时写入（内部使用一把短锁）
+ */
+public class TraceRecorder implements Closeable {
+    public static final int MAGIC = 0x54555043; // "CPUT"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    public static final int KIND_END = 0;
+    public static final int KIND_CPU = 1;
+    public static final int KIND_FRAME = 2;
+    public static final int KIND_PROCESS = 3;
+
+    static final int FIXED_RECORD_SIZE = 24;
+    static final int CORE_RECORD_SIZE = 8;
+
+    static final long CHUNK_SIZE = 16L * 1024 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mCoreCount;
+    private final int mRecordSize;
+    private final Thread mFlusher;
+
+    // 以下字段受this保护
+    private MappedByteBuffer mChunk;
+    private long mChunkStart;
+    private MappedByteBuffer mNextChunk; // 由后台线程预先映射
+    private MappedByteBuffer mRetiredChunk; // 已写满、等待后台线程刷盘的分段
+    private long mRecordCount;
+    private boolean mClosed;
+
+    public TraceRecorder(File file, int coreCount) throws IOException {
+        mCoreCount = coreCount;
+        mRecordSize = FIXED_RECORD_SIZE + coreCount * CORE_RECORD_SIZE;
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mChunk = map(0);
+        mChunk.putInt(MAGIC);
+        mChunk.putInt(VERSION);
+        mChunk.putInt(mRecordSize);
+        mChunk.putInt(coreCount);
+        mChunk.putLong(0);
+        mChunk.putLong(CHUNK_SIZE);
+        mChunk.position(HEADER_SIZE);
+
+        mFlusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "TraceRecorderFlusher");
+        mFlusher.setDaemon(true);
+        mFlusher.start();
+    }
+
+    public int getCoreCount() {
+        return mCoreCount;
+    }
+
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * 追加一条CPU采样记录
+     *
+     * @param cores 各核心数据，为null时核心字段记为不可用
+     */
+    public synchronized void appendCpuSample(long timestampNanos, double cpuPercent, CoreCpuSampler.Snapshot cores) {
+        MappedByteBuffer buffer = reserve();
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(timestampNanos);
+        buffer.putLong(0);
+        buffer.putInt(KIND_CPU);
+        buffer.putFloat((float) cpuPercent);
+        int available = cores == null ? 0 : Math.min(cores.coreCount, mCoreCount);
+        for (int i = 0; i < mCoreCount; i++) {
+            if (i < available && cores.online[i]) {
+                buffer.putFloat((float) cores.busyPercent[i]);
+                buffer.putInt((int) cores.freqKHz[i]);
+            } else {
+                buffer.putFloat(-1);
+                buffer.putInt(-1);
+            }
+        }
+        mRecordCount++;
+    }
+
+    /**
+     * 追加一条单个进程的CPU采样记录
+     */
+    public synchronized void appendProcessSample(long timestampNanos, int pid, double cpuPercent) {
+        MappedByteBuffer buffer = reserve();
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(timestampNanos);
+        buffer.putLong(pid);
+        buffer.putInt(KIND_PROCESS);
+        buffer.putFloat((float) cpuPercent);
+        buffer.position(buffer.position() + mCoreCount * CORE_RECORD_SIZE);
+        mRecordCount++;
+    }
+
+    /**
+     * 追加一条帧间隔记录
+     */
+    public synchronized void appendFrame(long timestampNanos, long frameIntervalNanos) {
+        MappedByteBuffer buffer = reserve();
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(timestampNanos);
+        buffer.putLong(frameIntervalNanos);
+        buffer.putInt(KIND_FRAME);
+        buffer.putFloat(-1);
+        // 核心字段保持映射区域的初始值0，读取时以kind区分
+        buffer.position(buffer.position() + mCoreCount * CORE_RECORD_SIZE);
+        mRecordCount++;
+    }
+
+    /**
+     * 确保当前分段还能写下一条记录，必要时切换到下一段
+     */
+    private MappedByteBuffer reserve() {
+        if (mClosed) {
+            return null;
+        }
+        if (mChunk.remaining() >= mRecordSize) {
+            return mChunk;
+        }
+        // 记录不跨段：剩余空间保持为0，相当于一段末尾的填充，读取时按段跳过
+        long nextStart = mChunkStart + CHUNK_SIZE;
+        MappedByteBuffer next = mNextChunk;
+        mNextChunk = null;
+        if (next == null) {
+            try {
+                next = map(nextStart);
+            } catch (IOException e) {
+                mClosed = true;
+                return null;
+            }
+        }
+        mRetiredChunk = mChunk;
+        mChunk = next;
+        mChunkStart = nextStart;
+        notifyAll();
+        return mChunk;
+    }
+
+    private MappedByteBuffer map(long start) throws IOException {
+        MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_WRITE, start, CHUNK_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            MappedByteBuffer toFlush;
+            MappedByteBuffer retired;
+            boolean prepareNext;
+            long nextStart;
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                try {
+                    wait(FLUSH_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (mClosed) {
+                    return;
+                }
+                toFlush = mChunk;
+                retired = mRetiredChunk;
+                mRetiredChunk = null;
+                prepareNext = mNextChunk == null && mChunk.position() > CHUNK_SIZE / 2;
+                nextStart = mChunkStart + CHUNK_SIZE;
+            }
+            if (prepareNext) {
+                try {
+                    MappedByteBuffer next = map(nextStart);
+                    synchronized (this) {
+                        if (mChunkStart + CHUNK_SIZE == nextStart) {
+                            mNextChunk = next;
+                        }
+                    }
+                } catch (IOException e) {
+                    // 写入线程会在需要时自行映射
+                }
+            }
+            // force()只把已写入页缓存的数据刷到磁盘，不影响写入线程继续写
+            if (retired != null) {
+                retired.force();
+            }
+            toFlush.force();
+        }
+    }
+
+    /**
+     * 写入记录总数并关闭文件，文件长度截断到最后一条记录
+     */
+    @Override
+    public void close() throws IOException {
+        long endOffset;
+        synchronized (this) {
+            if (mClosed && mChunk == null) {
+                return;
+            }
+            mClosed = true;
+            notifyAll();
+            endOffset = mChunkStart + mChunk.position();
+            mChunk.force();
+            if (mRetiredChunk != null) {
+                mRetiredChunk.force();
+            }
+            mChunk = null;
+            mNextChunk = null;
+            mRetiredChunk = null;
+        }
+        try {
+            mFlusher.join(FLUSH_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 在文件头写入记录数
+        MappedByteBuffer header = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(16, getRecordCount());
+        header.force();
+        try {
+            mFile.setLength(endOffset);
+        } catch (IOException e) {
+            // Windows等平台上映射未释放时无法截断，保留尾部的0填充，读取时按kind结束
+        }
+        mChannel.close();
+        mFile.close();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用阻塞Socket作为本地HTTP客户端，覆盖方法、路径、keep-alive、流水线与连接关闭
+ */
+public class MetricsServerTest {
+    private static final String BODY = "# HELP test_value Test.\n# TYPE test_value gauge\ntest_value 1.5\n";
+
+    private final MetricsServer mServer = new MetricsServer();
+    private volatile boolean mFail;
+    private Socket mSocket;
+
+    /**
+     * 解析后的响应
+     */
+    private static class Response {
+        int status;
+        final Map<String, String> headers = new HashMap<>();
+        String body;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer.addSource(new MetricsServer.Source() {
+            @Override
+            public void writeMetrics(MetricsWriter writer) {
+                if (mFail) {
+                    throw new IllegalStateException("source failed");
+                }
+                writer.header("test_value", MetricsWriter.TYPE_GAUGE, "Test.");
+                writer.value("test_value", 1.5);
+            }
+        });
+        mServer.start(0);
+        mSocket = connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mSocket.close();
+        mServer.stop();
+    }
+
+    @Test
+    public void get() throws IOException {
+        send(mSocket, "GET /metrics HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        Response response = read(mSocket, false);
+        assertEquals(200, response.status);
+        assertEquals(BODY, response.body);
+        assertEquals(String.valueOf(BODY.length()), response.headers.get("content-length"));
+        assertTrue(response.headers.get("content-type").startsWith("text/plain; version=0.0.4"));
+        assertNull(response.headers.get("connection"));
+        // 带查询串的路径同样有效
+        send(mSocket, "GET /metrics?name=x HTTP/1.1\r\n\r\n");
+        assertEquals(BODY, read(mSocket, false).body);
+        assertEquals(2, mServer.getScrapeCount());
+    }
+
+    @Test
+    public void head() throws IOException {
+        send(mSocket, "HEAD /metrics HTTP/1.1\r\n\r\n");
+        Response response = read(mSocket, true);
+        assertEquals(200, response.status);
+        assertEquals(String.valueOf(BODY.length()), response.headers.get("content-length"));
+        // 没有正文：同一连接上的下一个响应紧接在响应头之后
+        send(mSocket, "GET /metrics HTTP/1.1\r\n\r\n");
+        assertEquals(BODY, read(mSocket, false).body);
+    }
+
+    @Test
+    public void notFound() throws IOException {
+        String[] paths = {"/", "/metric", "/metricsx", "/other"};
+        for (String path : paths) {
+            send(mSocket, "GET " + path + " HTTP/1.1\r\n\r\n");
+            assertEquals(path, 404, read(mSocket, false).status);
+        }
+        assertEquals(0, mServer.getScrapeCount());
+    }
+
+    @Test
+    public void methodNotAllowed() throws IOException {
+        send(mSocket, "POST /metrics HTTP/1.1\r\nContent-Length: 0\r\n\r\n");
+        Response response = read(mSocket, false);
+        assertEquals(405, response.status);
+        assertEquals("close", response.headers.get("connection"));
+        assertEof(mSocket);
+    }
+
+    @Test
+    public void keepAlive() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            send(mSocket, "GET /metrics HTTP/1.1\r\n\r\n");
+            assertEquals(200, read(mSocket, false).status);
+        }
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(5, mServer.getScrapeCount());
+    }
+
+    @Test
+    public void pipelining() throws IOException {
+        send(mSocket, "GET /metrics HTTP/1.1\r\n\r\n"
+                + "HEAD /metrics HTTP/1.1\r\n\r\n"
+                + "GET /other HTTP/1.1\r\n\r\n"
+                + "GET /metrics HTTP/1.1\r\n\r\n");
+        assertEquals(BODY, read(mSocket, false).body);
+        assertEquals(200, read(mSocket, true).status);
+        assertEquals(404, read(mSocket, false).status);
+        assertEquals(BODY, read(mSocket, false).body);
+    }
+
+    @Test
+    public void connectionClose() throws IOException {
+        send(mSocket, "GET /metrics HTTP/1.1\r\nCONNECTION: Close\r\n\r\n");
+        Response response = read(mSocket, false);
+        assertEquals(200, response.status);
+        assertEquals(BODY, response.body);
+        assertEquals("close", response.headers.get("connection"));
+        assertEof(mSocket);
+    }
+
+    @Test
+    public void http10ClosesConnection() throws IOException {
+        send(mSocket, "GET /metrics HTTP/1.0\r\n\r\n");
+        Response response = read(mSocket, false);
+        assertEquals(200, response.status);
+        assertEquals(BODY, response.body);
+        assertEquals("close", response.headers.get("connection"));
+        assertEof(mSocket);
+    }
+
+    @Test
+    public void sourceExceptionReturns500() throws IOException {
+        mFail = true;
+        send(mSocket, "GET /metrics HTTP/1.1\r\n\r\n");
+        assertEquals(500, read(mSocket, false).status);
+        assertEquals(1, mServer.getErrorCount());
+        // 连接与服务线程都还可用
+        mFail = false;
+        send(mSocket, "GET /metrics HTTP/1.1\r\n\r\n");
+        assertEquals(BODY, read(mSocket, false).body);
+        assertTrue(mServer.isRunning());
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), mServer.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    /**
+     * 读取一个响应：逐字节读到空行，再按Content-Length读正文
+     *
+     * @param head 是否为HEAD请求的响应（没有正文）
+     */
+    private static Response read(Socket socket, boolean head) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        while (!endsWithBlankLine(header)) {
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException("incomplete header: " + header);
+            }
+            header.write(c);
+        }
+        String[] lines = header.toString("US-ASCII").split("\r\n");
+        Response response = new Response();
+        response.status = Integer.parseInt(lines[0].split(" ")[1]);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            response.headers.put(lines[i].substring(0, colon).toLowerCase(Locale.US),
+                    lines[i].substring(colon + 1).trim());
+        }
+        int length = head ? 0 : Integer.parseInt(response.headers.get("content-length"));
+        byte[] body = new byte[length];
+        for (int n = 0; n < length; ) {
+            int read = in.read(body, n, length - n);
+            if (read < 0) {
+                throw new EOFException("incomplete body");
+            }
+            n += read;
+        }
+        response.body = new String(body, "UTF-8");
+        return response;
+    }
+
+    private static boolean endsWithBlankLine(ByteArrayOutputStream out) {
+        byte[] bytes = out.toByteArray();
+        int n = bytes.length;
+        return n >= 4 && bytes[n - 4] == '\r' && bytes[n - 3] == '\n' && bytes[n - 2] == '\r' && bytes[n - 1] == '\n';
+    }
+
+    private static void assertEof(Socket socket) throws IOException {
+        assertEquals(-1, socket.getInputStream().read());
+    }
+}
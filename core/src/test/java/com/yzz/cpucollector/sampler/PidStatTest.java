@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 解析固定的stat行，重点是comm中的空格与括号，以及空的、被截断的内容
+ */
+public class PidStatTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final PidStat mStat = new PidStat();
+
+    @Test
+    public void parsesFields() throws IOException {
+        assertTrue(parse(ProcFiles.statLine(1234, "app", 300, 45, 17, 99887)));
+        assertEquals(1234, mStat.pid);
+        assertEquals('S', mStat.state);
+        assertEquals(10, mStat.minorFaults);
+        assertEquals(2, mStat.majorFaults);
+        assertEquals(300, mStat.utime);
+        assertEquals(45, mStat.stime);
+        assertEquals(345, mStat.cpuTime());
+        assertEquals(17, mStat.numThreads);
+        assertEquals(99887, mStat.startTime);
+        assertEquals(1000, mStat.vsize);
+        assertEquals(50, mStat.rssPages);
+        assertEquals("app", mStat.comm());
+    }
+
+    /**
+     * comm可以由进程自行设置，包含空格和')'时以最后一个')'为准
+     */
+    @Test
+    public void commWithSpacesAndParens() throws IOException {
+        assertTrue(parse(ProcFiles.statLine(7, "a b) (c", 11, 22, 3, 44)));
+        assertEquals("a b) (c", mStat.comm());
+        assertEquals(7, mStat.commLength());
+        assertEquals((byte) ')', mStat.commByteAt(3));
+        assertEquals(11, mStat.utime);
+        assertEquals(22, mStat.stime);
+        assertEquals(3, mStat.numThreads);
+        assertEquals(44, mStat.startTime);
+    }
+
+    @Test
+    public void emptyCommAndEmptyParens() throws IOException {
+        assertTrue(parse(ProcFiles.statLine(8, "", 1, 2, 1, 3)));
+        assertEquals("", mStat.comm());
+        assertTrue(parse(ProcFiles.statLine(8, "()", 1, 2, 1, 3)));
+        assertEquals("()", mStat.comm());
+    }
+
+    @Test
+    public void emptyBuffer() throws IOException {
+        assertFalse(parse(""));
+    }
+
+    @Test
+    public void truncatedInComm() throws IOException {
+        assertFalse(parse("1234 (app"));
+        assertFalse(parse("1234"));
+    }
+
+    @Test
+    public void truncatedAfterComm() throws IOException {
+        assertFalse(parse("1234 (app)"));
+        assertFalse(parse("1234 (app) "));
+        // 读到utime为止，stime缺失
+        assertFalse(parse("1234 (app) S 1 1 1 0 -1 0 10 0 2 0 300"));
+    }
+
+    @Test
+    public void notAStatLine() throws IOException {
+        assertFalse(parse("(app) S 1"));
+        assertFalse(parse("cpu  1 2 3 4\n"));
+    }
+
+    private boolean parse(String content) throws IOException {
+        File file = mFolder.newFile();
+        ProcFiles.write(file, content);
+        ProcFileReader reader = new ProcFileReader(file.getPath(), 16);
+        try {
+            assertTrue(reader.read());
+            return mStat.parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
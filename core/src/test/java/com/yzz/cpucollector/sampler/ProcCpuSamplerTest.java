@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用固定的 /proc/[pid]/stat 与 /proc/stat 内容驱动采样器，校验占用率与基准值的处理；另有一个读取 /proc/self 的冒烟测试
+ */
+public class ProcCpuSamplerTest {
+    private static final double EPS = 1e-9;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mPidStat;
+    private File mSystemStat;
+    private SystemCpuClock mClock;
+    private ProcCpuSampler mSampler;
+
+    @Before
+    public void setUp() throws IOException {
+        mPidStat = new File(mFolder.getRoot(), "100/stat");
+        mSystemStat = new File(mFolder.getRoot(), "stat");
+        ProcFiles.write(mSystemStat, ProcFiles.systemStat(1000));
+        mClock = new SystemCpuClock(mSystemStat.getPath(), 1);
+        mSampler = new ProcCpuSampler(100, mPidStat.getPath(), mClock);
+    }
+
+    @Test
+    public void firstSampleOnlyRecordsBaseline() throws IOException {
+        assertTrue(sample(1000, 100));
+        assertEquals(ProcCpuSampler.UNAVAILABLE, mSampler.getCpuPercent(), EPS);
+        assertTrue(sample(1100, 150));
+        assertEquals(50, mSampler.getCpuPercent(), EPS);
+        assertTrue(sample(1300, 160));
+        assertEquals(5, mSampler.getCpuPercent(), EPS);
+        assertEquals(100, mSampler.getPidStat().pid);
+    }
+
+    /**
+     * 系统总jiffies没有增长时本次为 UNAVAILABLE，并保留基准值，进程在这段时间的CPU时间计入下一次
+     */
+    @Test
+    public void noSystemDeltaKeepsBaseline() throws IOException {
+        sample(1000, 100);
+        assertTrue(sample(1000, 110));
+        assertEquals(ProcCpuSampler.UNAVAILABLE, mSampler.getCpuPercent(), EPS);
+        // 系统总jiffies倒退同样没有有效的间隔
+        assertTrue(sample(990, 115));
+        assertEquals(ProcCpuSampler.UNAVAILABLE, mSampler.getCpuPercent(), EPS);
+        assertTrue(sample(1100, 120));
+        assertEquals(20, mSampler.getCpuPercent(), EPS);
+    }
+
+    /**
+     * 进程jiffies倒退（pid被复用）时以本次读数重新建立基准
+     */
+    @Test
+    public void processJiffiesGoingBackwardsRebaselines() throws IOException {
+        sample(1000, 500);
+        assertTrue(sample(1100, 20));
+        assertEquals(ProcCpuSampler.UNAVAILABLE, mSampler.getCpuPercent(), EPS);
+        assertTrue(sample(1200, 30));
+        assertEquals(10, mSampler.getCpuPercent(), EPS);
+    }
+
+    /**
+     * 系统时钟换用墙钟时间折算（epoch变化）后，跨来源的增量没有意义，重新建立基准
+     */
+    @Test
+    public void clockEpochChangeRebaselines() throws IOException {
+        sample(1000, 100);
+        int epoch = mClock.getEpoch();
+        ProcFiles.write(mSystemStat, "intr 1 2 3\n");
+        ProcFiles.write(mPidStat, ProcFiles.statLine(100, "app", 120, 0, 1, 1));
+        mClock.update();
+        assertTrue(mSampler.sample());
+        assertEquals(epoch + 1, mClock.getEpoch());
+        assertFalse(mClock.isUsingSystemStat());
+        assertEquals(ProcCpuSampler.UNAVAILABLE, mSampler.getCpuPercent(), EPS);
+    }
+
+    @Test
+    public void unreadableStat() throws IOException {
+        sample(1000, 100);
+        sample(1100, 150);
+        ProcFiles.write(mPidStat, "100 (app");
+        mClock.update();
+        assertFalse(mSampler.sample());
+        assertEquals(ProcCpuSampler.UNAVAILABLE, mSampler.getCpuPercent(), EPS);
+    }
+
+    @Test
+    public void missingProcess() {
+        ProcCpuSampler sampler = new ProcCpuSampler(101, new File(mFolder.getRoot(), "101/stat").getPath(), mClock);
+        mClock.update();
+        assertFalse(sampler.sample());
+        assertEquals(ProcCpuSampler.UNAVAILABLE, sampler.getCpuPercent(), EPS);
+        sampler.close();
+    }
+
+    /**
+     * 在真实的 /proc 上采样当前进程，两次采样之间忙等一段时间
+     */
+    @Test
+    public void selfSmoke() {
+        Assume.assumeTrue(new File("/proc/self/stat").exists());
+        ProcCpuSampler sampler = new ProcCpuSampler(ProcUtil.selfPid());
+        try {
+            assertTrue(sampler.sample());
+            assertEquals(ProcUtil.selfPid(), sampler.getPidStat().pid);
+            assertTrue(sampler.getPidStat().numThreads > 0);
+            long end = System.nanoTime() + 200000000L;
+            long spins = 0;
+            while (System.nanoTime() < end) {
+                spins++;
+            }
+            assertTrue(spins > 0);
+            assertTrue(sampler.sample());
+            double percent = sampler.getCpuPercent();
+            assertTrue(String.valueOf(percent), percent > 0 && percent <= 100);
+        } finally {
+            sampler.close();
+        }
+    }
+
+    private boolean sample(long systemJiffies, long processJiffies) throws IOException {
+        ProcFiles.write(mSystemStat, ProcFiles.systemStat(systemJiffies));
+        ProcFiles.write(mPidStat, ProcFiles.statLine(100, "app", processJiffies, 0, 1, 1));
+        mClock.update();
+        return mSampler.sample();
+    }
+}
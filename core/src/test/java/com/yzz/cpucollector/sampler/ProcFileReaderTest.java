@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 游标解析方法与文件句柄复用，内容来自临时文件
+ */
+public class ProcFileReaderTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void parsesNumbersAndLines() throws IOException {
+        ProcFileReader reader = reader("12 -3 abc\n  7\tword 8\n");
+        assertTrue(reader.read());
+        assertEquals(12, reader.nextLong());
+        assertEquals(-3, reader.nextLong());
+        // 不是数字：返回-1，游标不动
+        assertEquals(-1, reader.nextLong());
+        assertTrue(reader.nextLine());
+        assertEquals(7, reader.nextLong());
+        reader.skipFields(1);
+        assertEquals(8, reader.nextLong());
+        // 最后一行之后没有下一行
+        assertFalse(reader.nextLine());
+        assertEquals(-1, reader.nextLong());
+        reader.close();
+    }
+
+    @Test
+    public void skipFieldsStopsAtLineEnd() throws IOException {
+        ProcFileReader reader = reader("a b\n5\n");
+        assertTrue(reader.read());
+        reader.skipFields(5);
+        assertEquals(-1, reader.nextLong());
+        assertTrue(reader.nextLine());
+        assertEquals(5, reader.nextLong());
+        reader.close();
+    }
+
+    @Test
+    public void skipPastLastFindsLastOccurrence() throws IOException {
+        ProcFileReader reader = reader("1 (a) b) 9");
+        assertTrue(reader.read());
+        assertTrue(reader.skipPastLast((byte) ')'));
+        assertEquals(9, reader.nextLong());
+        reader.position(0);
+        assertFalse(reader.skipPastLast((byte) '#'));
+        assertEquals(0, reader.position());
+        reader.close();
+    }
+
+    @Test
+    public void startsWithDoesNotMoveCursor() throws IOException {
+        ProcFileReader reader = reader("cpu0 1");
+        assertTrue(reader.read());
+        assertTrue(reader.startsWith(new byte[]{'c', 'p', 'u'}));
+        assertFalse(reader.startsWith(new byte[]{'c', 'p', 'u', '0', ' ', '1', '2'}));
+        assertEquals(0, reader.position());
+        reader.close();
+    }
+
+    /**
+     * 内容超过初始缓冲区时扩容，一次读完
+     */
+    @Test
+    public void growsBufferForLargeFiles() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(i).append('\n');
+        }
+        File file = mFolder.newFile("large");
+        ProcFiles.write(file, sb.toString());
+        ProcFileReader reader = new ProcFileReader(file.getPath(), 8);
+        assertTrue(reader.read());
+        assertEquals(sb.length(), reader.length());
+        for (int i = 0; i < 99; i++) {
+            assertEquals(i, reader.nextLong());
+            assertTrue(reader.nextLine());
+        }
+        assertEquals(99, reader.nextLong());
+        reader.close();
+    }
+
+    /**
+     * 每次read()回到文件开头重新读取，内容变短时length随之变化
+     */
+    @Test
+    public void rereadsFromStart() throws IOException {
+        File file = mFolder.newFile("stat");
+        ProcFiles.write(file, "123456 1");
+        ProcFileReader reader = new ProcFileReader(file.getPath(), 64);
+        assertTrue(reader.read());
+        assertEquals(123456, reader.nextLong());
+        ProcFiles.write(file, "42");
+        assertTrue(reader.read());
+        assertEquals(2, reader.length());
+        assertEquals(42, reader.nextLong());
+        assertFalse(reader.hasRemaining());
+        reader.close();
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        ProcFileReader reader = reader("");
+        assertTrue(reader.read());
+        assertEquals(0, reader.length());
+        assertEquals(-1, reader.nextLong());
+        assertFalse(reader.nextLine());
+        reader.close();
+    }
+
+    /**
+     * 文件不存在（进程已退出）时返回false；文件出现后下一次read()重新打开
+     */
+    @Test
+    public void missingFileFailsThenRecovers() throws IOException {
+        File file = new File(mFolder.getRoot(), "missing");
+        ProcFileReader reader = new ProcFileReader(file.getPath(), 64);
+        assertFalse(reader.read());
+        assertEquals(0, reader.length());
+        ProcFiles.write(file, "5");
+        assertTrue(reader.read());
+        assertEquals(5, reader.nextLong());
+        reader.close();
+    }
+
+    private ProcFileReader reader(String content) throws IOException {
+        File file = mFolder.newFile();
+        ProcFiles.write(file, content);
+        return new ProcFileReader(file.getPath(), 64);
+    }
+}
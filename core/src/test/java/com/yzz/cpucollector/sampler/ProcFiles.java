@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * 单元测试用的 /proc 文件内容，写入临时目录后由 ProcFileReader 读取
+ */
+final class ProcFiles {
+
+    private ProcFiles() {
+    }
+
+    /**
+     * 一行 /proc/[pid]/stat，未列出的字段取固定值：minflt=10 majflt=2 vsize=1000 rss=50
+     */
+    static String statLine(int pid, String comm, long utime, long stime, int numThreads, long startTime) {
+        return pid + " (" + comm + ") S 1 1 1 0 -1 0 10 0 2 0 " + utime + " " + stime + " 0 0 20 0 "
+                + numThreads + " 0 " + startTime + " 1000 50\n";
+    }
+
+    /**
+     * /proc/stat 的汇总行，总jiffies全部计入user
+     */
+    static String systemStat(long totalJiffies) {
+        return "cpu  " + totalJiffies + " 0 0 0 0 0 0 0 0 0\n";
+    }
+
+    /**
+     * 覆盖写入文件，父目录不存在时创建
+     */
+    static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            out.close();
+        }
+    }
+}
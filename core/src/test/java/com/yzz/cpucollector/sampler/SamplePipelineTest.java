@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * stop()等待超时后立即start()，同一阶段不能有两个线程同时消费
+ */
+public class SamplePipelineTest {
+
+    @Test
+    public void restartWaitsForSlowHandler() throws InterruptedException {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch allDone = new CountDownLatch(3);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final List<Long> sequences = new ArrayList<>();
+        SamplePipeline pipeline = new SamplePipeline(16, "test-pipeline");
+        pipeline.addStage("slow", new SamplePipeline.Handler() {
+            @Override
+            public void onSample(SamplePipeline.Entry entry, boolean endOfBatch) {
+                int n = active.incrementAndGet();
+                if (n > maxActive.get()) {
+                    maxActive.set(n);
+                }
+                try {
+                    synchronized (sequences) {
+                        sequences.add(entry.sequence);
+                    }
+                    if (entry.sequence == 0) {
+                        firstStarted.countDown();
+                        // 比stop()的等待超时（1秒）更久
+                        await(releaseFirst);
+                    }
+                } finally {
+                    active.decrementAndGet();
+                    allDone.countDown();
+                }
+            }
+        }, SamplePipeline.POLICY_DROP_OLDEST, 1, 1, TimeUnit.SECONDS);
+
+        pipeline.start();
+        pipeline.claim();
+        pipeline.publish();
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        pipeline.stop(); // 超时返回，旧线程仍在Handler中
+        pipeline.start();
+        pipeline.claim();
+        pipeline.publish();
+        pipeline.claim();
+        pipeline.publish();
+        Thread.sleep(200);
+        releaseFirst.countDown();
+        assertTrue(allDone.await(5, TimeUnit.SECONDS));
+        pipeline.stop();
+
+        assertEquals(1, maxActive.get());
+        synchronized (sequences) {
+            assertEquals(Arrays.asList(0L, 1L, 2L), sequences);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 窗口统计与暴力计算对比，重点覆盖环绕回后窗口与环同样大小的情况
+ */
+public class SampleRingBufferTest {
+    private static final double EPS = 1e-6;
+
+    @Test
+    public void sampleWindowAfterWrap() {
+        SampleRingBuffer ring = new SampleRingBuffer(4, 0.5);
+        SampleRingBuffer.Window full = ring.addSampleWindow(4);
+        SampleRingBuffer.Window oversized = ring.addSampleWindow(100);
+        SampleRingBuffer.Stats stats = new SampleRingBuffer.Stats();
+        for (int i = 1; i <= 10; i++) {
+            ring.add(i, i * 10);
+        }
+        // 最近4个：70, 80, 90, 100
+        assertTrue(full.read(stats));
+        assertEquals(4, stats.count);
+        assertEquals(85, stats.mean, EPS);
+        assertEquals(70, stats.min, EPS);
+        assertEquals(100, stats.max, EPS);
+        // 超过容量的窗口按容量截断
+        assertTrue(oversized.read(stats));
+        assertEquals(4, stats.count);
+        assertEquals(85, stats.mean, EPS);
+    }
+
+    @Test
+    public void sampleWindowsMatchBruteForce() {
+        int capacity = 8;
+        int[] sizes = {1, 3, 7, 8, 20};
+        SampleRingBuffer ring = new SampleRingBuffer(capacity, 0.3);
+        SampleRingBuffer.Window[] windows = new SampleRingBuffer.Window[sizes.length];
+        for (int w = 0; w < sizes.length; w++) {
+            windows[w] = ring.addSampleWindow(sizes[w]);
+        }
+        Random random = new Random(42);
+        int total = capacity * 10;
+        double[] values = new double[total];
+        SampleRingBuffer.Stats stats = new SampleRingBuffer.Stats();
+        for (int i = 0; i < total; i++) {
+            // 取整到0.5，制造相等值，覆盖单调队列中 >= / <= 的分支
+            values[i] = Math.round(random.nextDouble() * 20) / 2.0;
+            ring.add(i, values[i]);
+            for (int w = 0; w < sizes.length; w++) {
+                int n = Math.min(Math.min(sizes[w], capacity), i + 1);
+                assertTrue(windows[w].read(stats));
+                assertStats("size " + sizes[w] + " at " + i, values, i - n + 1, i, stats);
+            }
+        }
+    }
+
+    @Test
+    public void timeWindowMatchesBruteForce() {
+        int capacity = 16;
+        long maxAgeMs = 50;
+        SampleRingBuffer ring = new SampleRingBuffer(capacity, 0.3);
+        SampleRingBuffer.Window window = ring.addTimeWindow(maxAgeMs);
+        Random random = new Random(7);
+        int total = capacity * 12;
+        long[] timestamps = new long[total];
+        double[] values = new double[total];
+        SampleRingBuffer.Stats stats = new SampleRingBuffer.Stats();
+        long now = 0;
+        for (int i = 0; i < total; i++) {
+            // 间隔1~5ms，窗口内的样本数在环的容量上下波动
+            now += (1 + random.nextInt(5)) * 1000000L;
+            timestamps[i] = now;
+            values[i] = random.nextInt(1000) / 10.0;
+            ring.add(now, values[i]);
+            int first = i;
+            while (first > 0 && i - first + 1 < capacity
+                    && now - timestamps[first - 1] <= maxAgeMs * 1000000L) {
+                first--;
+            }
+            assertTrue(window.read(stats));
+            assertStats("at " + i, values, first, i, stats);
+        }
+    }
+
+    @Test
+    public void copyLatestAfterWrap() {
+        SampleRingBuffer ring = new SampleRingBuffer(4, 0.5);
+        long[] timestamps = new long[8];
+        double[] values = new double[8];
+        assertEquals(0, ring.copyLatest(timestamps, values));
+        assertTrue(Double.isNaN(ring.latest()));
+        for (int i = 1; i <= 10; i++) {
+            ring.add(i, i * 10);
+        }
+        // 写者正在写的槽位不可读，最多 capacity - 1 个
+        assertEquals(3, ring.copyLatest(timestamps, values));
+        assertEquals(8, timestamps[0]);
+        assertEquals(80, values[0], EPS);
+        assertEquals(100, values[2], EPS);
+        assertEquals(100, ring.latest(), EPS);
+        assertEquals(10, ring.count());
+    }
+
+    @Test
+    public void emptyWindow() {
+        SampleRingBuffer ring = new SampleRingBuffer(4, 0.5);
+        SampleRingBuffer.Window window = ring.addSampleWindow(2);
+        assertFalse(window.read(new SampleRingBuffer.Stats()));
+        assertTrue(Double.isNaN(ring.getEwma()));
+    }
+
+    private static void assertStats(String message, double[] values, int first, int last,
+                                    SampleRingBuffer.Stats stats) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum = 0;
+        for (int k = first; k <= last; k++) {
+            min = Math.min(min, values[k]);
+            max = Math.max(max, values[k]);
+            sum += values[k];
+        }
+        assertEquals(message, last - first + 1, stats.count);
+        assertEquals(message, min, stats.min, EPS);
+        assertEquals(message, max, stats.max, EPS);
+        assertEquals(message, sum / (last - first + 1), stats.mean, EPS);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * stop()等待超时后立即start()，新旧两个调度线程不能同时执行Task的回调
+ */
+public class SamplingSchedulerTest {
+
+    @Test
+    public void restartWaitsForSlowSample() throws InterruptedException {
+        final CountDownLatch firstSampleStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstSample = new CountDownLatch(1);
+        final CountDownLatch secondSampleDone = new CountDownLatch(1);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger samples = new AtomicInteger();
+        final AtomicInteger stops = new AtomicInteger();
+        SamplingScheduler scheduler = new SamplingScheduler("test-sampler", new SamplingScheduler.Task() {
+            @Override
+            public void onSample() {
+                enter();
+                try {
+                    if (samples.incrementAndGet() == 1) {
+                        firstSampleStarted.countDown();
+                        // 比stop()的等待超时（1秒）更久，模拟卡住的shell命令
+                        await(releaseFirstSample);
+                    } else {
+                        secondSampleDone.countDown();
+                    }
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void onStop() {
+                enter();
+                stops.incrementAndGet();
+                active.decrementAndGet();
+            }
+
+            private void enter() {
+                int n = active.incrementAndGet();
+                if (n > maxActive.get()) {
+                    maxActive.set(n);
+                }
+            }
+        });
+
+        scheduler.start();
+        scheduler.requestSample();
+        assertTrue(firstSampleStarted.await(5, TimeUnit.SECONDS));
+        scheduler.stop(); // 超时返回，第一个线程仍在onSample()中
+        scheduler.start();
+        scheduler.requestSample();
+        // 新线程在旧线程退出前不能开始采样
+        assertFalse(secondSampleDone.await(200, TimeUnit.MILLISECONDS));
+        releaseFirstSample.countDown();
+        assertTrue(secondSampleDone.await(5, TimeUnit.SECONDS));
+        scheduler.stop();
+
+        assertEquals(2, samples.get());
+        assertEquals(2, stops.get());
+        assertEquals(1, maxActive.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
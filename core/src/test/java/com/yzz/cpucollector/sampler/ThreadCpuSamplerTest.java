@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2019 jjoeyang. All Rights Reserved.
+ */
+package com.yzz.cpucollector.sampler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用临时目录模拟 /proc/[pid]/task 与 /proc/uptime，校验新线程按 starttime 与上一次采样时刻确定基准值的逻辑
+ */
+public class ThreadCpuSamplerTest {
+    private static final double EPS = 1e-9;
+    private static final int PID = 100;
+    // /proc/uptime 为1000秒，即开机后100000个jiffy；测试中两次采样的间隔远小于一个jiffy
+    private static final long UPTIME_TICKS = 100000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mPidDir;
+    private File mSystemStat;
+    private SystemCpuClock mClock;
+    private ThreadCpuSampler mSampler;
+    private final ThreadCpuSampler.ThreadCpu[] mTop = new ThreadCpuSampler.ThreadCpu[4];
+    private int mThreadCount;
+    private long mSystemJiffies = 1000;
+
+    @Before
+    public void setUp() throws IOException {
+        mPidDir = new File(mFolder.getRoot(), String.valueOf(PID));
+        mSystemStat = new File(mFolder.getRoot(), "stat");
+        File uptime = new File(mFolder.getRoot(), "uptime");
+        ProcFiles.write(uptime, "1000.00 3500.00\n");
+        ProcFiles.write(mSystemStat, ProcFiles.systemStat(mSystemJiffies));
+        mClock = new SystemCpuClock(mSystemStat.getPath(), 1);
+        mSampler = new ThreadCpuSampler(PID, mPidDir.getPath(), uptime.getPath(), mClock);
+        setThread(100, "main", 0, 500);
+        setThread(101, "worker", 0, 600);
+    }
+
+    @Test
+    public void firstSampleIsUnavailable() throws IOException {
+        assertTrue(sample(0));
+        assertEquals(2, mSampler.getThreadCount());
+        for (int i = 0; i < mSampler.getThreadCount(); i++) {
+            assertEquals(ThreadCpuSampler.UNAVAILABLE, mSampler.getThread(i).getCpuPercent(), EPS);
+        }
+        assertEquals(0, top());
+
+        setThread(100, "main", 30, 500);
+        setThread(101, "worker", 10, 600);
+        assertTrue(sample(100));
+        assertEquals(2, top());
+        assertEquals("main", mTop[0].getName());
+        assertEquals(30, mTop[0].getCpuPercent(), EPS);
+        assertEquals("worker", mTop[1].getName());
+        assertEquals(10, mTop[1].getCpuPercent(), EPS);
+    }
+
+    /**
+     * 两次采样落在同一个jiffy内：本次 UNAVAILABLE，保留基准值，这段时间并入下一次
+     */
+    @Test
+    public void noSystemDeltaKeepsBaseline() throws IOException {
+        sample(0);
+        setThread(100, "main", 5, 500);
+        assertTrue(sample(0));
+        assertEquals(ThreadCpuSampler.UNAVAILABLE, find(100).getCpuPercent(), EPS);
+        assertEquals(0, top());
+
+        setThread(100, "main", 20, 500);
+        assertTrue(sample(100));
+        assertEquals(20, find(100).getCpuPercent(), EPS);
+        assertEquals(0, find(101).getCpuPercent(), EPS);
+    }
+
+    /**
+     * 启动于上一次采样之后的线程，全部CPU时间计入本次；早已存在、这次才被发现的线程只建立基准值
+     */
+    @Test
+    public void newThreadBaselineFromStartTime() throws IOException {
+        sample(0);
+        setThread(102, "fresh", 7, UPTIME_TICKS + 50);
+        setThread(103, "late", 40, 700);
+        assertTrue(sample(100));
+        // num_threads变化触发重新扫描
+        assertEquals(4, mSampler.getThreadCount());
+        assertEquals(2, mSampler.getRescanCount());
+        assertEquals(7, find(102).getCpuPercent(), EPS);
+        assertEquals(ThreadCpuSampler.UNAVAILABLE, find(103).getCpuPercent(), EPS);
+
+        setThread(103, "late", 45, 700);
+        assertTrue(sample(100));
+        assertEquals(5, find(103).getCpuPercent(), EPS);
+    }
+
+    /**
+     * tid被复用（starttime变化）或线程改名时按新线程处理，不与旧线程的计数相减
+     */
+    @Test
+    public void reusedTidStartsOver() throws IOException {
+        setThread(101, "worker", 500, 600);
+        sample(0);
+        // 新线程启动于上一次采样之后，CPU时间比旧线程少
+        setThread(101, "worker", 8, UPTIME_TICKS + 10);
+        assertTrue(sample(100));
+        assertEquals(8, find(101).getCpuPercent(), EPS);
+
+        // 改名同样按新线程处理，starttime早于上一次采样，只建立基准值
+        setThread(100, "renamed", 20, 500);
+        assertTrue(sample(100));
+        assertEquals("renamed", find(100).getName());
+        assertEquals(ThreadCpuSampler.UNAVAILABLE, find(100).getCpuPercent(), EPS);
+    }
+
+    /**
+     * 某一轮读取失败的线程在重新扫描后仍在task目录中，应重新参与排序
+     */
+    @Test
+    public void threadRevivesAfterFailedRead() throws IOException {
+        sample(0);
+        ThreadCpuSampler.ThreadCpu worker = find(101);
+        ProcFiles.write(new File(mPidDir, "task/101/stat"), "101 (worker");
+        setThread(100, "main", 10, 500);
+        assertTrue(sample(100));
+        assertEquals(1, top());
+        assertEquals("main", mTop[0].getName());
+
+        int rescans = mSampler.getRescanCount();
+        setThread(101, "worker", 3, 600);
+        assertTrue(sample(100));
+        assertEquals(rescans + 1, mSampler.getRescanCount());
+        assertSame(worker, find(101));
+        assertEquals(2, top());
+        assertTrue(find(101).getCpuPercent() > 0);
+    }
+
+    @Test
+    public void processGone() throws IOException {
+        sample(0);
+        ProcFiles.write(new File(mPidDir, "stat"), "");
+        mClock.update();
+        assertFalse(mSampler.sample());
+    }
+
+    private void setThread(int tid, String name, long cpuTime, long startTime) throws IOException {
+        ProcFiles.write(new File(mPidDir, "task/" + tid + "/stat"),
+                ProcFiles.statLine(tid, name, cpuTime, 0, 1, startTime));
+        File taskDir = new File(mPidDir, "task");
+        String[] tids = taskDir.list();
+        if (tids != null && tids.length != mThreadCount) {
+            setProcessThreads(tids.length);
+        }
+    }
+
+    /**
+     * 进程stat中的 num_threads 与task目录保持一致
+     */
+    private void setProcessThreads(int count) throws IOException {
+        mThreadCount = count;
+        ProcFiles.write(new File(mPidDir, "stat"), ProcFiles.statLine(PID, "app", 0, 0, count, 500));
+    }
+
+    /**
+     * 系统总jiffies增加delta后采样一次
+     */
+    private boolean sample(long delta) throws IOException {
+        mSystemJiffies += delta;
+        ProcFiles.write(mSystemStat, ProcFiles.systemStat(mSystemJiffies));
+        mClock.update();
+        return mSampler.sample();
+    }
+
+    private int top() {
+        return mSampler.getTopThreads(mTop);
+    }
+
+    private ThreadCpuSampler.ThreadCpu find(int tid) {
+        for (int i = 0; i < mSampler.getThreadCount(); i++) {
+            if (mSampler.getThread(i).getTid() == tid) {
+                return mSampler.getThread(i);
+            }
+        }
+        throw new AssertionError("no thread " + tid);
+    }
+}